@@ -0,0 +1,154 @@
+package rtmath.utilities;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Listing of a large resource set by {@code ResourceLoader}: directory or JAR scan, {@code Resource} construction.
+ * <p>Calls the private {@code listResources()} through reflection, so that the same benchmark runs against an older
+ * build of ResourceLoader, for comparison. Resource sets have no index, older builds don't support it.
+ * <p>Run with: {@code ./gradlew jmh -Pjmh.includes=ResourceListingBenchmark -Pjmh.args="-prof gc"}
+ * <br>Older build: add {@code -Pjmh.baseline=path/to/rtmath-native-utils.jar}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceListingBenchmark {
+
+    @Param({"10000"})
+    public int numResources;
+
+    // Every n-th resource has an order tag, 0 = no tags
+    @Param({"0", "10"})
+    public int tagEvery;
+
+    @Param({"dir", "jar"})
+    public String source;
+
+    // Loaded by its own class loader, whose only resources are the benchmark resource set
+    public static class Anchor {}
+
+    private Path _root;
+    private URLClassLoader _loader;
+    private Class<?> _anchor;
+    private Field _rl;
+    private Field _resources;
+    private Field _jarFileSystem;
+    private Method _listResources;
+
+    private static final String ANCHOR_FILE = Anchor.class.getName().replace('.', '/') + ".class";
+
+    @Setup
+    public void setup() throws Exception {
+        _root = Files.createTempDirectory("rl_listing");
+        byte[] anchor;
+        try (InputStream in = ResourceListingBenchmark.class.getClassLoader().getResourceAsStream(ANCHOR_FILE)) {
+            anchor = readAll(in);
+        }
+
+        byte[] data = new byte[100];
+        URL url;
+        if (source.equals("jar")) {
+            Path jar = _root.resolve("resources.jar");
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+                add(out, ANCHOR_FILE, anchor);
+                add(out, "data/", new byte[0]);
+                for (int i = 0; i < numResources; ++i)
+                    add(out, "data/" + resourceName(i), data);
+            }
+
+            url = jar.toUri().toURL();
+        } else {
+            Path classFile = _root.resolve(ANCHOR_FILE);
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, anchor);
+            Files.createDirectories(_root.resolve("data"));
+            for (int i = 0; i < numResources; ++i)
+                Files.write(_root.resolve("data").resolve(resourceName(i)), data);
+
+            url = _root.toUri().toURL();
+        }
+
+        _loader = new URLClassLoader(new URL[] {url}, null);
+        _anchor = _loader.loadClass(Anchor.class.getName());
+        _rl = accessible(ResourceLoader.From.class.getDeclaredField("_rl"));
+        _resources = accessible(ResourceLoader.class.getDeclaredField("_resources"));
+        _jarFileSystem = accessible(ResourceLoader.class.getDeclaredField("_jarFileSystem"));
+        _listResources = ResourceLoader.class.getDeclaredMethod("listResources");
+        _listResources.setAccessible(true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        _loader.close();
+        Files.walkFileTree(_root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String resourceName(int i) {
+        return "file" + i + (0 != tagEvery && 0 == i % tagEvery ? "[order@" + i + "]" : "") + "_dat_zst";
+    }
+
+    private static void add(JarOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+
+        return out.toByteArray();
+    }
+
+    private static Field accessible(Field field) {
+        field.setAccessible(true);
+        return field;
+    }
+
+    @Benchmark
+    public List<?> listing() throws Exception {
+        // Configured, but not deployed: to() is not needed for listing
+        Object rl = _rl.get(ResourceLoader.from(_anchor, "/data/*"));
+        _listResources.invoke(rl);
+
+        // Released on exit by load(), not called here
+        Closeable jarFs = (Closeable)_jarFileSystem.get(rl);
+        if (null != jarFs)
+            jarFs.close();
+
+        return (List<?>)_resources.get(rl);
+    }
+}
@@ -0,0 +1,272 @@
+package rtmath.utilities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Content verification of the deployed files.
+ * <p>Remembers the files whose content was verified (or written) earlier, with their length and modification time,
+ * in the deployment directory. An unchanged file can be loaded immediately, its checksum is verified in the
+ * background thread shared by all ResourceLoader instances.
+ * <p>The record is a hint: files missing from it are verified before loading, concurrent writers may lose each
+ * other's entries.
+ */
+final class ContentVerifier {
+    static final String FILENAME = ".rlverified";
+    private static final String HEADER = "# ResourceLoader verified files v1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final Object _recordLock = new Object();
+    private static ExecutorService _executor;
+
+    /**
+     * File verified in the background. Mapped through the channel locked by the loader, the verification thread never
+     * opens the file: closing a channel of its own would release the locks held by the process.
+     */
+    static final class Deferred {
+        final long expected;
+        private final List<MappedByteBuffer> _data;
+
+        Deferred(FileChannel fc, long expected) throws IOException {
+            this.expected = expected;
+            _data = LibraryPrefetcher.map(fc);
+        }
+    }
+
+    static final class Entry {
+        final long length;
+        final long lastModified;
+        final long checksum;
+
+        Entry(long length, long lastModified, long checksum) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        boolean matches(Entry other) {
+            return null != other && length == other.length && lastModified == other.lastModified
+                && checksum == other.checksum;
+        }
+    }
+
+    private ContentVerifier() {}
+
+    private static synchronized ExecutorService executor() {
+        if (null == _executor) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ResourceLoader content verification");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        return _executor;
+    }
+
+    /**
+     * CRC32 of the whole file, the channel position is not changed.
+     */
+    static long checksum(FileChannel fc) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        int n;
+        while ((n = fc.read(buffer, position)) >= 0) {
+            crc.update(buffer.array(), 0, n);
+            position += n;
+            buffer.clear();
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * CRC32 of the mapped file.
+     */
+    static long checksum(List<MappedByteBuffer> data) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (MappedByteBuffer mapping : data) {
+            ByteBuffer b = mapping.duplicate();
+            while (b.hasRemaining()) {
+                int n = Math.min(buffer.length, b.remaining());
+                b.get(buffer, 0, n);
+                crc.update(buffer, 0, n);
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Record entry for the file, with its current length and modification time.
+     */
+    static Entry entryOf(Path file, long checksum) throws IOException {
+        return new Entry(Files.size(file), Files.getLastModifiedTime(file).toMillis(), checksum);
+    }
+
+    /**
+     * @return Verified files by filename, empty if not recorded yet
+     */
+    static Map<String, Entry> read(Path dir) {
+        HashMap<String, Entry> entries = new HashMap<>();
+        Path path = dir.resolve(FILENAME);
+        if (!Files.exists(path))
+            return entries;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), UTF8))) {
+            if (!HEADER.equals(reader.readLine()))
+                return entries;
+
+            String line;
+            while (null != (line = reader.readLine())) {
+                String[] fields = line.split("\t", -1);
+                if (4 != fields.length)
+                    continue;
+
+                entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3], 16)));
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted meanwhile
+        } catch (IOException|NumberFormatException e) {
+            log("Unable to read %s: %s", path, e);
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Add (replace) and invalidate entries of the record. Invalidated entries keep the expected checksum, but are
+     * verified before loading. Replaces the old file atomically, if possible. Errors are ignored.
+     */
+    static void update(Path dir, Map<String, Entry> verified, Collection<String> invalidated) {
+        Path path = dir.resolve(FILENAME);
+        Path tmpFile = path.resolveSibling(FILENAME + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+
+        synchronized (_recordLock) {
+            Map<String, Entry> entries = read(dir);
+            entries.putAll(verified);
+            for (String filename : invalidated) {
+                Entry entry = entries.get(filename);
+                if (null != entry)
+                    entries.put(filename, new Entry(entry.length, -1, entry.checksum));
+            }
+
+            try {
+                try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmpFile), UTF8))) {
+                    w.write(HEADER);
+                    w.write('\n');
+                    for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                        Entry entry = e.getValue();
+                        w.write(fmt("%s\t%d\t%d\t%08x\n", e.getKey(), entry.length, entry.lastModified, entry.checksum));
+                    }
+                }
+
+                try {
+                    Files.move(tmpFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmpFile, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                log("Unable to write %s: %s", path, e);
+                FileJanitor.tryDelete(tmpFile);
+            }
+        }
+    }
+
+    /**
+     * Verify the files in the background thread. Mismatching files are invalidated in the record, so that they are
+     * verified (and redeployed) before loading next time.
+     * @param deferred Files to verify, by filename
+     * @param listener Called for every mismatching or unreadable file, after the record is updated
+     * @param onMismatch Called once before the listener, if any file mismatched, so that a listener calling
+     *                   {@code load()} verifies and redeploys
+     */
+    static void verifyInBackground(final Path dir, final Map<String, Deferred> deferred,
+                                   final ResourceLoaderOptions.VerificationListener listener, final Runnable onMismatch) {
+        if (0 == deferred.size())
+            return;
+
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long t0 = System.nanoTime();
+                List<String> mismatched = new ArrayList<>();
+                List<long[]> checksums = new ArrayList<>();
+                for (Map.Entry<String, Deferred> e : deferred.entrySet()) {
+                    Path path = dir.resolve(e.getKey());
+                    long expected = e.getValue().expected;
+                    long checksum;
+                    // The file is leased by this process and can't be overwritten meanwhile
+                    try {
+                        checksum = checksum(e.getValue()._data);
+                    } catch (RuntimeException|InternalError ex) {
+                        // Truncated by someone ignoring the lease
+                        log("Unable to verify %s: %s", path, ex);
+                        checksum = -1;
+                    }
+
+                    if (checksum == expected)
+                        continue;
+
+                    log("File checksum mismatch: %s (%08x, expected: %08x)", path, checksum, expected);
+                    mismatched.add(e.getKey());
+                    checksums.add(new long[] {expected, checksum});
+                }
+
+                log("Verified %s files in the background in %s us, mismatched: %s", deferred.size(),
+                    (System.nanoTime() - t0) / 1000, mismatched);
+
+                if (0 == mismatched.size())
+                    return;
+
+                update(dir, new HashMap<String, Entry>(), mismatched);
+                FileJanitor.deleteCompletionMarker(dir);
+                onMismatch.run();
+
+                for (int i = 0; i < mismatched.size(); ++i) {
+                    try {
+                        listener.onMismatch(dir.resolve(mismatched.get(i)).toString(), checksums.get(i)[0],
+                            checksums.get(i)[1]);
+                    } catch (Throwable ex) {
+                        log("Verification listener threw: %s", ex);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,124 @@
+package rtmath.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static rtmath.utilities.ResourceLoaderUtils.OS;
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * CPU architecture and feature level, for the {@code $(CPU_ARCH)} and {@code $(CPU_LEVEL)} template variables.
+ * <p>x86-64 feature levels (x86-64-v1..v4, as defined by the psABI) are detected from the {@code flags} line of
+ * {@code /proc/cpuinfo}. The kernel hides the features the OS doesn't support (e.g. AVX without XSAVE), so the
+ * flags are safe to rely on. On other platforms, or if the detection fails, only the baseline level is reported.
+ */
+final class CpuFeatures {
+    static final String X86_64 = "x86-64";
+
+    // Flags required by each level in addition to the previous ones, /proc/cpuinfo names
+    private static final String[][] X86_64_LEVEL_FLAGS = {
+        {},     // v1: baseline, any x86-64 CPU
+        {"cx16", "lahf_lm", "popcnt", "pni", "ssse3", "sse4_1", "sse4_2"},
+        {"avx", "avx2", "bmi1", "bmi2", "f16c", "fma", "abm", "movbe", "xsave"},
+        {"avx512f", "avx512bw", "avx512cd", "avx512dq", "avx512vl"}
+    };
+
+    private static List<String> _levels;
+
+    private CpuFeatures() {}
+
+    /**
+     * @return Normalized name of the JVM architecture: 'x86-64' | 'x86' | 'aarch64' | os.arch value
+     */
+    static String arch() {
+        String arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+        if (arch.equals("amd64") || arch.equals("x86_64"))
+            return X86_64;
+
+        if (arch.matches("i[3-6]86|x86"))
+            return "x86";
+
+        return arch.equals("arm64") ? "aarch64" : arch;
+    }
+
+    /**
+     * @param flags CPU feature flags, /proc/cpuinfo names
+     * @return x86-64 feature level, 1..4
+     */
+    static int x86_64Level(Set<String> flags) {
+        int level = 1;
+        while (level < X86_64_LEVEL_FLAGS.length && flags.containsAll(Arrays.asList(X86_64_LEVEL_FLAGS[level])))
+            ++level;
+
+        return level;
+    }
+
+    /**
+     * @return Flags of the first CPU, empty if not found
+     */
+    static Set<String> readCpuinfoFlags(BufferedReader reader) throws IOException {
+        String line;
+        while (null != (line = reader.readLine())) {
+            if (line.startsWith("flags")) {
+                int i = line.indexOf(':');
+                if (i >= 0)
+                    return new HashSet<>(Arrays.asList(line.substring(i + 1).trim().split("\\s+")));
+            }
+        }
+
+        return Collections.emptySet();
+    }
+
+    private static int detectX86_64Level() {
+        if (!OS.isLinux())
+            return 1;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/cpuinfo"), Charset.forName("US-ASCII"))) {
+            return x86_64Level(readCpuinfoFlags(reader));
+        } catch (IOException|RuntimeException e) {
+            log("Unable to read CPU features: %s", e);
+            return 1;
+        }
+    }
+
+    /**
+     * Values of {@code $(CPU_LEVEL)} supported by this CPU, the most specific first, the baseline last.
+     * Detected once, on first use.
+     * @return 'x86-64-v4', 'x86-64-v3', .. 'x86-64-v1' on x86-64, a single {@code arch()} value otherwise
+     */
+    static synchronized List<String> levels() {
+        if (null == _levels) {
+            String arch = arch();
+            ArrayList<String> levels = new ArrayList<>();
+            if (arch.equals(X86_64)) {
+                for (int level = detectX86_64Level(); level > 0; --level)
+                    levels.add(X86_64 + "-v" + level);
+            } else {
+                levels.add(arch);
+            }
+
+            log("CPU levels: %s", levels);
+            _levels = Collections.unmodifiableList(levels);
+        }
+
+        return _levels;
+    }
+
+    /**
+     * @return Baseline value of {@code $(CPU_LEVEL)}, the last of {@code levels()}
+     */
+    static String baseline() {
+        List<String> levels = levels();
+        return levels.get(levels.size() - 1);
+    }
+}
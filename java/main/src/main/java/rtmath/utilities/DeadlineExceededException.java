@@ -0,0 +1,69 @@
+package rtmath.utilities;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Thrown by {@code load()}, if the resource set could not be loaded within the deadline set by
+ * {@link ResourceLoaderOptions#deadline}.
+ * <p>Carries the time spent in each phase of the loading process, so that the caller can tell a slow
+ * filesystem from a lock held by another process.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long _deadlineMillis;
+    private final long _elapsedMillis;
+    private final String _phase;
+    private final String _deploymentPath;
+    private final Map<String, Long> _phaseMillis;
+
+    DeadlineExceededException(long deadlineMillis, long elapsedMillis, String phase, String deploymentPath,
+                              Map<String, Long> phaseMillis) {
+        super(ResourceLoaderUtils.fmt("Deadline exceeded (deadline: %s ms, elapsed: %s ms, phase: %s, path: %s, phases: %s)",
+            deadlineMillis, elapsedMillis, phase, deploymentPath, phaseMillis));
+
+        _deadlineMillis = deadlineMillis;
+        _elapsedMillis = elapsedMillis;
+        _phase = phase;
+        _deploymentPath = deploymentPath;
+        _phaseMillis = Collections.unmodifiableMap(phaseMillis);
+    }
+
+    /**
+     * @return Deadline, in milliseconds
+     */
+    public long getDeadlineMillis() {
+        return _deadlineMillis;
+    }
+
+    /**
+     * @return Time elapsed since the start of {@code load()}, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return _elapsedMillis;
+    }
+
+    /**
+     * @return Name of the phase interrupted by the deadline
+     */
+    public String getPhase() {
+        return _phase;
+    }
+
+    /**
+     * @return Last deployment path tried, may be null
+     */
+    public String getDeploymentPath() {
+        return _deploymentPath;
+    }
+
+    /**
+     * Time spent in each phase, in the order of first occurrence. Phases: "list", "probe", "verify", "lock wait",
+     * "deploy", "load libraries", "join" (waiting for another thread loading the same resource set).
+     * @return Phase name to milliseconds
+     */
+    public Map<String, Long> getPhaseMillis() {
+        return _phaseMillis;
+    }
+}
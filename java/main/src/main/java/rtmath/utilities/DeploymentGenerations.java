@@ -0,0 +1,256 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Eviction of the old deployment generations: the sibling directories of a deployment directory, such as
+ * the earlier versions deployed to {@code $(TEMP)/myapp/$(VERSION)}.
+ * <p>Only the directories leased by {@code ResourceLoader} processes (see {@link DeploymentLeases}) are considered,
+ * unrelated siblings are never touched. The last use time is the modification time of the lease file.
+ * A generation is only evicted while holding its directory lock file and an exclusive lock on the lease file,
+ * i.e. when it is provably not in use and not being deployed.
+ * <p>The generations deployed by older versions (or by the C# implementation) have no lease file: they are neither
+ * evicted nor counted towards the size limit, until they are used by this version again.
+ */
+final class DeploymentGenerations {
+    private static final ReentrantLock _lock = new ReentrantLock();
+    // Deployment roots already evicted by this process
+    private static final HashSet<Path> _evictedRoots = new HashSet<>();
+
+    private DeploymentGenerations() {}
+
+    private static final class Generation {
+        final Path path;
+        final long lastUseMs;
+        final long bytes;
+
+        Generation(Path path, long lastUseMs, long bytes) {
+            this.path = path;
+            this.lastUseMs = lastUseMs;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Evict the old generations in the background, once per deployment root.
+     * @param dir deployment directory in use, its parent is the deployment root
+     * @param maxBytes total size limit of the generations, including the one in use, 0 for unlimited
+     * @param maxAgeMs generations not used for longer are evicted, 0 for unlimited
+     */
+    static void scheduleEviction(final Path dir, final long maxBytes, final long maxAgeMs) {
+        final Path root = dir.getParent();
+        if (null == root)
+            return;
+
+        _lock.lock();
+        try {
+            if (!_evictedRoots.add(root))
+                return;
+        } finally {
+            _lock.unlock();
+        }
+
+        FileJanitor.cleanupExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                evict(root, dir, maxBytes, maxAgeMs);
+            }
+        });
+    }
+
+    /**
+     * Evict generations not used for longer than {@code maxAgeMs}, then the least recently used ones
+     * until the total size is within {@code maxBytes}. Generations in use are skipped.
+     * @param root deployment root
+     * @param current generation in use by this process, never evicted
+     * @return evicted generations
+     */
+    static List<Path> evict(Path root, Path current, long maxBytes, long maxAgeMs) {
+        ArrayList<Generation> generations = new ArrayList<>();
+        long totalBytes = null != current ? sizeOf(current) : 0;
+
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(root)) {
+            for (Path path : paths) {
+                Path leasePath = path.resolve(DeploymentLeases.FILENAME);
+                if (path.equals(current) || !Files.isDirectory(path) || !Files.exists(leasePath))
+                    continue;
+
+                Generation g = new Generation(path, Files.getLastModifiedTime(leasePath).toMillis(), sizeOf(path));
+                generations.add(g);
+                totalBytes += g.bytes;
+            }
+        } catch (IOException e) {
+            log("Unable to list deployment generations: %s %s", root, e);
+            return Collections.emptyList();
+        }
+
+        // Least recently used first
+        Collections.sort(generations, new Comparator<Generation>() {
+            @Override
+            public int compare(Generation a, Generation b) {
+                return Long.compare(a.lastUseMs, b.lastUseMs);
+            }
+        });
+
+        ArrayList<Path> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Generation g : generations) {
+            boolean isExpired = 0 != maxAgeMs && now - g.lastUseMs > maxAgeMs;
+            if (!isExpired && (0 == maxBytes || totalBytes <= maxBytes))
+                continue;
+
+            if (tryEvict(g.path)) {
+                log("Evicted deployment generation: %s (%s bytes, last used %s)", g.path, g.bytes, new Date(g.lastUseMs));
+                totalBytes -= g.bytes;
+                evicted.add(g.path);
+            }
+        }
+
+        return evicted;
+    }
+
+    private static boolean tryEvict(Path dir) {
+        // Nested deployment directories, such as $(RANDOM) fallbacks, are leased by their users independently
+        // of the generation, and are locked the same way
+        List<Path> leasedDirs;
+        try {
+            leasedDirs = leasedDirectories(dir);
+        } catch (IOException e) {
+            log("Unable to evict deployment generation: %s %s", dir, e);
+            return false;
+        }
+
+        ArrayList<FileJanitor.LockFile> lockFiles = new ArrayList<>();
+        ArrayList<FileLock> locks = new ArrayList<>();
+        try {
+            for (Path d : leasedDirs) {
+                // Not being deployed
+                FileJanitor.LockFile lockFile = FileJanitor.tryCreateLockFile(d);
+                if (null == lockFile)
+                    return false;
+
+                lockFiles.add(lockFile);
+                FileLock lock = DeploymentLeases.tryLockUnused(d);
+                if (null == lock) {
+                    log("Deployment generation %s is in use: %s", dir, d);
+                    return false;
+                }
+
+                locks.add(lock);
+            }
+
+            deleteContents(dir, leasedDirs);
+            // While still locked, if possible: the processes waiting for the lock will see it was deleted
+            for (Path d : leasedDirs)
+                FileJanitor.tryDelete(d.resolve(DeploymentLeases.FILENAME));
+        } catch (IOException e) {
+            log("Unable to evict deployment generation: %s %s", dir, e);
+            return false;
+        } finally {
+            for (int i = 0; i < locks.size(); ++i)
+                DeploymentLeases.unlockUnused(leasedDirs.get(i), locks.get(i));
+
+            for (FileJanitor.LockFile lockFile : lockFiles)
+                lockFile.close();
+        }
+
+        // Deepest first. May fail, if a directory is being used again already
+        for (int i = leasedDirs.size() - 1; i >= 0; --i)
+            FileJanitor.tryDelete(leasedDirs.get(i).resolve(DeploymentLeases.FILENAME));
+
+        deleteEmptyDirectories(dir);
+        return true;
+    }
+
+    /**
+     * @return the generation directory and all the leased directories nested in it, parents first
+     */
+    private static List<Path> leasedDirectories(Path dir) throws IOException {
+        final ArrayList<Path> dirs = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                if (dirs.isEmpty() || Files.exists(d.resolve(DeploymentLeases.FILENAME)))
+                    dirs.add(d);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return dirs;
+    }
+
+    // Delete everything except the lock files and the lease files of the leased directories
+    private static void deleteContents(final Path dir, final List<Path> leasedDirs) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path parent = file.getParent();
+                if (!leasedDirs.contains(parent) || !file.equals(parent.resolve(DeploymentLeases.FILENAME))
+                    && !file.equals(FileJanitor.lockFilePath(parent)))
+                    Files.delete(file);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                if (null != e)
+                    throw e;
+
+                // Leased directories and their parents are deleted after unlocking
+                if (!d.equals(dir) && !leasedDirs.contains(d)) {
+                    try {
+                        Files.delete(d);
+                    } catch (DirectoryNotEmptyException ex) {}
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void deleteEmptyDirectories(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException e) {
+                    FileJanitor.tryDelete(d);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {}
+    }
+
+    private static long sizeOf(Path dir) {
+        final long[] size = {0};
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {}
+
+        return size[0];
+    }
+}
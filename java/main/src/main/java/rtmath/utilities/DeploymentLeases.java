@@ -0,0 +1,404 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Registry of the processes using a deployment directory ({@code .rlinuse}), one file per directory.
+ * <p>Every process using the directory holds a shared lock on the gate byte from the start of {@code load()}
+ * until exit. A directory can only be deleted by a process holding an exclusive lock on the gate,
+ * i.e. when it is provably not used by anyone, which costs a single lock attempt.
+ * <p>After loading, every process also takes a lease slot: an exclusive lock on the slot lock byte, and a record
+ * listing the CRC32 hashes of the filenames it uses. A process overwriting a file reads the records (a single read)
+ * and checks the liveness of the matching ones, instead of every process holding a lock per used file.
+ * <p>The file modification time is kept close to the time of the last use, see {@code USAGE_RECORD_PERIOD_MS}.
+ * <p>Locked ranges don't overlap the data, so that the records can be read regardless of the locks held by
+ * other processes (byte range locks are mandatory on Windows).
+ * <p>Every record write is followed by a new random version, so that a process overwriting several files reads
+ * the records once per deployment, and only reads the version before each file, see {@link LeasedFiles}.
+ */
+final class DeploymentLeases {
+    static final String FILENAME = ".rlinuse";
+    // Granularity of the last use time, limits the metadata writes
+    static final long USAGE_RECORD_PERIOD_MS = 3600000;
+
+    private static final long GATE_OFFSET = 0;
+    private static final long VERSION_OFFSET = 8;
+    private static final long GATE_POLL_MS = 10;
+    private static final long SLOTS_OFFSET = 4096;
+    private static final long SLOT_LOCKS_OFFSET = 1 << 20;
+    private static final int SLOT_SIZE = 1024;
+    private static final int MAX_SLOTS = 256;
+    // Slot record: number of hashes, then the hashes. Processes using more files lease all files in the directory
+    private static final int MAX_HASHES = SLOT_SIZE / 4 - 1;
+    private static final int ALL_FILES = -1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final class Lease {
+        final FileChannel channel;
+        FileLock slotLock;                  // null, until the used files are known
+        final HashSet<Integer> hashes = new HashSet<>();
+        int users;                          // acquire() calls not released yet
+
+        Lease(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // Guards the leases of this process
+    private static final ReentrantLock _lock = new ReentrantLock();
+    private static final Condition _deletionDone = _lock.newCondition();
+    private static final HashMap<Path, Lease> _leases = new HashMap<>();
+    // Directories being deleted by this process: file locks can't exclude their use within the same JVM
+    private static final HashSet<Path> _deleting = new HashSet<>();
+
+    private DeploymentLeases() {}
+
+    // Called with the lock held
+    private static void awaitDeletion(Path dir) {
+        while (_deleting.contains(dir))
+            _deletionDone.awaitUninterruptibly();
+    }
+
+    static int hash(String filename) {
+        CRC32 crc = new CRC32();
+        crc.update(filename.getBytes(UTF8));
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Record the use of a deployment directory and protect it from deletion until exit, or until
+     * {@link #release(Path)}, if no files are leased meanwhile.
+     * <p>Does nothing, if the directory does not exist yet: call again after deployment.
+     * Waits, if the directory is being deleted by another process.
+     * @param timeoutMs maximum wait time, the directory is not protected if it is exceeded
+     */
+    static void acquire(Path dir, long timeoutMs) {
+        _lock.lock();
+        try {
+            Lease lease = acquireInternal(dir, timeoutMs);
+            if (null != lease)
+                ++lease.users;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Undo {@link #acquire}, if the directory was not used: the lease is closed, unless files were leased
+     * or another {@code load()} of this process acquired it too, so that a failed deployment can be cleaned up.
+     */
+    static void release(Path dir) {
+        _lock.lock();
+        try {
+            Lease lease = _leases.get(dir);
+            if (null == lease)
+                return;
+
+            lease.users = Math.max(0, lease.users - 1);
+            if (0 == lease.users && null == lease.slotLock && lease.hashes.isEmpty()) {
+                _leases.remove(dir);
+                closeQuietly(lease.channel);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static Lease acquireInternal(Path dir, long timeoutMs) {
+        awaitDeletion(dir);
+        Lease lease = _leases.get(dir);
+        if (null != lease || !Files.isDirectory(dir))
+            return lease;
+
+        Path path = dir.resolve(FILENAME);
+        // The file is deleted by the process deleting the directory while still locked, and may be recreated
+        for (int attempt = 0; attempt < 3; ++attempt) {
+            FileChannel fc = null;
+            try {
+                fc = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (null == lockGate(fc, timeoutMs)) {
+                    log("Timed out waiting for the deletion of deployment directory: %s", dir);
+                    fc.close();
+                    return null;
+                }
+
+                if (!Files.exists(path)) {
+                    fc.close();
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - Files.getLastModifiedTime(path).toMillis() > USAGE_RECORD_PERIOD_MS)
+                    Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+
+                lease = new Lease(fc);
+                _leases.put(dir, lease);
+                return lease;
+            } catch (IOException|OverlappingFileLockException e) {
+                // Deleted meanwhile, or the filesystem does not support locking
+                log("Unable to lease deployment directory: %s %s", dir, e);
+                closeQuietly(fc);
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    // Shared lock on the gate, polling while the directory is being deleted by another process
+    private static FileLock lockGate(FileChannel fc, long timeoutMs) throws IOException {
+        long t0 = System.nanoTime();
+        while (true) {
+            FileLock lock = fc.tryLock(GATE_OFFSET, 1, true);
+            if (null != lock || (System.nanoTime() - t0) / 1000000 >= timeoutMs)
+                return lock;
+
+            try {
+                Thread.sleep(GATE_POLL_MS);
+            } catch (InterruptedException e) {
+                log("Interrupted while waiting for the lease file: %s", e);
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Protect the used files from being overwritten by other processes until exit.
+     * <p>Should be called while the files are still locked for reading, after loading.
+     * @param dir deployment directory
+     * @param filenames used files, added to the files leased earlier
+     * @param timeoutMs maximum wait time, if the directory was not acquired yet
+     */
+    static void addFiles(Path dir, Collection<String> filenames, long timeoutMs) {
+        _lock.lock();
+        try {
+            Lease lease = acquireInternal(dir, timeoutMs);
+            if (null == lease)
+                return;
+
+            for (String filename : filenames)
+                lease.hashes.add(hash(filename));
+
+            FileChannel fc = lease.channel;
+            if (null == lease.slotLock) {
+                for (int i = 0; i < MAX_SLOTS && null == lease.slotLock; ++i)
+                    lease.slotLock = tryLock(fc, SLOT_LOCKS_OFFSET + i);
+
+                if (null == lease.slotLock) {
+                    log("No free lease slots in: %s", dir);
+                    return;
+                }
+            }
+
+            int slot = (int)(lease.slotLock.position() - SLOT_LOCKS_OFFSET);
+            int n = lease.hashes.size();
+            ByteBuffer record = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(n <= MAX_HASHES ? n : ALL_FILES);
+            if (n <= MAX_HASHES) {
+                for (int h : lease.hashes)
+                    record.putInt(h);
+            }
+
+            // Whole slot, readers ignore the incomplete ones
+            record.rewind();
+            fc.write(record, SLOTS_OFFSET + (long)slot * SLOT_SIZE);
+
+            // After the record: a reader that sees the version it read before has seen the record too
+            ByteBuffer version = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            version.putLong(0, ThreadLocalRandom.current().nextLong());
+            fc.write(version, VERSION_OFFSET);
+        } catch (IOException e) {
+            log("Unable to write lease: %s %s", dir, e);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Files of a deployment directory leased by the other live processes, for a single deployment.
+     * <p>The records are read (and the liveness of their slots checked) on the first call, and again only
+     * if the version changed, i.e. a process leased files meanwhile. Processes that die meanwhile are still
+     * treated as live, until the next deployment.
+     */
+    static final class LeasedFiles {
+        private final Path _dir;
+        private boolean _isRead;
+        private long _version;
+        private boolean _isAll;     // Leased by a process using too many files to list, or the records can't be read
+        private final HashSet<Integer> _hashes = new HashSet<>();
+
+        LeasedFiles(Path dir) {
+            _dir = dir;
+        }
+
+        /**
+         * Check, if the file is used by another live process. Should be called while the file is locked for writing:
+         * a process loading the file leases it before releasing its read lock.
+         * @return false, if the directory was never leased
+         */
+        boolean contains(String filename) {
+            Path path = _dir.resolve(FILENAME);
+            if (!Files.exists(path))
+                return false;
+
+            // Closing any channel of the file releases all the locks this process holds on it (POSIX),
+            // so our own channel is used, if we hold a lease, and no leases are taken meanwhile
+            _lock.lock();
+            FileChannel fc = null;
+            try {
+                awaitDeletion(_dir);
+                Lease lease = _leases.get(_dir);
+                fc = null != lease ? lease.channel : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+                ByteBuffer version = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                while (version.hasRemaining() && fc.read(version, VERSION_OFFSET + version.position()) > 0) {}
+                long v = version.hasRemaining() ? 0 : version.getLong(0);
+                if (!_isRead || v != _version) {
+                    read(fc, null != lease && null != lease.slotLock ? lease.slotLock.position() - SLOT_LOCKS_OFFSET : -1);
+                    _version = v;
+                    _isRead = true;
+                }
+
+                return _isAll || _hashes.contains(hash(filename));
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (IOException e) {
+                // Can't prove it is not used
+                return true;
+            } finally {
+                if (null != fc && (!_leases.containsKey(_dir) || _leases.get(_dir).channel != fc))
+                    closeQuietly(fc);
+
+                _lock.unlock();
+            }
+        }
+
+        // Called with the lock held
+        private void read(FileChannel fc, long ownSlot) throws IOException {
+            _isAll = false;
+            _hashes.clear();
+
+            long size = Math.min(fc.size() - SLOTS_OFFSET, (long)MAX_SLOTS * SLOT_SIZE);
+            if (size <= 0)
+                return;
+
+            ByteBuffer records = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+            while (records.hasRemaining() && fc.read(records, SLOTS_OFFSET + records.position()) > 0) {}
+            records.flip();
+
+            for (int slot = 0; slot < records.limit() / SLOT_SIZE && !_isAll; ++slot) {
+                int offset = slot * SLOT_SIZE, n = records.getInt(offset);
+                if (slot == ownSlot || 0 == n || !isSlotLive(fc, slot))
+                    continue;
+
+                _isAll = ALL_FILES == n;
+                for (int i = 0; i < n && i < MAX_HASHES; ++i)
+                    _hashes.add(records.getInt(offset + 4 + 4 * i));
+            }
+        }
+    }
+
+    // Records of the dead processes are left in place, until the slot is reused
+    private static boolean isSlotLive(FileChannel fc, int slot) {
+        try {
+            FileLock lock = fc.tryLock(SLOT_LOCKS_OFFSET + slot, 1, false);
+            if (null == lock)
+                return true;
+
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException|IOException e) {
+            // Our own slot is skipped by the caller, can't prove it is not used otherwise
+            return true;
+        }
+    }
+
+    /**
+     * Lock the directory for deletion, if it is not used by any process. Delete the lease file while still holding
+     * the returned lock, if possible, then call {@link #unlockUnused(Path, FileLock)}.
+     * <p>This process waits for the lock release before using the directory or reading its lease file.
+     * @return null, if the directory is in use
+     * @throws NoSuchFileException if the directory was never leased
+     */
+    static FileLock tryLockUnused(Path dir) throws IOException {
+        _lock.lock();
+        try {
+            if (_leases.containsKey(dir) || _deleting.contains(dir))
+                return null;
+
+            FileChannel fc = FileChannel.open(dir.resolve(FILENAME), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = tryLock(fc, GATE_OFFSET);
+            if (null == lock)
+                fc.close();
+            else
+                _deleting.add(dir);
+
+            return lock;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    static void unlockUnused(Path dir, FileLock lock) {
+        _lock.lock();
+        try {
+            closeQuietly(lock.channel());
+            _deleting.remove(dir);
+            _deletionDone.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Release the leases, so that the deployment directories used by this process can be cleaned up on exit.
+     */
+    static void releaseAll() {
+        _lock.lock();
+        try {
+            for (Lease lease : _leases.values())
+                closeQuietly(lease.channel);
+
+            _leases.clear();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static FileLock tryLock(FileChannel fc, long position) throws IOException {
+        try {
+            return fc.tryLock(position, 1, false);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(FileChannel fc) {
+        if (null != fc) {
+            try {
+                fc.close();
+            } catch (IOException e) {}
+        }
+    }
+}
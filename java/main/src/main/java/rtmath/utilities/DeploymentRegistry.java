@@ -0,0 +1,235 @@
+package rtmath.utilities;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * JVM-wide registry of in-flight and completed deployments.
+ * <p>Concurrent {@code load()} calls for the same resource set and deployment path within one JVM are not competing
+ * for the file locks: the first caller deploys, the others wait for its result and share it.
+ * A repeated {@code load()} of an already loaded resource set returns the result of the first one.
+ * <p>Neither the class loaders nor the completed results are kept reachable by the registry: a deployment is
+ * forgotten when its result is no longer used, and the next {@code load()} verifies the files again.
+ */
+final class DeploymentRegistry {
+    private static final HashMap<Key, Deployment> _deployments = new HashMap<>();
+
+    /**
+     * Deployment identity: class loader used to find the resources and the configuration string,
+     * that includes expanded resource and deployment paths and the options affecting the deployed files.
+     * Options that are objects (the verification listener) are compared by identity and not kept reachable either.
+     */
+    static final class Key {
+        private final WeakReference<ClassLoader> _classLoader;  // null for the bootstrap class loader
+        private final WeakReference<Object> _listener;          // null if none
+        private final int _hash;
+        private final String _spec;
+
+        Key(ClassLoader classLoader, String spec) {
+            this(classLoader, spec, null);
+        }
+
+        Key(ClassLoader classLoader, String spec, Object listener) {
+            _classLoader = null != classLoader ? new WeakReference<>(classLoader) : null;
+            _listener = null != listener ? new WeakReference<>(listener) : null;
+            _hash = (System.identityHashCode(classLoader) * 31 + System.identityHashCode(listener)) * 31
+                + spec.hashCode();
+            _spec = spec;
+        }
+
+        private boolean isCleared() {
+            return null != _classLoader && null == _classLoader.get() || null != _listener && null == _listener.get();
+        }
+
+        private static boolean isSame(WeakReference<?> a, WeakReference<?> b) {
+            if (null == a || null == b)
+                return a == b;
+
+            Object referent = a.get();
+            return null != referent && referent == b.get();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key)o;
+            if (this == key)
+                return true;
+
+            return _spec.equals(key._spec) && isSame(_classLoader, key._classLoader) && isSame(_listener, key._listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public String toString() {
+            return _spec;
+        }
+    }
+
+    static final class Deployment {
+        private final Key _key;
+        private final Thread _owner;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile WeakReference<ResourceLoader> _result;
+        private volatile Throwable _error;     // RuntimeException or Error
+
+        private Deployment(Key key, Thread owner) {
+            _key = key;
+            _owner = owner;
+        }
+
+        /**
+         * @return true, if the caller of {@link #acquire} must perform the deployment and then call
+         * {@link #complete} or {@link #fail}
+         */
+        boolean isOwner() {
+            return Thread.currentThread() == _owner && 0 != _done.getCount();
+        }
+
+        private boolean isStale() {
+            return _key.isCleared() || 0 == _done.getCount() && null == _error && null == _result.get();
+        }
+
+        /**
+         * Check if the result belongs to this deployment, i.e. it was not joined to it.
+         */
+        boolean isResult(ResourceLoader rl) {
+            WeakReference<ResourceLoader> result = _result;
+            return null != result && rl == result.get();
+        }
+
+        /**
+         * Wait for the deployment performed by the owner.
+         * @param timeoutMs maximum wait time, Long.MAX_VALUE to wait indefinitely
+         * @return loaded resource set or null, if timed out or the result is no longer used
+         * @throws RuntimeException (or Error) thrown by the owner, if it failed to deploy
+         */
+        ResourceLoader await(long timeoutMs) {
+            boolean isInterrupted = false;
+            long deadlineNs = System.nanoTime() + Math.min(timeoutMs, Long.MAX_VALUE / 2000000) * 1000000;
+
+            while (true) {
+                try {
+                    _done.await(deadlineNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+
+            if (isInterrupted)
+                Thread.currentThread().interrupt();
+
+            if (0 != _done.getCount())
+                return null;
+
+            if (_error instanceof Error)
+                throw (Error)_error;
+
+            if (null != _error)
+                throw (RuntimeException)_error;
+
+            return _result.get();
+        }
+    }
+
+    private DeploymentRegistry() {}
+
+    /**
+     * Find completed or in-flight deployment or register a new one, owned by the current thread.
+     * @param key deployment identity
+     * @return deployment, check {@link Deployment#isOwner()} to find out if it was just created,
+     * or null, if the current thread is already deploying the same resource set (reentrant call)
+     */
+    static Deployment acquire(Key key) {
+
+        synchronized (_deployments) {
+            purge();
+            Deployment deployment = _deployments.get(key);
+            if (null == deployment) {
+                _deployments.put(key, deployment = new Deployment(key, Thread.currentThread()));
+            } else if (Thread.currentThread() == deployment._owner && 0 != deployment._done.getCount()) {
+                // Nested call from our own deployment (e.g. library initialization), can't wait for ourselves
+                return null;
+            } else {
+                log("Joining deployment: %s", key);
+            }
+
+            return deployment;
+        }
+    }
+
+    // Forget the deployments of the unloaded class loaders and the results no longer used
+    private static void purge() {
+        for (Iterator<Deployment> i = _deployments.values().iterator(); i.hasNext();) {
+            if (i.next().isStale())
+                i.remove();
+        }
+    }
+
+    static void complete(Deployment deployment, ResourceLoader result) {
+        deployment._result = new WeakReference<>(result);
+        deployment._done.countDown();
+    }
+
+    /**
+     * Mark the deployment as failed. Waiting callers get the same error, next {@code acquire()} will start over.
+     * @param error RuntimeException or Error thrown by the owner
+     */
+    static void fail(Deployment deployment, Throwable error) {
+
+        synchronized (_deployments) {
+            if (_deployments.get(deployment._key) == deployment)
+                _deployments.remove(deployment._key);
+        }
+
+        deployment._error = error;
+        deployment._done.countDown();
+    }
+
+    /**
+     * Register resource set loaded without going through {@link #acquire}, unless the same one is already registered.
+     */
+    static void register(Key key, ResourceLoader result) {
+
+        synchronized (_deployments) {
+            purge();
+            if (!_deployments.containsKey(key)) {
+                Deployment deployment = new Deployment(key, null);
+                complete(deployment, result);
+                _deployments.put(key, deployment);
+            }
+        }
+    }
+
+    /**
+     * Forget completed deployment, so that the next {@code load()} will verify and deploy again.
+     */
+    static void remove(Key key) {
+        remove(key, null);
+    }
+
+    /**
+     * Forget completed deployment, only if its result is the specified one: the callers that joined it don't own it.
+     * @param result result of the deployment, or null for any
+     */
+    static void remove(Key key, ResourceLoader result) {
+
+        synchronized (_deployments) {
+            Deployment deployment = _deployments.get(key);
+            if (null != deployment && 0 == deployment._done.getCount() && (null == result || deployment.isResult(result)))
+                _deployments.remove(key);
+        }
+    }
+}
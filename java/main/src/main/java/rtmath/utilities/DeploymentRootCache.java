@@ -0,0 +1,166 @@
+package rtmath.utilities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static rtmath.utilities.ResourceLoaderUtils.OS;
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Last successful deployment path of each resource set, stored in a per-user state file.
+ * <p>Lets {@code ResourceLoader} try the path that succeeded on the previous run first, instead of walking and
+ * probing all candidate paths. The entry is removed when loading from the remembered path fails.
+ * A remembered path is only used, if it is still one of the candidate paths.
+ * <p>Text format: header line, then key and path separated by TAB, most recently used first.
+ */
+final class DeploymentRootCache {
+    private static final String FILENAME = "ResourceLoader.roots";
+    private static final String HEADER = "# ResourceLoader deployment roots v1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int MAX_ENTRIES = 64;
+
+    static volatile Path _stateFile = stateFilePath();    // Replaced by the tests
+
+    private DeploymentRootCache() {}
+
+    /**
+     * Per-user cache directory, not shared with other users, unlike the temp directory.
+     * @return state file path or null, if the cache directory is not known
+     */
+    static Path stateFilePath() {
+        String dir = null;
+        String home = System.getProperty("user.home");
+
+        if (OS.isWindows()) {
+            dir = System.getenv("LocalAppData");
+        } else if (OS.isOsx()) {
+            dir = null != home ? home + "/Library/Caches" : null;
+        } else {
+            dir = System.getenv("XDG_CACHE_HOME");
+            if (null == dir || 0 == dir.length())
+                dir = null != home ? home + "/.cache" : null;
+        }
+
+        if (null == dir || 0 == dir.length())
+            return null;
+
+        Path path = Paths.get(dir);
+        return path.isAbsolute() ? path.resolve(FILENAME) : null;
+    }
+
+    private static LinkedHashMap<String, String> readAll(Path stateFile) {
+        LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+        if (!Files.exists(stateFile))
+            return entries;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(stateFile), UTF8))) {
+            if (!HEADER.equals(reader.readLine()))
+                return entries;
+
+            String line;
+            while (null != (line = reader.readLine())) {
+                int i = line.lastIndexOf('\t');
+                if (i > 0)
+                    entries.put(line.substring(0, i), line.substring(i + 1));
+            }
+        } catch (IOException e) {
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    private static void writeAll(Path stateFile, Map<String, String> entries) {
+        Path tmpFile = stateFile.resolveSibling(
+            stateFile.getFileName() + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+
+        try {
+            Files.createDirectories(stateFile.getParent());
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmpFile), UTF8))) {
+                w.write(HEADER);
+                w.write('\n');
+                int n = 0;
+                for (Map.Entry<String, String> e : entries.entrySet()) {
+                    if (++n > MAX_ENTRIES)
+                        break;
+
+                    w.write(e.getKey());
+                    w.write('\t');
+                    w.write(e.getValue());
+                    w.write('\n');
+                }
+            }
+
+            try {
+                Files.move(tmpFile, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, stateFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log("Unable to write deployment roots %s: %s", stateFile, e);
+            FileJanitor.tryDelete(tmpFile);
+        }
+    }
+
+    /**
+     * Get the last successful deployment path of the resource set.
+     * @param key resource set identity, must not contain line breaks
+     * @return path or null, if not known
+     */
+    static Path lookup(String key) {
+        Path stateFile = _stateFile;
+        if (null == stateFile)
+            return null;
+
+        String path = readAll(stateFile).get(key);
+        try {
+            return null != path ? Paths.get(path) : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remember the successful deployment path of the resource set. Errors are ignored.
+     * Concurrent updates by several processes may lose some of the entries, they will be added again later.
+     */
+    static void remember(String key, Path path) {
+        Path stateFile = _stateFile;
+        if (null == stateFile)
+            return;
+
+        LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+        entries.put(key, path.toString());
+        for (Map.Entry<String, String> e : readAll(stateFile).entrySet()) {
+            if (!entries.containsKey(e.getKey()))
+                entries.put(e.getKey(), e.getValue());
+        }
+
+        writeAll(stateFile, entries);
+        log("Deployment root remembered: %s", path);
+    }
+
+    /**
+     * Forget the deployment path of the resource set, after failing to load from it. Errors are ignored.
+     */
+    static void forget(String key) {
+        Path stateFile = _stateFile;
+        if (null == stateFile)
+            return;
+
+        LinkedHashMap<String, String> entries = readAll(stateFile);
+        if (null != entries.remove(key)) {
+            writeAll(stateFile, entries);
+            log("Deployment root forgotten: %s", key);
+        }
+    }
+}
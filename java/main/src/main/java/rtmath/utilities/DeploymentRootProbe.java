@@ -0,0 +1,155 @@
+package rtmath.utilities;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Probes the candidate deployment paths concurrently and ranks them, so that {@code ResourceLoader} commits to
+ * the best one first instead of spending a full verify/lock/timeout cycle on each candidate in turn.
+ * <p>Probes never take locks and never write anything, the result is only a hint: the chosen path is still
+ * verified and locked as usual, and the remaining candidates are kept as fallbacks in the ranked order.
+ * <p>A path locked by a healthy owner is ranked the same as a free one: waiting for it is cheaper than deploying
+ * another copy elsewhere. Only a lock whose owner stopped updating its lease, but can't be confirmed dead, is avoided.
+ */
+abstract class DeploymentRootProbe {
+    static final int DEPLOYED = 0;      // Resource set is already deployed there
+    static final int WRITABLE = 1;      // Can be deployed to, not locked or locked by a healthy owner
+    static final int STALLED = 2;       // Locked by an owner that stopped updating its lease
+    static final int UNKNOWN = 3;       // Probe did not complete in time
+    static final int UNWRITABLE = 4;
+
+    // Limits the delay caused by the unresponsive filesystems, unfinished probes are ranked UNKNOWN
+    static final long TIMEOUT_MS = 1000;
+
+    private static ExecutorService _executor;
+
+    private static synchronized ExecutorService executor() {
+        if (null == _executor) {
+            _executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ResourceLoader deployment path probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return _executor;
+    }
+
+    /**
+     * Check if the resource set is already deployed in the existing directory, without locking or opening the files.
+     * Called concurrently for different directories.
+     */
+    abstract boolean isDeployed(Path dir);
+
+    /**
+     * Probe a single deployment path.
+     * @return rank, lower is better
+     */
+    int probe(Path dir) {
+        if (Files.isDirectory(dir)) {
+            if (isDeployed(dir))
+                return DEPLOYED;
+
+            if (!Files.isWritable(dir))
+                return UNWRITABLE;
+
+            return isStalled(dir) ? STALLED : WRITABLE;
+        }
+
+        if (Files.exists(dir))
+            return UNWRITABLE; // Not a directory
+
+        // Will be created, the nearest existing parent must be writable
+        for (Path parent = dir.getParent(); null != parent; parent = parent.getParent()) {
+            if (Files.exists(parent))
+                return Files.isDirectory(parent) && Files.isWritable(parent) ? WRITABLE : UNWRITABLE;
+        }
+
+        return UNWRITABLE;
+    }
+
+    private static boolean isStalled(Path dir) {
+        long now = System.currentTimeMillis();
+        for (LockLease lease : LockLease.readAll(FileJanitor.lockFilePath(dir), FileJanitor.LOCK_STRIPES)) {
+            // Dead owners are detected and their locks broken quickly, don't avoid them
+            if (lease.isStale(now) && LockLease.DEAD != lease.ownerState())
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Probe all paths concurrently and sort them by rank. Paths of the same rank keep their original order.
+     * @param paths candidate paths in the order of preference
+     * @param timeoutMs maximum probing time, normally {@code TIMEOUT_MS}
+     * @return ranked paths
+     */
+    List<Path> rank(List<Path> paths, long timeoutMs) {
+        int n = paths.size();
+        if (n < 2)
+            return paths;
+
+        ArrayList<Future<Integer>> probes = new ArrayList<>(n);
+        for (final Path path : paths) {
+            probes.add(executor().submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return probe(path);
+                }
+            }));
+        }
+
+        final int[] ranks = new int[n];
+        long deadlineNs = System.nanoTime() + timeoutMs * 1000000L;
+        boolean isInterrupted = false;
+        for (int i = 0; i < n; ++i) {
+            Future<Integer> probe = probes.get(i);
+            ranks[i] = UNKNOWN;
+            try {
+                ranks[i] = probe.get(Math.max(0, deadlineNs - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+                probe.cancel(true);
+            } catch (ExecutionException e) {
+                log("Deployment path probe failed: %s %s", paths.get(i), e.getCause());
+            } catch (TimeoutException e) {
+                log("Deployment path probe timed out: %s", paths.get(i));
+                probe.cancel(true);
+            }
+        }
+
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+
+        ArrayList<Integer> order = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i)
+            order.add(i);
+
+        // Stable
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(ranks[a], ranks[b]);
+            }
+        });
+
+        ArrayList<Path> ranked = new ArrayList<>(n);
+        for (int i : order) {
+            ranked.add(paths.get(i));
+            log("Deployment path rank %s: %s", ranks[i], paths.get(i));
+        }
+
+        return ranked;
+    }
+}
@@ -0,0 +1,183 @@
+package rtmath.utilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JVM-wide scheduler of the deployment I/O, shared by all {@code ResourceLoader} instances.
+ * <p>Limits the number of files deployed concurrently and the total write bandwidth, so that a cold deployment
+ * of a big resource set does not monopolize the disk and the page cache of a shared host.
+ * <p>Files are deployed in 2 priority classes: dynamic libraries are usually on the critical path of the application
+ * startup and are always served before the other (background) files waiting for a writer slot or for bandwidth.
+ * <p>Unlimited by default, in which case it never waits. Uses {@code ReentrantLock}, not monitors.
+ */
+final class DeploymentScheduler {
+    static final int CRITICAL = 0;
+    static final int BACKGROUND = 1;
+    private static final int NUM_PRIORITIES = 2;
+
+    // Bandwidth above the limit allowed for a short time, as the time to write it at the limit
+    private static final long BURST_NS = 100000000L;
+    // Smallest write chunk, when the bandwidth is limited
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private static final ReentrantLock _lock = new ReentrantLock();
+    private static final Condition _changed = _lock.newCondition();
+    // Writer slot and bandwidth waiters are counted separately: a writer waiting for bandwidth holds its slot
+    // and must not be stopped by the higher priority waiters for the slot, or they would wait for each other
+    private static final int[] _writerWaiters = new int[NUM_PRIORITIES];
+    private static final int[] _bandwidthWaiters = new int[NUM_PRIORITIES];
+
+    private static int _maxWriters = Integer.MAX_VALUE;
+    private static volatile long _bytesPerSecond;   // 0 if unlimited, read without the lock
+    private static int _writers;
+    private static long _nextWriteNs = System.nanoTime(); // Time, when all the data written so far is paid for
+
+    private DeploymentScheduler() {}
+
+    /**
+     * Set the limits. Affects the writes started after the call.
+     * @param bytesPerSecond write bandwidth limit, 0 for unlimited
+     * @param maxWriters maximum number of files deployed concurrently, 0 for unlimited
+     */
+    static void setLimits(long bytesPerSecond, int maxWriters) {
+        _lock.lock();
+        try {
+            _bytesPerSecond = bytesPerSecond;
+            _maxWriters = 0 != maxWriters ? maxWriters : Integer.MAX_VALUE;
+            _nextWriteNs = System.nanoTime();
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    static int priorityOf(ResourceLoader.Resource resource) {
+        return resource.isDll ? CRITICAL : BACKGROUND;
+    }
+
+    /**
+     * Size of a single write, small enough to keep the bandwidth smooth when it is limited.
+     */
+    static int chunkSize(int maxChunkSize) {
+        long bytesPerSecond = _bytesPerSecond;
+        if (0 == bytesPerSecond)
+            return maxChunkSize;
+
+        return (int)Math.max(MIN_CHUNK_SIZE, Math.min(maxChunkSize, bytesPerSecond * BURST_NS / 1000000000L));
+    }
+
+    // Called with the lock held
+    private static boolean isPreempted(int[] waiters, int priority) {
+        for (int i = 0; i < priority; ++i) {
+            if (0 != waiters[i])
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Wait for a writer slot. Call {@link #releaseWriter()} after deploying the file.
+     * @param priority {@code CRITICAL} or {@code BACKGROUND}
+     * @param timeoutMs maximum wait time
+     * @return false, if timed out
+     */
+    static boolean acquireWriter(int priority, long timeoutMs) {
+        _lock.lock();
+        try {
+            if (_writers < _maxWriters && !isPreempted(_writerWaiters, priority)) {
+                ++_writers;
+                return true;
+            }
+
+            long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMs, Long.MAX_VALUE / 2000000));
+            boolean isInterrupted = false;
+            ++_writerWaiters[priority];
+            try {
+                while (_writers >= _maxWriters || isPreempted(_writerWaiters, priority)) {
+                    long remainingNs = deadlineNs - System.nanoTime();
+                    if (remainingNs <= 0)
+                        return false;
+
+                    try {
+                        _changed.awaitNanos(remainingNs);
+                    } catch (InterruptedException e) {
+                        isInterrupted = true;
+                    }
+                }
+
+                ++_writers;
+                return true;
+            } finally {
+                --_writerWaiters[priority];
+                _changed.signalAll();
+                if (isInterrupted)
+                    Thread.currentThread().interrupt();
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    static void releaseWriter() {
+        _lock.lock();
+        try {
+            --_writers;
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the specified amount of data can be written without exceeding the bandwidth limit.
+     * @param priority {@code CRITICAL} or {@code BACKGROUND}
+     * @param bytes size of the following write
+     * @param timeoutMs maximum wait time
+     * @return false, if timed out. The write is not accounted for then
+     */
+    static boolean throttle(int priority, long bytes, long timeoutMs) {
+        if (0 == _bytesPerSecond)
+            return true;
+
+        _lock.lock();
+        try {
+            long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMs, Long.MAX_VALUE / 2000000));
+            boolean isInterrupted = false;
+            ++_bandwidthWaiters[priority];
+            try {
+                long waitNs;
+                while (0 != _bytesPerSecond
+                    && ((waitNs = _nextWriteNs - BURST_NS - System.nanoTime()) > 0 || isPreempted(_bandwidthWaiters, priority))) {
+                    long remainingNs = deadlineNs - System.nanoTime();
+                    if (remainingNs <= 0)
+                        return false;
+
+                    try {
+                        // Preempted waiters are signalled, but wake up by timeout anyway
+                        _changed.awaitNanos(Math.min(remainingNs, Math.max(waitNs, 1000000L)));
+                    } catch (InterruptedException e) {
+                        isInterrupted = true;
+                    }
+                }
+
+                if (0 != _bytesPerSecond) {
+                    // Idle time is not accumulated beyond the burst size
+                    _nextWriteNs = Math.max(_nextWriteNs, System.nanoTime())
+                        + bytes * 1000000000L / _bytesPerSecond;
+                }
+
+                return true;
+            } finally {
+                --_bandwidthWaiters[priority];
+                _changed.signalAll();
+                if (isInterrupted)
+                    Thread.currentThread().interrupt();
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package rtmath.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Deployment throughput, measured by {@code ResourceLoader} and stored in the deployment directory.
+ * <p>Lets the processes sharing the directory estimate how long a healthy writer needs to deploy a resource set,
+ * instead of assuming fixed bandwidth.
+ * <p>Text format: header line, then read, decompression and write throughput in bytes per millisecond,
+ * separated by TAB. 0 means not measured.
+ */
+final class DeploymentThroughput {
+    static final String FILENAME = ".rlthroughput";
+    private static final String HEADER = "# ResourceLoader throughput v1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Smaller samples are dominated by fixed costs and are not used
+    private static final long MIN_SAMPLE_BYTES = 1 << 20;
+    // Weight of the new sample, when combined with the stored value
+    private static final double SAMPLE_WEIGHT = 0.5;
+
+    final double read;
+    final double decompress;
+    final double write;
+
+    DeploymentThroughput(double read, double decompress, double write) {
+        this.read = read;
+        this.decompress = decompress;
+        this.write = write;
+    }
+
+    /**
+     * Throughput measurement of a single deployment.
+     */
+    static final class Meter {
+        private long _readBytes, _readNs;
+        private long _decompressedBytes, _decompressNs;
+        private long _writtenBytes, _writeNs;
+
+        void addRead(long bytes, long ns) {
+            _readBytes += bytes;
+            _readNs += ns;
+        }
+
+        void addDecompressed(long bytes, long ns) {
+            _decompressedBytes += bytes;
+            _decompressNs += ns;
+        }
+
+        void addWritten(long bytes, long ns) {
+            _writtenBytes += bytes;
+            _writeNs += ns;
+        }
+
+        private static double rate(long bytes, long ns) {
+            return bytes >= MIN_SAMPLE_BYTES && ns > 0 ? bytes * 1E6 / ns : 0;
+        }
+
+        boolean isEmpty() {
+            return 0 == rate(_readBytes, _readNs) && 0 == rate(_decompressedBytes, _decompressNs)
+                && 0 == rate(_writtenBytes, _writeNs);
+        }
+    }
+
+    private static double combine(double old, double sample) {
+        return 0 == sample ? old : 0 == old ? sample : old * (1 - SAMPLE_WEIGHT) + sample * SAMPLE_WEIGHT;
+    }
+
+    /**
+     * Estimate deployment time.
+     * @param compressedBytes total stored size of the resources
+     * @param zstdBytes total decompressed size of the compressed resources
+     * @param decompressedBytes total size of the deployed files
+     * @return estimated time in milliseconds or -1, if some of the necessary rates were not measured yet
+     */
+    long estimateMs(long compressedBytes, long zstdBytes, long decompressedBytes) {
+        if (0 == read || 0 == write || (0 != zstdBytes && 0 == decompress))
+            return -1;
+
+        return (long)(compressedBytes / read + (0 != zstdBytes ? zstdBytes / decompress : 0) + decompressedBytes / write);
+    }
+
+    /**
+     * Read stored throughput.
+     * @return stored values or null, if not measured yet
+     */
+    static DeploymentThroughput read(Path dir) {
+        Path path = dir.resolve(FILENAME);
+        if (!Files.exists(path))
+            return null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), UTF8))) {
+            String line;
+            if (!HEADER.equals(reader.readLine()) || null == (line = reader.readLine()))
+                return null;
+
+            String[] fields = line.split("\t");
+            if (3 != fields.length)
+                return null;
+
+            return new DeploymentThroughput(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[2]));
+        } catch (IOException|NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Combine the measurement with the stored values and store the result. Errors are ignored.
+     */
+    static void update(Path dir, Meter meter) {
+        if (meter.isEmpty())
+            return;
+
+        DeploymentThroughput old = read(dir);
+        if (null == old)
+            old = new DeploymentThroughput(0, 0, 0);
+
+        DeploymentThroughput t = new DeploymentThroughput(
+            combine(old.read, Meter.rate(meter._readBytes, meter._readNs)),
+            combine(old.decompress, Meter.rate(meter._decompressedBytes, meter._decompressNs)),
+            combine(old.write, Meter.rate(meter._writtenBytes, meter._writeNs)));
+
+        Path path = dir.resolve(FILENAME);
+        Path tmpPath = dir.resolve(FILENAME + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+        try {
+            Files.write(tmpPath, String.format(Locale.ROOT, "%s\n%.1f\t%.1f\t%.1f\n", HEADER, t.read, t.decompress, t.write)
+                .getBytes(UTF8));
+            try {
+                Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            log("Throughput updated: %s", path);
+        } catch (IOException e) {
+            log("Unable to write throughput %s: %s", path, e);
+            FileJanitor.tryDelete(tmpPath);
+        }
+    }
+}
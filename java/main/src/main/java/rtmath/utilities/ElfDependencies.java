@@ -0,0 +1,145 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the dynamic section of an ELF shared library: its {@code SONAME} and {@code DT_NEEDED} dependencies.
+ * <p>Used to load the libraries of a resource set in dependency order, instead of retrying the failed ones.
+ * Only the headers, the dynamic section and the string table are read. Any inconsistency is reported as
+ * "not an ELF file": the caller falls back to the default order.
+ */
+final class ElfDependencies {
+    private static final int PT_LOAD = 1;
+    private static final int PT_DYNAMIC = 2;
+    private static final long DT_NULL = 0;
+    private static final long DT_NEEDED = 1;
+    private static final long DT_STRTAB = 5;
+    private static final long DT_STRSZ = 10;
+    private static final long DT_SONAME = 14;
+
+    // Sanity limits, real libraries are far below them
+    private static final int MAX_PROGRAM_HEADERS = 4096;
+    private static final int MAX_DYNAMIC_SIZE = 1 << 20;
+    private static final int MAX_STRTAB_SIZE = 1 << 24;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final String soname;            // null if not set
+    final List<String> needed;
+
+    private ElfDependencies(String soname, List<String> needed) {
+        this.soname = soname;
+        this.needed = needed;
+    }
+
+    private static ByteBuffer read(FileChannel fc, long position, int length, ByteOrder order) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (fc.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of ELF file");
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param fc opened library file, its position is not changed
+     * @return null, if not an ELF file or it has no dynamic section
+     */
+    static ElfDependencies read(FileChannel fc) throws IOException {
+        if (fc.size() < 64)
+            return null;
+
+        ByteBuffer ident = read(fc, 0, 64, ByteOrder.LITTLE_ENDIAN);
+        if (0x7F != ident.get(0) || 'E' != ident.get(1) || 'L' != ident.get(2) || 'F' != ident.get(3))
+            return null;
+
+        boolean is64 = 2 == ident.get(4);
+        ByteOrder order = 2 == ident.get(5) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        ByteBuffer header = ident.order(order);
+
+        long phoff = is64 ? header.getLong(0x20) : header.getInt(0x1C) & 0xFFFFFFFFL;
+        int phentsize = header.getShort(is64 ? 0x36 : 0x2A) & 0xFFFF;
+        int phnum = header.getShort(is64 ? 0x38 : 0x2C) & 0xFFFF;
+        if (phnum > MAX_PROGRAM_HEADERS || phentsize < (is64 ? 56 : 32) || phoff <= 0)
+            return null;
+
+        // Program headers: the dynamic section and the loadable segments, to map addresses to file offsets
+        ByteBuffer ph = read(fc, phoff, phnum * phentsize, order);
+        long dynOffset = -1, dynSize = 0;
+        ArrayList<long[]> loads = new ArrayList<>();
+        for (int i = 0; i < phnum; ++i) {
+            int p = i * phentsize, type = ph.getInt(p);
+            long offset = is64 ? ph.getLong(p + 8) : ph.getInt(p + 4) & 0xFFFFFFFFL;
+            long vaddr = is64 ? ph.getLong(p + 16) : ph.getInt(p + 8) & 0xFFFFFFFFL;
+            long filesz = is64 ? ph.getLong(p + 32) : ph.getInt(p + 16) & 0xFFFFFFFFL;
+
+            if (PT_DYNAMIC == type) {
+                dynOffset = offset;
+                dynSize = filesz;
+            } else if (PT_LOAD == type) {
+                loads.add(new long[] {vaddr, offset, filesz});
+            }
+        }
+
+        if (dynOffset < 0 || dynSize <= 0 || dynSize > MAX_DYNAMIC_SIZE)
+            return null;
+
+        ByteBuffer dyn = read(fc, dynOffset, (int)dynSize, order);
+        int entrySize = is64 ? 16 : 8;
+        long strtab = -1, strsz = 0, soname = -1;
+        ArrayList<Long> needed = new ArrayList<>();
+        for (int p = 0; p + entrySize <= dyn.limit(); p += entrySize) {
+            long tag = is64 ? dyn.getLong(p) : dyn.getInt(p);
+            long value = is64 ? dyn.getLong(p + 8) : dyn.getInt(p + 4) & 0xFFFFFFFFL;
+            if (DT_NULL == tag)
+                break;
+
+            if (DT_NEEDED == tag)
+                needed.add(value);
+            else if (DT_SONAME == tag)
+                soname = value;
+            else if (DT_STRTAB == tag)
+                strtab = value;
+            else if (DT_STRSZ == tag)
+                strsz = value;
+        }
+
+        // String table address is virtual
+        long strtabOffset = -1;
+        for (long[] load : loads) {
+            if (strtab >= load[0] && strtab < load[0] + load[2])
+                strtabOffset = strtab - load[0] + load[1];
+        }
+
+        if (strtabOffset < 0 || strsz <= 0 || strsz > MAX_STRTAB_SIZE)
+            return null;
+
+        ByteBuffer strings = read(fc, strtabOffset, (int)Math.min(strsz, fc.size() - strtabOffset), order);
+        ArrayList<String> neededNames = new ArrayList<>(needed.size());
+        for (long offset : needed) {
+            String name = string(strings, offset);
+            if (null != name)
+                neededNames.add(name);
+        }
+
+        return new ElfDependencies(soname >= 0 ? string(strings, soname) : null, neededNames);
+    }
+
+    private static String string(ByteBuffer strings, long offset) {
+        if (offset < 0 || offset >= strings.limit())
+            return null;
+
+        int start = (int)offset, end = start;
+        while (end < strings.limit() && 0 != strings.get(end))
+            ++end;
+
+        return new String(strings.array(), start, end - start, UTF8);
+    }
+}
@@ -2,12 +2,24 @@ package rtmath.utilities;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +31,26 @@ import static rtmath.utilities.ResourceLoaderUtils.openLockedFileChannel;
  */
 public class FileJanitor {
     private static final String lockFileName = "lockfile.$$$";
+    private static final String completionMarkerName = "deployed.$$$";
+
+    // Upper bound for a single wait for lock release, in case a filesystem event is missed or delivered late
+    // (network filesystems, polling WatchService implementation)
+    private static final long LOCK_WAIT_POLL_MS = 100;
+
+    // Lock file layout. Stripe locks are placed beyond the data, so that the heartbeat can write the file
+    // regardless of the locks held by other processes (byte range locks are mandatory on Windows)
+    private static final long HEARTBEAT_OFFSET = 0;
+    private static final long DELETED_FLAG_OFFSET = 1;
+    static final long STRIPES_OFFSET = 1 << 20;
+    static final int LOCK_STRIPES = 64;
+
+    // Shared by all lock files of the process. Daemon thread, created on first use
+    private static ScheduledExecutorService _heartbeatExecutor;
+
+    // Lock files not closed by their owners. Their channels are closed when they become unreachable
+    private static final ReferenceQueue<LockFile> _abandonedLockFiles = new ReferenceQueue<>();
+    private static final Set<LockFileRef> _lockFileRefs =
+        Collections.newSetFromMap(new ConcurrentHashMap<LockFileRef, Boolean>());
 
     private static boolean isLockFile(Path path) {
         return path.getFileName().endsWith(lockFileName);
@@ -54,39 +86,460 @@ public class FileJanitor {
         return dir.resolve(lockFileName);
     }
 
+    /**
+     * Deployment directory lock.
+     * <p>Either locks the whole lock file, or only the stripes corresponding to the files being written.
+     * Byte ranges locked by a writer serve as its intent record: writers of disjoint stripes don't block each other,
+     * while the whole-file lock (also used by older versions) excludes all of them.
+     * <p>The lock file is deleted by the last owner, after marking it as deleted, so that a process that opened
+     * the file just before it was deleted can detect that its lock is worthless.
+     * <p>Every owner keeps its {@link LockLease} record in the lock file up to date.
+     */
     static class LockFile implements Closeable {
         Path path;
-        FileLock lock;
+        FileLock lock;                          // Whole file lock or the first stripe lock
+        private List<FileLock> _stripeLocks;    // null if the whole file is locked
+        private final SharedChannel _channel;
+        private final int _leaseSlot;
+        private ScheduledFuture<?> _heartbeat;
+        private long _heartbeatPeriodMs;
+        private long _heartbeatCount;
+        private volatile long _progressBytes, _totalBytes;
+        private final ByteBuffer _heartbeatData = ByteBuffer.wrap(new byte[1]);
+        // Guards the lock file I/O against the heartbeat thread. Not a monitor, so it does not pin virtual threads
+        private final ReentrantLock _mutex = new ReentrantLock();
+        private final LockFileRef _ref;
 
-        LockFile(FileLock lock, Path path) {
-            this.lock = lock;
-            this.path = path;
+        private LockFile(SharedChannel channel, List<FileLock> locks, boolean isStriped) {
+            this.lock = locks.get(0);
+            this.path = channel.path;
+            _channel = channel;
+            _stripeLocks = isStriped ? locks : null;
+            _leaseSlot = isStriped ? (int)(lock.position() - STRIPES_OFFSET) : 0;
+
+            closeAbandonedLockFiles();
+            _ref = new LockFileRef(this, channel, locks);
+        }
+
+        /**
+         * Update the lock file modification time and the lease record, so that other processes know the owner is alive.
+         */
+        void update() throws IOException {
+            _mutex.lock();
+            try {
+                if (null == lock)
+                    return;
+
+                FileChannel fc = lock.channel();
+                _heartbeatData.rewind();
+                fc.write(_heartbeatData, HEARTBEAT_OFFSET);
+                LockLease.write(fc, _leaseSlot, _heartbeatPeriodMs, ++_heartbeatCount, _progressBytes, _totalBytes);
+                fc.force(true);
+                ResourceLoaderUtils.log("LockFile updated");
+            } finally {
+                _mutex.unlock();
+            }
+        }
+
+        /**
+         * Set deployment progress, reported to the waiting processes with the next heartbeat.
+         */
+        void setProgress(long progressBytes, long totalBytes) {
+            _progressBytes = progressBytes;
+            _totalBytes = totalBytes;
+        }
+
+        /**
+         * Start updating the lock file periodically from the background thread, independently of the owner's I/O.
+         * Heartbeat is stopped when the lock file is closed. Calling it again restarts the heartbeat immediately.
+         * @param periodNs update period, in nanoseconds
+         */
+        void startHeartbeat(long periodNs) {
+            _mutex.lock();
+            try {
+                if (null == lock)
+                    throw new IllegalStateException("Lock file is already closed");
+
+                stopHeartbeat();
+                _heartbeatPeriodMs = TimeUnit.NANOSECONDS.toMillis(periodNs);
+                _heartbeat = heartbeatExecutor().scheduleAtFixedRate(heartbeatTask(new WeakReference<>(this), path),
+                    0, periodNs, TimeUnit.NANOSECONDS);
+            } finally {
+                _mutex.unlock();
+            }
+        }
+
+        // The task does not keep the lock file reachable, so that an abandoned lock file can be closed
+        private static Runnable heartbeatTask(final WeakReference<LockFile> ref, final Path path) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    LockFile lockFile = ref.get();
+                    if (null == lockFile)
+                        throw new CancellationException("Lock file is abandoned: " + path); // Stops the heartbeat
+
+                    try {
+                        lockFile.update();
+                    } catch (IOException e) {
+                        ResourceLoaderUtils.log("Failed to update lock file %s: %s", path, e);
+                    }
+                }
+            };
         }
 
+        private void stopHeartbeat() {
+            if (null != _heartbeat) {
+                _heartbeat.cancel(false);
+                _heartbeat = null;
+            }
+        }
 
+        // Mutually exclusive with update(), so the heartbeat never touches the lock file after close() returns
         @Override
         public void close() {
+            _mutex.lock();
+            try {
+                stopHeartbeat();
+                if (null == lock)
+                    return;
 
-            if (null != lock) {
-                closeLockedFileChannel(lock);
-                tryDelete(path);
+                FileChannel fc = lock.channel();
+                FileLock wholeLock = lock;
+                try {
+                    LockLease.clear(fc, _leaseSlot);
+                } catch (IOException e) {}
+
+                if (null != _stripeLocks) {
+                    // Wake up the waiting processes, the file is not necessarily deleted
+                    try {
+                        update();
+                    } catch (IOException e) {}
+
+                    for (FileLock l : _stripeLocks)
+                        releaseQuietly(l);
+
+                    // Delete, only if no one else is holding any stripe
+                    wholeLock = tryLock(fc, 0, Long.MAX_VALUE);
+                    _stripeLocks = null;
+                }
+
+                if (null != wholeLock) {
+                    setDeleted(fc, true);
+                    if (tryDelete(path))
+                        _channel.detach();
+                    else
+                        setDeleted(fc, false);
+
+                    if (wholeLock != lock)
+                        releaseQuietly(wholeLock);
+                }
+
+                releaseQuietly(lock);
+                _channel.release();
                 lock = null;
+                _ref.dispose();
+            } finally {
+                _mutex.unlock();
             }
         }
 
-        protected void finalize() throws Throwable {
-            close();
-        }
-
         public FileChannel channel() {
             return lock.channel();
         }
     }
 
+    /**
+     * Lock file channel, shared by all owners and readers of the lock file in the process, reference counted.
+     * <p>Record locks belong to the process, and closing any channel of the file releases all of them (POSIX),
+     * so the lock file is never opened twice: the locks are taken and the leases are read through the same channel,
+     * which is closed by its last user.
+     * <p>A deleted lock file is detached, the next user opens the file created in its place.
+     */
+    static final class SharedChannel {
+        private static final HashMap<Path, SharedChannel> _channels = new HashMap<>();
+        private static final ReentrantLock _channelsLock = new ReentrantLock();
+
+        final Path path;
+        final FileChannel channel;
+        private final Object _fileKey;
+        private int _refCount = 1;
+
+        private SharedChannel(Path path, FileChannel channel, Object fileKey) {
+            this.path = path;
+            this.channel = channel;
+            _fileKey = fileKey;
+        }
+
+        private static Object fileKey(Path path) throws IOException {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        }
+
+        /**
+         * Open the lock file or share the channel already opened by the process.
+         * @param isCreating create the lock file, if it does not exist
+         * @return shared channel, to be released by the caller, or null if the file does not exist
+         */
+        static SharedChannel acquire(Path path, boolean isCreating) throws IOException {
+            Path key = path.toAbsolutePath().normalize();
+            _channelsLock.lock();
+            try {
+                SharedChannel shared = _channels.get(key);
+                if (null != shared) {
+                    Object fileKey = null;
+                    try {
+                        fileKey = fileKey(path);
+                    } catch (NoSuchFileException e) {}
+
+                    // Same file, unless deleted or replaced since opened. File key is not available on Windows
+                    if (null != fileKey && (null == shared._fileKey || fileKey.equals(shared._fileKey))) {
+                        ++shared._refCount;
+                        return shared;
+                    }
+
+                    _channels.remove(key);
+                }
+
+                FileChannel fc;
+                try {
+                    fc = isCreating
+                        ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                } catch (NoSuchFileException e) {
+                    if (isCreating)
+                        throw e;
+
+                    return null;
+                }
+
+                Object fileKey;
+                try {
+                    fileKey = fileKey(path);
+                } catch (IOException e) {
+                    fc.close();
+                    throw e;
+                }
+
+                shared = new SharedChannel(key, fc, fileKey);
+                _channels.put(key, shared);
+                return shared;
+            } finally {
+                _channelsLock.unlock();
+            }
+        }
+
+        /**
+         * Close the channel, if this was its last user. Locks taken through the channel must be released first.
+         */
+        void release() {
+            _channelsLock.lock();
+            try {
+                if (0 != --_refCount)
+                    return;
+
+                if (this == _channels.get(path))
+                    _channels.remove(path);
+            } finally {
+                _channelsLock.unlock();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+
+        /**
+         * The lock file was deleted, don't share the channel with the new users.
+         */
+        void detach() {
+            _channelsLock.lock();
+            try {
+                if (this == _channels.get(path))
+                    _channels.remove(path);
+            } finally {
+                _channelsLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Releases the locks of a lock file that became unreachable without being closed, and its shared channel.
+     * Does not delete the lock file, the next owner will. Replaces {@code finalize()}.
+     */
+    private static final class LockFileRef extends PhantomReference<LockFile> {
+        private final SharedChannel _channel;
+        private final List<FileLock> _locks;
+
+        LockFileRef(LockFile lockFile, SharedChannel channel, List<FileLock> locks) {
+            super(lockFile, _abandonedLockFiles);
+            _channel = channel;
+            _locks = locks;
+            _lockFileRefs.add(this);
+        }
+
+        // Lock file is closed by its owner, nothing to do
+        void dispose() {
+            _lockFileRefs.remove(this);
+            clear();
+        }
+
+        void closeChannel() {
+            _lockFileRefs.remove(this);
+            for (FileLock l : _locks)
+                releaseQuietly(l);
+
+            _channel.release();
+        }
+    }
+
+    // Polled whenever a new lock file is created or the cleanup is performed, no dedicated thread
+    private static void closeAbandonedLockFiles() {
+        Reference<? extends LockFile> ref;
+        while (null != (ref = _abandonedLockFiles.poll())) {
+            ResourceLoaderUtils.log("Closing abandoned lock file");
+            ((LockFileRef)ref).closeChannel();
+        }
+    }
+
+    private static FileLock tryLock(FileChannel fc, long position, long size) {
+        try {
+            return fc.tryLock(position, size, false);
+        } catch (IOException|OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static void releaseQuietly(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {}
+    }
+
+    private static void setDeleted(FileChannel fc, boolean isDeleted) {
+        try {
+            fc.write(ByteBuffer.wrap(new byte[] {(byte)(isDeleted ? 1 : 0)}), DELETED_FLAG_OFFSET);
+        } catch (IOException e) {}
+    }
+
+    private static boolean isDeleted(FileChannel fc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        return 1 == fc.read(buffer, DELETED_FLAG_OFFSET) && 0 != buffer.get(0);
+    }
+
+    /**
+     * Lock stripe used for the file, depends only on the filename.
+     */
+    static int lockStripe(String filename) {
+        return (filename.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES;
+    }
+
+    private static synchronized ScheduledExecutorService heartbeatExecutor() {
+        if (null == _heartbeatExecutor) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ResourceLoader lock file heartbeat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            executor.setRemoveOnCancelPolicy(true);
+            _heartbeatExecutor = executor;
+        }
+
+        return _heartbeatExecutor;
+    }
+
+    /**
+     * Try to lock the whole deployment directory.
+     * @param dir deployment directory
+     * @return lock file, or null if the directory is already locked
+     */
     public static LockFile tryCreateLockFile(Path dir) {
-        dir = lockFilePath(dir);
-        FileLock lock = tryOpenForWriteTest(dir);
-        return null != lock ? new LockFile(lock, dir) : null;
+        return tryCreateLockFile(lockFilePath(dir), null, true);
+    }
+
+    /**
+     * Try to lock the deployment directory for writing the specified files.
+     * <p>Processes writing disjoint sets of files (more precisely, lock stripes) into the same directory
+     * don't block each other. Locks the stripes all at once, or none of them.
+     * @param dir deployment directory
+     * @param filenames names of the files that are going to be written
+     * @return lock file, or null if some of the stripes or the whole directory are already locked
+     */
+    static LockFile tryCreateLockFile(Path dir, Collection<String> filenames) {
+        boolean[] isUsed = new boolean[LOCK_STRIPES];
+        for (String filename : filenames)
+            isUsed[lockStripe(filename)] = true;
+
+        return tryCreateLockFile(lockFilePath(dir), isUsed, true);
+    }
+
+    /**
+     * @param stripes stripes to lock, or null to lock the whole file
+     * @param isCreating create the lock file, if it does not exist
+     */
+    private static LockFile tryCreateLockFile(Path path, boolean[] stripes, boolean isCreating) {
+        SharedChannel shared;
+        try {
+            if (null == (shared = SharedChannel.acquire(path, isCreating)))
+                return null;
+        } catch (IOException e) {
+            return null;
+        }
+
+        FileChannel fc = shared.channel;
+        ArrayList<FileLock> locks = new ArrayList<>();
+        try {
+            if (null == stripes) {
+                FileLock lock = tryLock(fc, 0, Long.MAX_VALUE);
+                if (null != lock)
+                    locks.add(lock);
+            } else {
+                // In ascending order
+                for (int i = 0; i < LOCK_STRIPES; ++i) {
+                    if (!stripes[i])
+                        continue;
+
+                    FileLock lock = tryLock(fc, STRIPES_OFFSET + i, 1);
+                    if (null == lock) {
+                        ResourceLoaderUtils.log("Lock stripe %s is busy: %s", i, path);
+                        break;
+                    }
+
+                    locks.add(lock);
+                }
+            }
+
+            // Deleted by the previous owner after we opened it
+            if (0 != locks.size() && (null == stripes || locks.size() == countStripes(stripes)) && !isDeleted(fc)) {
+                ResourceLoaderUtils.log("Lock at: %s (%s)", path, null == stripes ? "whole file" : locks.size() + " stripes");
+                LockFile lockFile = new LockFile(shared, locks, null != stripes);
+                try {
+                    lockFile.update();
+                } catch (IOException e) {
+                    lockFile.close();
+                    return null;
+                }
+
+                return lockFile;
+            }
+        } catch (IOException e) {}
+
+        // Only the locks taken here, the locks of the other owners in this process stay intact
+        for (FileLock l : locks)
+            releaseQuietly(l);
+
+        shared.release();
+        return null;
+    }
+
+    private static int countStripes(boolean[] stripes) {
+        int n = 0;
+        for (boolean isUsed : stripes)
+            n += isUsed ? 1 : 0;
+
+        return n;
     }
 
     public static boolean lockFileExists(Path dir)
@@ -94,16 +547,220 @@ public class FileJanitor {
         return Files.exists(lockFilePath(dir));
     }
 
-    public static long getLockFileWriteTime(Path path) {
+    /**
+     * Signal processes waiting for the lock file that the deployment into the directory was completed.
+     * Should be called while the lock file is still held.
+     * @param dir deployment directory
+     */
+    static void writeCompletionMarker(Path dir) {
+        Path path = dir.resolve(completionMarkerName);
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            fc.write(ByteBuffer.wrap(Long.toString(System.currentTimeMillis()).getBytes()));
+        } catch (IOException e) {
+            ResourceLoaderUtils.log("Unable to write completion marker: %s", e);
+        }
+    }
+
+    /**
+     * Check, if the directory is used by a version writing the completion marker, so that a deployment without it
+     * is incomplete: the directory has the lease file or a lock file with the lease records. Older versions
+     * (and the C# implementation) never write the marker, their deployments are treated as completed.
+     * @param dir deployment directory
+     */
+    static boolean isMarkedWhenCompleted(Path dir) {
+        if (Files.exists(dir.resolve(DeploymentLeases.FILENAME)))
+            return true;
+
+        Path path = lockFilePath(dir);
+        return Files.exists(path) && 0 != LockLease.readAll(path, LOCK_STRIPES).size();
+    }
+
+    /**
+     * Remove the completion marker before the files of the directory are rewritten or found invalid,
+     * so that the directory is not treated as completely deployed meanwhile. Should be called while the lock file
+     * is held, if any.
+     * @param dir deployment directory
+     */
+    static void deleteCompletionMarker(Path dir) {
+        try {
+            Files.deleteIfExists(dir.resolve(completionMarkerName));
+        } catch (IOException e) {
+            ResourceLoaderUtils.log("Unable to delete completion marker: %s", e);
+        }
+    }
+
+    /**
+     * Waits for the lock file release or deployment completion in the directory, without sleep polling.
+     * <p>Uses {@code WatchService}, if supported by the filesystem, otherwise (or if an event is missed) degrades
+     * to polling with a short period.
+     */
+    static class LockWatcher implements Closeable {
+        private final Path _dir;
+        private WatchService _watchService;
+
+        LockWatcher(Path dir) {
+            _dir = dir;
+            try {
+                _watchService = dir.getFileSystem().newWatchService();
+                dir.register(_watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException|UnsupportedOperationException e) {
+                ResourceLoaderUtils.log("WatchService is not available for %s: %s", dir, e);
+                close();
+            }
+        }
+
+        /**
+         * Wait for the lock file to be deleted, the completion marker to be written or timeout, whichever is first.
+         * @param timeoutMs maximum wait time, waits for at least 1ms
+         * @return {@code true} if the deployment completion was signalled, and the files should be verified again
+         */
+        boolean await(long timeoutMs) {
+            long waitMs = Math.max(1, Math.min(timeoutMs, LOCK_WAIT_POLL_MS));
+
+            try {
+                if (null == _watchService) {
+                    Thread.sleep(waitMs);
+                    return false;
+                }
+
+                long deadlineNs = System.nanoTime() + waitMs * 1000000L;
+                long remainingNs;
+                while ((remainingNs = deadlineNs - System.nanoTime()) > 0) {
+                    WatchKey key = _watchService.poll(remainingNs, TimeUnit.NANOSECONDS);
+                    if (null == key)
+                        break;
+
+                    boolean isReleased = false, isCompleted = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        Object name = event.context();
+                        if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                            isReleased = true;
+                        } else if (name instanceof Path) {
+                            isCompleted |= ((Path)name).endsWith(completionMarkerName);
+                            // Lock file is modified when lock stripes are released
+                            isReleased |= ((Path)name).endsWith(lockFileName)
+                                && StandardWatchEventKinds.ENTRY_CREATE != event.kind();
+                        }
+                    }
+
+                    key.reset();
+                    if (isCompleted)
+                        return true;
+
+                    if (isReleased)
+                        break;
+                }
+            } catch (InterruptedException e) {
+                // The caller checks the lock file again and keeps waiting until its own timeout
+                ResourceLoaderUtils.log("Interrupted while waiting for the lock file: %s", _dir);
+            } catch (ClosedWatchServiceException e) {
+                _watchService = null;
+            }
+
+            return false;
+        }
+
+        @Override
+        public void close() {
+            if (null != _watchService) {
+                try {
+                    _watchService.close();
+                } catch (IOException e) {}
+
+                _watchService = null;
+            }
+        }
+    }
+
+    /**
+     * Get the last time the lock file in the directory was updated by its owners.
+     * @param dir deployment directory
+     * @return time in milliseconds, or Long.MIN_VALUE if there is no lock file
+     */
+    public static long getLockFileWriteTime(Path dir) {
+        long time = Long.MIN_VALUE;
+        Path path = lockFilePath(dir);
+
+        for (LockLease lease : LockLease.readAll(path, LOCK_STRIPES))
+            time = Math.max(time, lease.updateTimeMs);
+
+        if (Long.MIN_VALUE != time)
+            return time;
+
+        // Owned by an older version, without the lease records
         try {
-            BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
-            return attr.lastAccessTime().toMillis();
+            return Files.getLastModifiedTime(path).toMillis();
         }
         catch (IOException e) {
             return Long.MIN_VALUE;
         }
     }
 
+    /**
+     * Describe the current owners of the lock file in the directory, for diagnostics.
+     */
+    static String describeLockOwners(Path dir) {
+        List<LockLease> leases = LockLease.readAll(lockFilePath(dir), LOCK_STRIPES);
+        return 0 != leases.size() ? leases.toString() : "unknown";
+    }
+
+    /**
+     * Delete the lock file, if all of its owners are confirmed dead and stopped updating their leases.
+     * <p>Waits for {@code LOCK_WAIT_POLL_MS} to make sure the leases are not being updated. The lock file is only
+     * deleted while holding its whole-file lock, like its last owner would do, so a lock still held by anyone
+     * (an owner that can't be checked, an older version without the lease records) is never broken.
+     * Should be called only after failing to take the lock.
+     * @param dir deployment directory
+     * @return true, if the lock was broken and should be retried immediately
+     */
+    static boolean tryBreakStaleLock(Path dir) {
+        Path path = lockFilePath(dir);
+        List<LockLease> leases = LockLease.readAll(path, LOCK_STRIPES);
+        if (!isStale(leases))
+            return false;
+
+        try {
+            Thread.sleep(LOCK_WAIT_POLL_MS);
+        } catch (InterruptedException e) {
+            // Like LockWatcher.await(), the caller keeps waiting for the lock until its own timeout
+            ResourceLoaderUtils.log("Interrupted while checking stale lock: %s", path);
+            return false;
+        }
+
+        List<LockLease> leases2 = LockLease.readAll(path, LOCK_STRIPES);
+        if (leases2.size() != leases.size() || !isStale(leases2))
+            return false;
+
+        for (int i = 0; i < leases.size(); ++i) {
+            if (!leases.get(i).isSameUpdate(leases2.get(i)))
+                return false;
+        }
+
+        // The locks of the dead owners are released by the OS. Sets the deleted flag, then deletes the file
+        LockFile lockFile = tryCreateLockFile(path, null, false);
+        if (null == lockFile)
+            return false;
+
+        lockFile.close();
+        ResourceLoaderUtils.log(ResourceLoaderUtils.INF, "Broken stale lock %s, owned by: %s", path, leases);
+        return true;
+    }
+
+    private static boolean isStale(List<LockLease> leases) {
+        long now = System.currentTimeMillis();
+        if (0 == leases.size())
+            return false;
+
+        for (LockLease lease : leases) {
+            if (LockLease.DEAD != lease.ownerState() || !lease.isStale(now))
+                return false;
+        }
+
+        return true;
+    }
+
     /**
      * Delete directory carefully, only if _none_ of the files in it are opened by someone else.
      * <p>
@@ -124,21 +781,38 @@ public class FileJanitor {
         if (null == lock)
             return false;
 
+        Path leasePath = dir.resolve(DeploymentLeases.FILENAME);
+        FileLock unused = null;
         try {
+            // A single lock attempt proves that none of the files in a leased directory are used
+            try {
+                if (null == (unused = DeploymentLeases.tryLockUnused(dir)))
+                    return false;
+            } catch (NoSuchFileException e) {
+                // Not leased, test every file
+            }
+
             List<FileLock> openedFiles = new ArrayList<>();
             ArrayList<Path> foundFiles = new ArrayList<>();
 
             ListDeleteableFiles:
             try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
                 for (Path path : paths) {
-                    if (isLockFile(path))
+                    // Never opened here, closing it would release the lease locks of this process
+                    if (isLockFile(path) || path.equals(leasePath))
                         continue;
 
-                    FileLock fl;
-                    if (Files.isDirectory(path) || null == (fl = tryOpenForWriteTest(path)))
+                    if (Files.isDirectory(path))
                         break ListDeleteableFiles;
 
-                    openedFiles.add(fl);
+                    if (null == unused) {
+                        FileLock fl = tryOpenForWriteTest(path);
+                        if (null == fl)
+                            break ListDeleteableFiles;
+
+                        openedFiles.add(fl);
+                    }
+
                     foundFiles.add(path);
                 }
 
@@ -150,15 +824,25 @@ public class FileJanitor {
 
             if (isSuccess) {
                 for (Path path : foundFiles) {
-                    if (!isLockFile(path) && !tryDelete(path))
+                    if (!tryDelete(path))
                         return false;
                 }
+
+                // While still locked, if possible: the processes waiting for the lock will see it was deleted
+                if (null != unused)
+                    tryDelete(leasePath);
             }
         } catch (IOException e) {}
         finally {
+            if (null != unused)
+                DeploymentLeases.unlockUnused(dir, unused);
+
             lock.close();
         }
 
+        if (isSuccess && null != unused)
+            tryDelete(leasePath);
+
         return isSuccess ? tryDelete(dir) : false;
     }
 
@@ -184,19 +868,92 @@ public class FileJanitor {
 
     /**
      * Activate cleanup procedure for all previously registered paths.
+     * <p>Directories are processed in parallel. Limited by {@code SHUTDOWN_CLEANUP_BUDGET_MS}, so that it does not
+     * stall the JVM exit, when called from the shutdown hook. Directories not processed in time are left
+     * for the next run.
      */
     public static void tryCleanup() {
+        tryCleanup(SHUTDOWN_CLEANUP_BUDGET_MS, 0);
+    }
 
-        synchronized (_cleanupLock) {
-            List<CleanupPath> deleted = new ArrayList<>();
+    /**
+     * Clean all registered paths.
+     * @param budgetMs time budget, directories not processed within it are skipped
+     * @param minAgeMs skip subdirectories modified less than this many milliseconds ago
+     * @return registered paths cleaned completely, they are unregistered
+     */
+    static List<CleanupPath> tryCleanup(long budgetMs, long minAgeMs) {
+        closeAbandonedLockFiles();
+
+        long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(budgetMs, Long.MAX_VALUE / 2000000));
+        List<CleanupPath> paths;
+        _cleanupLock.lock();
+        try {
+            paths = new ArrayList<>(_cleanupDirs);
+        } finally {
+            _cleanupLock.unlock();
+        }
+
+        // Not holding the lock while cleaning, registration of the new paths is not blocked
+        List<CleanupPath> deleted = new ArrayList<>();
+        for (CleanupPath p : paths)
+            if (p.tryCleanup(cleanupExecutor(), deadlineNs, minAgeMs))
+                deleted.add(p);
+
+        _cleanupLock.lock();
+        try {
+            _cleanupDirs.removeAll(deleted);
+        } finally {
+            _cleanupLock.unlock();
+        }
+
+        return deleted;
+    }
 
-            for (CleanupPath p : _cleanupDirs)
-                if (p.TryCleanup())
-                    deleted.add(p);
+    /**
+     * Start cleaning the registered paths in the background, on low priority threads.
+     * <p>Unlike the cleanup on exit, only deletes the abandoned incomplete deployments, and skips the recently
+     * modified ones: they may have just been created by another process, that did not lock them yet.
+     * Deployments of older versions can't be told incomplete, see {@link #isMarkedWhenCompleted(Path)}.
+     * Each registered path is only cleaned in the background once.
+     */
+    public static void startBackgroundCleanup() {
+
+        _cleanupLock.lock();
+        try {
+            if (!_isBackgroundCleanupPending)
+                return;
 
-            for (CleanupPath p : deleted)
-                _cleanupDirs.remove(p);
+            _isBackgroundCleanupPending = false;
+        } finally {
+            _cleanupLock.unlock();
         }
+
+        cleanupExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<CleanupPath> paths;
+                _cleanupLock.lock();
+                try {
+                    paths = new ArrayList<>();
+                    for (CleanupPath p : _cleanupDirs) {
+                        if (!p._isBackgroundCleaned) {
+                            p._isBackgroundCleaned = true;
+                            paths.add(p);
+                        }
+                    }
+                } finally {
+                    _cleanupLock.unlock();
+                }
+
+                // Paths stay registered, they will be cleaned on exit again
+                long deadlineNs = System.nanoTime() + Long.MAX_VALUE / 2;
+                for (CleanupPath p : paths)
+                    p.tryCleanup(cleanupExecutor(), deadlineNs, BACKGROUND_CLEANUP_MIN_AGE_MS);
+
+                ResourceLoaderUtils.log("Background cleanup done");
+            }
+        });
     }
 
     /**
@@ -207,8 +964,19 @@ public class FileJanitor {
      * @param subDirRegEx   if not null, will try to clean all subdirectories whose name matches this RegEx (not recursive).
      */
     public static void addCleanupPath(Path path, boolean cleanDir, String subDirRegEx) {
-        synchronized (_cleanupLock) {
-            _cleanupDirs.add(new CleanupPath(path, cleanDir, subDirRegEx));
+        _cleanupLock.lock();
+        try {
+            CleanupPath cleanupPath = new CleanupPath(path, cleanDir, subDirRegEx);
+            // Same paths are registered by every load() call
+            for (CleanupPath p : _cleanupDirs) {
+                if (p.isSame(cleanupPath))
+                    return;
+            }
+
+            _cleanupDirs.add(cleanupPath);
+            _isBackgroundCleanupPending = true;
+        } finally {
+            _cleanupLock.unlock();
         }
     }
 
@@ -228,11 +996,14 @@ public class FileJanitor {
      */
     public static void registerForCleanupOnExit() {
 
-        synchronized (_cleanupLock) {
+        _cleanupLock.lock();
+        try {
             if (!_handlerRegistered) {
                 try {
                     Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
                         public void run() {
+                            // Directories used by this process can be cleaned now
+                            DeploymentLeases.releaseAll();
                             tryCleanup();
                         }
                     }));
@@ -242,42 +1013,118 @@ public class FileJanitor {
                     // Already shutting down. Can't add shutdown hook at this point.
                 }
             }
+        } finally {
+            _cleanupLock.unlock();
         }
     }
 
+    static synchronized ExecutorService cleanupExecutor() {
+        if (null == _cleanupExecutor) {
+            int numThreads = Math.max(2, Math.min(MAX_CLEANUP_THREADS, Runtime.getRuntime().availableProcessors()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ResourceLoader cleanup");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+            executor.allowCoreThreadTimeOut(true);
+            _cleanupExecutor = executor;
+        }
+
+        return _cleanupExecutor;
+    }
+
+    // Cleanup on exit must not stall the JVM exit
+    static final long SHUTDOWN_CLEANUP_BUDGET_MS = 500;
+    // Background cleanup skips the subdirectories modified more recently
+    static final long BACKGROUND_CLEANUP_MIN_AGE_MS = 60000;
+    // At least 2, background cleanup task waits for the subdirectory tasks on the same executor
+    private static final int MAX_CLEANUP_THREADS = 4;
+
     private static boolean _handlerRegistered;
+    private static boolean _isBackgroundCleanupPending;
+    private static ExecutorService _cleanupExecutor;
 
-    private static Object _cleanupLock = new Object();
+    // Not a monitor: should not pin virtual threads
+    private static final ReentrantLock _cleanupLock = new ReentrantLock();
     private static List<CleanupPath> _cleanupDirs = new ArrayList<>();
 
     static class CleanupPath {
         private final Path _path;
         private final String _subDirRegEx;
+        private final Pattern _subDirPattern;   // Compiled once, cleanup may be attempted many times
         private final int _flags;
+        private boolean _isBackgroundCleaned;   // Guarded by _cleanupLock
 
         private final int CLEAN_DIR = 1;
         public boolean TryCleanup() {
+            return tryCleanup(null, System.nanoTime() + Long.MAX_VALUE / 2, 0);
+        }
+
+        /**
+         * @param executor executor to delete subdirectories in parallel, or null to delete them one by one
+         * @param deadlineNs {@code System.nanoTime()} value, after which the remaining directories are skipped
+         * @param minAgeMs if not 0, skip subdirectories modified less than this many milliseconds ago
+         *                 and the completed deployments, including the ones of older versions
+         * @return true if the path and all matching subdirectories are deleted
+         */
+        boolean tryCleanup(ExecutorService executor, long deadlineNs, long minAgeMs) {
             try {
                 if (!Files.exists(_path))
                     return true;
 
                 boolean success = true;
                 // Clean subdirs?
-                if (null != _subDirRegEx) {
-                    Pattern p = Pattern.compile(_subDirRegEx);
-                    Matcher m = p.matcher("");
+                if (null != _subDirPattern) {
+                    Matcher m = _subDirPattern.matcher("");
+                    ArrayList<Future<Boolean>> results = new ArrayList<>();
+                    long now = System.currentTimeMillis();
                     try (DirectoryStream<Path> paths = Files.newDirectoryStream(_path)) {
-                        for (Path childDir : paths) {
-                            if (Files.isDirectory(childDir)) {
-                                m.reset(childDir.toString());
-                                if (m.find())
-                                    success &= FileJanitor.tryDeleteDirectory(childDir);
+                        for (final Path childDir : paths) {
+                            if (System.nanoTime() - deadlineNs > 0) {
+                                success = false;
+                                break;
                             }
+
+                            if (!Files.isDirectory(childDir))
+                                continue;
+
+                            // The pattern is anchored, match the name only
+                            m.reset(childDir.getFileName().toString());
+                            if (!m.find())
+                                continue;
+
+                            // Completed deployments may be in use by the running processes
+                            if (minAgeMs > 0 && (now - Files.getLastModifiedTime(childDir).toMillis() < minAgeMs
+                                || Files.exists(childDir.resolve(completionMarkerName))
+                                || !isMarkedWhenCompleted(childDir))) {
+                                success = false;
+                                continue;
+                            }
+
+                            if (null == executor) {
+                                success &= FileJanitor.tryDeleteDirectory(childDir);
+                                continue;
+                            }
+
+                            results.add(executor.submit(new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() {
+                                    return FileJanitor.tryDeleteDirectory(childDir);
+                                }
+                            }));
                         }
                     }
+
+                    success &= awaitAll(results, deadlineNs);
                 }
 
-                if (0 != (_flags & CLEAN_DIR))
+                if (0 != (_flags & CLEAN_DIR) && System.nanoTime() - deadlineNs < 0)
                     success &= FileJanitor.tryDeleteDirectory(_path);
 
                 return success;
@@ -286,12 +1133,39 @@ public class FileJanitor {
             }
         }
 
+        // Tasks not completed until the deadline are cancelled, if not started yet
+        private static boolean awaitAll(List<Future<Boolean>> results, long deadlineNs) {
+            boolean success = true, isInterrupted = false;
+
+            for (Future<Boolean> result : results) {
+                try {
+                    success &= result.get(Math.max(0, deadlineNs - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                    result.cancel(false);
+                    success = false;
+                } catch (ExecutionException|TimeoutException e) {
+                    result.cancel(false);
+                    success = false;
+                }
+            }
+
+            if (isInterrupted)
+                Thread.currentThread().interrupt();
+
+            return success;
+        }
+
+        boolean isSame(CleanupPath other) {
+            return _path.equals(other._path) && _flags == other._flags
+                && (null != _subDirRegEx ? _subDirRegEx.equals(other._subDirRegEx) : null == other._subDirRegEx);
+        }
+
         public CleanupPath(Path path, boolean cleanDir, String subDirRegEx) {
             _path = path;
             _subDirRegEx = subDirRegEx;
+            _subDirPattern = null != subDirRegEx ? Pattern.compile(subDirRegEx) : null;
             _flags = (cleanDir ? CLEAN_DIR : 0);
         }
     }
 }
-
-
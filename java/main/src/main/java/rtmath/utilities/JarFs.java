@@ -2,13 +2,19 @@ package rtmath.utilities;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 // Simple wrapper for Jar filesystem. Necessary to allow unpacking from embedded jars.
+// The outer JAR is accessed through the shared JarFsRegistry instead of being reopened by every URL stream.
 class JarFs implements Closeable {
     private final URL _url;
+    private JarFsRegistry.Lease _outerJar;
     private ZipInputStream _jar;
 
     public JarFs(URL jarUrl) {
@@ -41,19 +47,55 @@ class JarFs implements Closeable {
         return stream;
     }
 
+    /**
+     * Open new sequential stream over the embedded JAR.
+     * @return new stream, owned by the caller
+     * @throws IOException if the embedded JAR can't be opened
+     */
+    ZipInputStream openZipStream() throws IOException {
+        URI uri;
+        try {
+            uri = _url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        String path = uri.getSchemeSpecificPart(); // Decoded
+        int i = path.lastIndexOf("!/");
+        if (!"jar".equalsIgnoreCase(uri.getScheme()) || i < 0)
+            return new ZipInputStream(_url.openStream());
+
+        if (null == _outerJar)
+            _outerJar = JarFsRegistry.acquire(uri);
+
+        InputStream in = Files.newInputStream(_outerJar.fileSystem().getPath(path.substring(i + 1)));
+        return new ZipInputStream(in);
+    }
+
     private void open() throws IOException {
-        close();
-        _jar = new ZipInputStream(_url.openStream());
+        closeStream();
+        _jar = openZipStream();
     }
 
-    @Override
-    public void close() throws IOException {
+    private void closeStream() throws IOException {
         if (null != _jar) {
             _jar.close();
             _jar = null;
         }
     }
 
+    @Override
+    public void close() throws IOException {
+        try {
+            closeStream();
+        } finally {
+            if (null != _outerJar) {
+                _outerJar.close();
+                _outerJar = null;
+            }
+        }
+    }
+
     private class RlZipInputStream extends RlInputStream {
         public RlZipInputStream(ZipInputStream jar, int size) {
             super(jar, size);
@@ -65,4 +107,3 @@ class JarFs implements Closeable {
         }
     }
 }
-
@@ -0,0 +1,179 @@
+package rtmath.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * JVM-wide registry of open JAR filesystems, shared by all {@code ResourceLoader} instances.
+ * <p>Every JAR is opened (and its central directory parsed) only once, no matter how many loaders use it.
+ * Filesystems are reference-counted and closed after staying unused for {@code IDLE_CLOSE_DELAY_MS}.
+ * <p>If the filesystem for a JAR was already opened by someone else, it is reused, but never closed by us.
+ */
+final class JarFsRegistry {
+    private static final long IDLE_CLOSE_DELAY_MS = 5000;
+    static volatile long _idleCloseDelayMs = IDLE_CLOSE_DELAY_MS;    // Shortened by the tests
+
+    private static final HashMap<URI, Entry> _entries = new HashMap<>();
+    // Not a monitor: the archive is opened and closed while holding it, should not pin virtual threads
+    private static final ReentrantLock _lock = new ReentrantLock();
+    private static Timer _idleTimer;
+
+    private static final class Entry {
+        final URI uri;
+        final FileSystem fs;
+        final boolean isOwned;  // false, if the filesystem was opened outside of this registry
+        int refCount;
+        TimerTask idleCloseTask;
+
+        Entry(URI uri, FileSystem fs, boolean isOwned) {
+            this.uri = uri;
+            this.fs = fs;
+            this.isOwned = isOwned;
+        }
+    }
+
+    /**
+     * Reference to a shared JAR filesystem. Closing the lease releases the reference, but not necessarily the filesystem.
+     */
+    static final class Lease implements Closeable {
+        private Entry _entry;
+
+        private Lease(Entry entry) {
+            _entry = entry;
+        }
+
+        FileSystem fileSystem() {
+            if (null == _entry)
+                throw new IllegalStateException("JAR filesystem lease is already closed");
+
+            return _entry.fs;
+        }
+
+        @Override
+        public void close() {
+            Entry entry = _entry;
+            _entry = null;
+            if (null != entry)
+                release(entry);
+        }
+    }
+
+    private JarFsRegistry() {}
+
+    /**
+     * Strip the path within archive from a JAR URI: jar:file:/a/b.jar!/x/y =&gt; jar:file:/a/b.jar
+     */
+    static URI archiveUri(URI jarUri) {
+        String str = jarUri.toString();
+        int i = str.indexOf("!/");
+        return i < 0 ? jarUri : URI.create(str.substring(0, i));
+    }
+
+    /**
+     * Acquire the shared filesystem for the JAR archive referenced by the URI.
+     * @param jarUri jar: URI, possibly pointing inside the archive
+     * @return Lease, that must be closed after use
+     * @throws IOException if the archive can't be opened
+     */
+    static Lease acquire(URI jarUri) throws IOException {
+        URI uri = archiveUri(jarUri);
+
+        _lock.lock();
+        try {
+            Entry entry = _entries.get(uri);
+            if (null != entry && !entry.fs.isOpen()) {
+                // Closed by its actual owner behind our back
+                cancelIdleClose(entry);
+                _entries.remove(uri);
+                entry = null;
+            }
+
+            if (null == entry) {
+                FileSystem fs;
+                boolean isOwned = true;
+                try {
+                    fs = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap());
+                    log("JAR filesystem opened: %s", uri);
+                } catch (FileSystemAlreadyExistsException e) {
+                    fs = FileSystems.getFileSystem(uri);
+                    isOwned = false;
+                    log("Reusing existing JAR filesystem: %s", uri);
+                }
+
+                _entries.put(uri, entry = new Entry(uri, fs, isOwned));
+            }
+
+            cancelIdleClose(entry);
+            ++entry.refCount;
+            return new Lease(entry);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static void cancelIdleClose(Entry entry) {
+        if (null != entry.idleCloseTask) {
+            entry.idleCloseTask.cancel();
+            entry.idleCloseTask = null;
+        }
+    }
+
+    private static void release(final Entry entry) {
+
+        _lock.lock();
+        try {
+            assert(entry.refCount > 0);
+            if (0 != --entry.refCount)
+                return;
+
+            if (!entry.isOwned) {
+                _entries.remove(entry.uri);
+                return;
+            }
+
+            if (null == _idleTimer)
+                _idleTimer = new Timer("ResourceLoader JAR FS idle close", true);
+
+            _idleTimer.schedule(entry.idleCloseTask = new TimerTask() {
+                @Override
+                public void run() {
+                    closeIfIdle(entry);
+                }
+            }, _idleCloseDelayMs);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static void closeIfIdle(Entry entry) {
+
+        // Closed while holding the registry lock, so that the same URI can't be reopened before we are done
+        _lock.lock();
+        try {
+            if (0 != entry.refCount || _entries.get(entry.uri) != entry)
+                return;
+
+            _entries.remove(entry.uri);
+            entry.idleCloseTask = null;
+            try {
+                entry.fs.close();
+                log("JAR filesystem closed: %s", entry.uri);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+}
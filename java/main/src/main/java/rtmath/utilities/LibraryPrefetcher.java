@@ -0,0 +1,99 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Brings the deployed libraries into the page cache, so that the first calls into a freshly loaded library
+ * don't wait for its pages to be read from the disk.
+ * <p>Files are mapped by the loading thread, using the channels it holds, and touched (synchronously or in
+ * the background) through the mappings. Closing another channel of a file would release the locks of this process.
+ */
+final class LibraryPrefetcher {
+    // Mapping size limit of a single MappedByteBuffer
+    private static final long MAX_MAPPING_SIZE = 1 << 30;
+
+    private static ExecutorService _executor;
+
+    private LibraryPrefetcher() {}
+
+    private static synchronized ExecutorService executor() {
+        if (null == _executor) {
+            _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ResourceLoader library prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+
+        return _executor;
+    }
+
+    /**
+     * Map the whole file for reading, mappings stay valid after the channel is closed.
+     */
+    static List<MappedByteBuffer> map(FileChannel fc) throws IOException {
+        ArrayList<MappedByteBuffer> mappings = new ArrayList<>();
+        long size = fc.size();
+        for (long position = 0; position < size; position += MAX_MAPPING_SIZE)
+            mappings.add(fc.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPING_SIZE, size - position)));
+
+        return mappings;
+    }
+
+    /**
+     * Touch every page of the mappings.
+     * @return number of bytes prefetched
+     */
+    static long touch(List<MappedByteBuffer> mappings) {
+        long bytes = 0;
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.load();
+            bytes += mapping.capacity();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Prefetch the file in the calling thread.
+     */
+    static void prefetch(FileChannel fc, Object name) {
+        long t0 = System.nanoTime();
+        try {
+            long bytes = touch(map(fc));
+            log("Prefetched %s: %s bytes in %s us", name, bytes, (System.nanoTime() - t0) / 1000);
+        } catch (IOException e) {
+            log("Unable to prefetch %s: %s", name, e);
+        }
+    }
+
+    /**
+     * Touch the mappings in the background thread shared by all ResourceLoader instances.
+     */
+    static void prefetchInBackground(final List<MappedByteBuffer> mappings, final Object name) {
+        if (0 == mappings.size())
+            return;
+
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long t0 = System.nanoTime();
+                long bytes = touch(mappings);
+                log("Prefetched %s in the background: %s bytes in %s us", name, bytes, (System.nanoTime() - t0) / 1000);
+            }
+        });
+    }
+}
@@ -0,0 +1,180 @@
+package rtmath.utilities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Resource listing cache, stored in the deployment directory.
+ * <p>Remembers the result of scanning the resource set of a JAR archive, together with the decompressed
+ * sizes and checksums learned during deployment. Keyed by the identity of the source archive: its path, size,
+ * modification time and CRC32 of its central directory. Lets {@code ResourceLoader} verify already deployed
+ * files on subsequent runs without opening the archive.
+ * <p>Same text format as {@link ResourceIndex}, with the cache key written on the 2nd line.
+ */
+final class ListingCache {
+    private static final String FILENAME_PREFIX = ".rlcache-";
+    private static final String HEADER = "# ResourceLoader listing cache v1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_ZIP_COMMENT_SIZE = 0xFFFF;
+
+    private ListingCache() {}
+
+    /**
+     * Cache file path for a resource set. Several resource sets may share the same deployment directory.
+     */
+    static Path cacheFilePath(Path deploymentPath, String resourceSetName) {
+        CRC32 crc = new CRC32();
+        crc.update(resourceSetName.getBytes(UTF8));
+        return deploymentPath.resolve(fmt("%s%08x", FILENAME_PREFIX, crc.getValue()));
+    }
+
+    /**
+     * Get identity string of the archive containing the resource.
+     * @param resourceUrl jar: URL of a resource, possibly within a JAR embedded into the archive
+     * @return archive identity or null, if the resource is not stored in a local JAR file
+     */
+    static String archiveIdentity(URL resourceUrl) {
+        try {
+            URI uri = resourceUrl.toURI();
+            if (!"jar".equalsIgnoreCase(uri.getScheme()))
+                return null;
+
+            URI fileUri = new URI(JarFsRegistry.archiveUri(uri).getRawSchemeSpecificPart());
+            if (!"file".equalsIgnoreCase(fileUri.getScheme()))
+                return null;
+
+            Path path = Paths.get(fileUri);
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = fc.size();
+                long crc = centralDirectoryCrc(fc);
+                if (crc < 0)
+                    return null;
+
+                return fmt("%s\t%s\t%s\t%08x", path, size, Files.getLastModifiedTime(path).toMillis(), crc);
+            }
+        } catch (URISyntaxException|IOException|IllegalArgumentException|FileSystemNotFoundException e) {
+            log("Unable to identify source archive of %s: %s", resourceUrl, e);
+            return null;
+        }
+    }
+
+    /**
+     * Calculate CRC32 of ZIP archive's central directory, located via End Of Central Directory record.
+     * @return CRC32 value or -1, if the archive format is not recognized
+     */
+    private static long centralDirectoryCrc(FileChannel fc) throws IOException {
+        long size = fc.size();
+        int tailSize = (int)Math.min(size, EOCD_SIZE + MAX_ZIP_COMMENT_SIZE);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(fc, tail, size - tailSize);
+
+        for (int i = tailSize - EOCD_SIZE; i >= 0; --i) {
+            if (EOCD_SIGNATURE != tail.getInt(i))
+                continue;
+
+            long cdSize = tail.getInt(i + 12) & 0xFFFFFFFFL;
+            long cdOffset = tail.getInt(i + 16) & 0xFFFFFFFFL;
+            if (cdOffset + cdSize > size || cdSize > Integer.MAX_VALUE)
+                return -1; // ZIP64 or malformed
+
+            ByteBuffer cd = ByteBuffer.allocate((int)cdSize);
+            readFully(fc, cd, cdOffset);
+            CRC32 crc = new CRC32();
+            crc.update(cd.array(), 0, cd.limit());
+            return crc.getValue();
+        }
+
+        return -1;
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = fc.read(buffer, position + buffer.position());
+            if (n < 0)
+                throw new IOException("Unexpected EOF");
+        }
+    }
+
+    /**
+     * Read cached listing.
+     * @return cached entries or null, if there is no valid cache for the specified key
+     */
+    static List<ResourceIndex.Entry> read(Path cacheFile, String key) {
+
+        if (!Files.exists(cacheFile))
+            return null;
+
+        ArrayList<ResourceIndex.Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(cacheFile), UTF8))) {
+            if (!HEADER.equals(reader.readLine()) || !key.equals(reader.readLine()))
+                return null;
+
+            String line;
+            while (null != (line = reader.readLine())) {
+                ResourceIndex.Entry entry = ResourceIndex.parseEntry(line);
+                if (null == entry)
+                    return null;
+
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return 0 != entries.size() ? entries : null;
+    }
+
+    /**
+     * Write listing cache. Replaces the old file atomically, if possible. Errors are ignored.
+     */
+    static void write(Path cacheFile, String key, List<ResourceIndex.Entry> entries) {
+        Path tmpFile = cacheFile.resolveSibling(
+            cacheFile.getFileName() + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+
+        try {
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmpFile), UTF8))) {
+                w.write(HEADER);
+                w.write('\n');
+                w.write(key);
+                w.write('\n');
+                for (ResourceIndex.Entry e : entries) {
+                    w.write(ResourceIndex.formatEntry(e));
+                    w.write('\n');
+                }
+            }
+
+            try {
+                Files.move(tmpFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            log("Listing cache written: %s", cacheFile);
+        } catch (IOException e) {
+            log("Unable to write listing cache %s: %s", cacheFile, e);
+            FileJanitor.tryDelete(tmpFile);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package rtmath.utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Overall time budget of a single {@code load()} call, shared by all deployment paths tried.
+ * <p>Also measures the time spent in each phase, for the {@link DeadlineExceededException} report.
+ * Not thread-safe, only used by the loading thread.
+ */
+final class LoadDeadline {
+    static final String LIST = "list";
+    static final String PROBE = "probe";
+    static final String VERIFY = "verify";
+    static final String LOCK_WAIT = "lock wait";
+    static final String DEPLOY = "deploy";
+    static final String LOAD_LIBRARIES = "load libraries";
+    static final String JOIN = "join";
+
+    private final long _deadlineMs;     // -1 if not set
+    private final long _startNs;
+    private final LinkedHashMap<String, Long> _phaseNs = new LinkedHashMap<>();
+    private String _phase;
+    private long _phaseStartNs;
+
+    LoadDeadline(long deadlineMs) {
+        _deadlineMs = deadlineMs;
+        _phaseStartNs = _startNs = System.nanoTime();
+    }
+
+    boolean isSet() {
+        return _deadlineMs >= 0;
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - _startNs) / 1000000;
+    }
+
+    /**
+     * @return remaining time in milliseconds, 0 if expired, Long.MAX_VALUE if no deadline is set
+     */
+    long remainingMs() {
+        return isSet() ? Math.max(0, _deadlineMs - elapsedMs()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Limit a wait time by the remaining time.
+     */
+    long bound(long timeoutMs) {
+        return Math.min(timeoutMs, remainingMs());
+    }
+
+    /**
+     * Start a new phase, the time since the previous call is attributed to the previous phase.
+     * @return previous phase, to be restored after a nested phase
+     */
+    String enter(String phase) {
+        long now = System.nanoTime();
+        if (null != _phase) {
+            Long ns = _phaseNs.get(_phase);
+            _phaseNs.put(_phase, (null != ns ? ns : 0) + now - _phaseStartNs);
+        }
+
+        String previous = _phase;
+        _phase = phase;
+        _phaseStartNs = now;
+        return previous;
+    }
+
+    /**
+     * Throw, if the deadline is exceeded.
+     * @param deploymentPath deployment path being tried, for the report
+     */
+    void check(Object deploymentPath) {
+        if (!isSet() || elapsedMs() < _deadlineMs)
+            return;
+
+        String phase = _phase;
+        enter(phase);
+
+        LinkedHashMap<String, Long> phaseMs = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : _phaseNs.entrySet())
+            phaseMs.put(e.getKey(), e.getValue() / 1000000);
+
+        throw new DeadlineExceededException(_deadlineMs, elapsedMs(), phase,
+            null != deploymentPath ? deploymentPath.toString() : null, phaseMs);
+    }
+}
@@ -0,0 +1,226 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static rtmath.utilities.ResourceLoaderUtils.OS;
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+
+/**
+ * Lease record of a lock file owner, stored in the lock file.
+ * <p>Tells the waiting processes who is holding the lock, whether it is alive and how far along the deployment is.
+ * Every owner writes its record into its own slot: lowest locked stripe, or 0 for the whole-file lock,
+ * so the slots of the concurrent owners never overlap. Records are placed before the stripe locks and are
+ * never locked, so they can be read and written regardless of the locks held by other processes.
+ * <p>Record layout (big endian): magic, pid, process start time, heartbeat period, heartbeat counter,
+ * last update time, progress bytes, total bytes, PID namespace, host name length and host name (UTF-8, truncated).
+ */
+final class LockLease {
+    static final long OFFSET = 4096;
+    static final int SIZE = 128;
+    private static final int MAGIC = 0x524C4C32; // "RLL2"
+    private static final int MAX_HOST_LENGTH = SIZE - 4 - 8 * 8 - 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Assumed heartbeat period, if the owner did not start the heartbeat yet
+    static final long DEFAULT_PERIOD_MS = 2000;
+
+    static final int ALIVE = 1;
+    static final int DEAD = 0;
+    static final int UNKNOWN = -1;
+
+    private static final long _ourPid;
+    private static final String _ourHost;
+    private static final long _ourStartTimeMs;
+    private static final long _ourPidNamespace;
+
+    static {
+        // "pid@host" on all known JVMs, Java 7 has no portable API for the PID
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int i = name.indexOf('@');
+        long pid = -1;
+        try {
+            pid = Long.parseLong(i > 0 ? name.substring(0, i) : name);
+        } catch (NumberFormatException e) {}
+
+        _ourPid = pid;
+        _ourHost = i > 0 ? truncateHost(name.substring(i + 1)) : "";
+        _ourStartTimeMs = ManagementFactory.getRuntimeMXBean().getStartTime();
+        _ourPidNamespace = readPidNamespace();
+    }
+
+    final long pid;
+    final String host;
+    final long startTimeMs;
+    final long periodMs;
+    final long heartbeatCount;
+    final long updateTimeMs;
+    final long progressBytes;
+    final long totalBytes;
+    final long pidNamespace;
+
+    private LockLease(long pid, String host, long startTimeMs, long periodMs, long heartbeatCount, long updateTimeMs,
+                      long progressBytes, long totalBytes, long pidNamespace) {
+        this.pid = pid;
+        this.host = host;
+        this.startTimeMs = startTimeMs;
+        this.periodMs = periodMs;
+        this.heartbeatCount = heartbeatCount;
+        this.updateTimeMs = updateTimeMs;
+        this.progressBytes = progressBytes;
+        this.totalBytes = totalBytes;
+        this.pidNamespace = pidNamespace;
+    }
+
+    /**
+     * Processes in different PID namespaces (containers) may share the host name and the filesystem,
+     * but not the PIDs.
+     * @return inode of the PID namespace, 0 if not known
+     */
+    private static long readPidNamespace() {
+        if (!OS.isLinux())
+            return 0;
+
+        try {
+            // "pid:[4026531836]"
+            String link = Files.readSymbolicLink(Paths.get("/proc/self/ns/pid")).toString();
+            int i = link.indexOf('['), j = link.indexOf(']');
+            return i >= 0 && j > i ? Long.parseLong(link.substring(i + 1, j)) : 0;
+        } catch (IOException|RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static String truncateHost(String host) {
+        byte[] bytes = host.getBytes(UTF8);
+        return bytes.length <= MAX_HOST_LENGTH ? host : new String(bytes, 0, MAX_HOST_LENGTH, UTF8);
+    }
+
+    private static long slotPosition(int slot) {
+        return OFFSET + (long)slot * SIZE;
+    }
+
+    /**
+     * Write the lease record of the current process.
+     */
+    static void write(FileChannel fc, int slot, long periodMs, long heartbeatCount, long progressBytes, long totalBytes)
+        throws IOException {
+        write(fc, slot, _ourPid, _ourStartTimeMs, periodMs, heartbeatCount, System.currentTimeMillis(),
+            progressBytes, totalBytes);
+    }
+
+    // Host and PID namespace are always the current ones
+    static void write(FileChannel fc, int slot, long pid, long startTimeMs, long periodMs, long heartbeatCount,
+                      long updateTimeMs, long progressBytes, long totalBytes) throws IOException {
+
+        byte[] host = _ourHost.getBytes(UTF8);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC).putLong(pid).putLong(startTimeMs).putLong(periodMs).putLong(heartbeatCount)
+            .putLong(updateTimeMs).putLong(progressBytes).putLong(totalBytes).putLong(_ourPidNamespace)
+            .putShort((short)host.length).put(host);
+
+        buffer.rewind();
+        fc.write(buffer, slotPosition(slot));
+    }
+
+    static void clear(FileChannel fc, int slot) throws IOException {
+        fc.write(ByteBuffer.allocate(4), slotPosition(slot));
+    }
+
+    /**
+     * Read all valid lease records from the lock file without locking it.
+     * <p>Reads through the lock file channel shared by the process, closing a channel of its own would release
+     * the locks held by the process.
+     * @return lease records, empty if the lock file does not exist or has no records
+     */
+    static List<LockLease> readAll(Path lockFilePath, int numSlots) {
+        FileJanitor.SharedChannel shared;
+        try {
+            shared = FileJanitor.SharedChannel.acquire(lockFilePath, false);
+        } catch (IOException e) {
+            shared = null; // Not readable
+        }
+
+        if (null == shared)
+            return new ArrayList<>();
+
+        try {
+            return readAll(shared.channel, numSlots);
+        } finally {
+            shared.release();
+        }
+    }
+
+    static List<LockLease> readAll(FileChannel fc, int numSlots) {
+        ArrayList<LockLease> leases = new ArrayList<>();
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(numSlots * SIZE);
+            while (buffer.hasRemaining() && fc.read(buffer, OFFSET + buffer.position()) > 0) {}
+
+            for (int i = 0, n = buffer.position() / SIZE; i < n; ++i) {
+                buffer.position(i * SIZE);
+                if (MAGIC != buffer.getInt())
+                    continue;
+
+                long pid = buffer.getLong(), startTimeMs = buffer.getLong(), periodMs = buffer.getLong();
+                long count = buffer.getLong(), updateTimeMs = buffer.getLong();
+                long progressBytes = buffer.getLong(), totalBytes = buffer.getLong(), pidNamespace = buffer.getLong();
+                int hostLength = buffer.getShort();
+                if (hostLength < 0 || hostLength > MAX_HOST_LENGTH)
+                    continue;
+
+                byte[] host = new byte[hostLength];
+                buffer.get(host);
+                leases.add(new LockLease(pid, new String(host, UTF8), startTimeMs, periodMs, count, updateTimeMs,
+                    progressBytes, totalBytes, pidNamespace));
+            }
+        } catch (IOException e) {
+            // Not readable, no leases
+        }
+
+        return leases;
+    }
+
+    /**
+     * Check if the owner process is alive. Only processes running on the same host and in the same PID namespace
+     * can be checked, and only on Linux.
+     * @return ALIVE, DEAD or UNKNOWN
+     */
+    int ownerState() {
+        if (!host.equals(_ourHost) || pid < 0)
+            return UNKNOWN;
+
+        if (pid == _ourPid && pidNamespace == _ourPidNamespace)
+            return startTimeMs == _ourStartTimeMs ? ALIVE : UNKNOWN;
+
+        // PIDs of the other namespaces (containers) are not visible
+        if (!OS.isLinux() || 0 == pidNamespace || pidNamespace != _ourPidNamespace)
+            return UNKNOWN;
+
+        return Files.exists(Paths.get("/proc", Long.toString(pid))) ? ALIVE : DEAD;
+    }
+
+    /**
+     * Check if the owner missed at least 2 heartbeats.
+     */
+    boolean isStale(long nowMs) {
+        return nowMs - updateTimeMs > 2 * (periodMs > 0 ? periodMs : DEFAULT_PERIOD_MS);
+    }
+
+    boolean isSameUpdate(LockLease other) {
+        return pid == other.pid && host.equals(other.host) && heartbeatCount == other.heartbeatCount;
+    }
+
+    @Override
+    public String toString() {
+        return fmt("%s@%s, progress: %s/%s bytes, heartbeat #%s %s ms ago", pid, host, progressBytes, totalBytes,
+            heartbeatCount, System.currentTimeMillis() - updateTimeMs);
+    }
+}
@@ -0,0 +1,58 @@
+package rtmath.utilities;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Loads dynamic libraries for {@code ResourceLoader}.
+ * <p>This implementation uses {@code System.load()}: dlopen flags are not supported and the libraries are never
+ * unloaded. The multi-release JAR replaces it on Java 22+ with an implementation based on the Foreign Function
+ * &amp; Memory API (src/main/java22), which must keep the same signatures.
+ */
+final class NativeLibraryLoader {
+    private static volatile boolean _isFlagsWarningLogged;  // Logged once, more or less
+
+    private NativeLibraryLoader() {}
+
+    /**
+     * @return true, if dlopen flags, unloading and symbol lookup are supported
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Load the library.
+     * @param path library path
+     * @param dlopenFlags {@code ResourceLoaderOptions.RTLD_*} flags, -1 to use {@code System.load()}
+     * @return handle to unload the library with, null if it can't be unloaded
+     * @throws UnsatisfiedLinkError if the library or its dependencies can't be loaded
+     */
+    static Object load(Path path, int dlopenFlags) {
+        if (dlopenFlags >= 0 && !_isFlagsWarningLogged) {
+            _isFlagsWarningLogged = true;
+            log("dlopen flags are only supported on Java 22+, using System.load()");
+        }
+
+        System.load(path.toString());
+        return null;
+    }
+
+    /**
+     * Unload the library (decrement its reference count).
+     * Does nothing: {@code load()} never returns a handle, libraries loaded with {@code System.load()} stay loaded.
+     * @param handle handle returned by {@code load()}, not null
+     */
+    static void unload(Object handle) {
+    }
+
+    /**
+     * @param handles handles of the loaded libraries, in the search order
+     * @return {@code java.lang.foreign.SymbolLookup} over the libraries, null if not supported
+     */
+    static Object symbolLookup(List<Object> handles) {
+        return null;
+    }
+}
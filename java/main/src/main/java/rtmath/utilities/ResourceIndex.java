@@ -0,0 +1,314 @@
+package rtmath.utilities;
+
+import rtmath.zstd.ZstdDecompressor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+
+/**
+ * Resource index, generated at build time and stored in the resource directory next to the resources it describes.
+ * <p>Lets {@code ResourceLoader} list a resource set without scanning the directory or the JAR archive and
+ * know the exact decompressed size and checksum of every resource before reading it.
+ * <p>Text format, one resource per line, fields separated by TAB:
+ * <pre>name order length decompressedLength crc32</pre>
+ * Name is the original resource filename, including tags, length is the stored (compressed) length,
+ * crc32 is calculated for the decompressed data and written as 8 hex digits.
+ * Empty lines and lines starting with '#' are ignored, except the stamp line: {@code # stamp count crc32}
+ * (see {@link #formatStamp}).
+ * <p>Usage (build time): {@code java -cp <classpath> rtmath.utilities.ResourceIndex <resourceRootDir>...}
+ */
+final class ResourceIndex {
+    static final String FILENAME = ".rlindex";
+    private static final String HEADER = "# ResourceLoader index v1";
+    private static final String STAMP_PREFIX = "# stamp\t";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final class Entry {
+        final String name;
+        final int order;
+        final long length;
+        final long decompressedLength;
+        final long checksum;
+
+        Entry(String name, int order, long length, long decompressedLength, long checksum) {
+            this.name = name;
+            this.order = order;
+            this.length = length;
+            this.decompressedLength = decompressedLength;
+            this.checksum = checksum;
+        }
+    }
+
+    private ResourceIndex() {}
+
+    static boolean isIndexFile(String filename) {
+        return FILENAME.equals(filename);
+    }
+
+    /**
+     * Index file content
+     */
+    static final class Listing {
+        final List<Entry> entries;
+        // Stamp of the indexed files, see formatStamp(). Null, if written by an older version
+        final String stamp;
+
+        Listing(List<Entry> entries, String stamp) {
+            this.entries = entries;
+            this.stamp = stamp;
+        }
+    }
+
+    static Listing read(InputStream in) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+        String stamp = null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8))) {
+            String line;
+            int lineNumber = 0;
+            while (null != (line = reader.readLine())) {
+                ++lineNumber;
+                if (line.startsWith(STAMP_PREFIX))
+                    stamp = line.substring(STAMP_PREFIX.length());
+
+                if (0 == line.length() || '#' == line.charAt(0))
+                    continue;
+
+                Entry entry = parseEntry(line);
+                if (null == entry)
+                    throw new IOException(fmt("Resource index is malformed at line %s: %s", lineNumber, line));
+
+                entries.add(entry);
+            }
+        }
+
+        return new Listing(entries, stamp);
+    }
+
+    /**
+     * Stamp of the indexed files: their number and CRC32 of their names and stored CRC32 values (of the file
+     * content as is, same as in the JAR central directory).
+     */
+    static String formatStamp(int count, long crc) {
+        return fmt("%d\t%08x", count, crc);
+    }
+
+    private static void updateStamp(CRC32 stamp, String name, long fileCrc) {
+        byte[] bytes = fmt("%s\t%08x\n", name, fileCrc).getBytes(UTF8);
+        stamp.update(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Read the index file. Read from a JAR via the shared JAR filesystem, not via the JarFile cached by the URL
+     * handler, which is never closed
+     */
+    static Listing read(URL indexUrl) throws IOException {
+        URI uri = toUri(indexUrl);
+        if (null != uri && uri.getScheme().equalsIgnoreCase("jar")) {
+            try (JarFsRegistry.Lease jarFs = JarFsRegistry.acquire(uri);
+                 InputStream in = Files.newInputStream(jarPath(jarFs, uri))) {
+                return read(in);
+            }
+        }
+
+        try (InputStream in = indexUrl.openStream()) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Check that the index describes the current content of its directory: every indexed file exists with the same
+     * length and, in a JAR, the stamp matches the CRC32 values stored in the central directory. Catches an index
+     * left behind by an earlier build. Only the indexed entries are looked up, the directory is never listed and
+     * the files are never read, so files added next to the indexed ones are not detected.
+     * @param indexUrl URL of the index file
+     * @return true, if the index is up to date or can't be checked
+     */
+    static boolean isUpToDate(URL indexUrl, Listing listing) throws IOException {
+        URI uri = toUri(indexUrl);
+        if (null == uri)
+            return true;
+
+        if (uri.getScheme().equalsIgnoreCase("jar")) {
+            // Shared with the loaders of the same archive, closed when idle
+            try (JarFsRegistry.Lease jarFs = JarFsRegistry.acquire(uri)) {
+                return isUpToDate(jarPath(jarFs, uri).getParent(), listing, true);
+            }
+        } else if (uri.getScheme().equalsIgnoreCase("file")) {
+            try {
+                return isUpToDate(Paths.get(uri).getParent(), listing, false);
+            } catch (IllegalArgumentException e) {
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    private static URI toUri(URL url) {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static Path jarPath(JarFsRegistry.Lease jarFs, URI jarUri) {
+        String path = jarUri.getSchemeSpecificPart();
+        return jarFs.fileSystem().getPath(path.substring(path.indexOf("!/") + 1));
+    }
+
+    private static boolean isUpToDate(Path dir, Listing listing, boolean isJar) throws IOException {
+        CRC32 stamp = new CRC32();
+
+        for (Entry e : listing.entries) {
+            Path file = dir.resolve(e.name);
+            if (!Files.isRegularFile(file) || Files.size(file) != e.length)
+                return false;
+
+            if (isJar && null != listing.stamp)
+                updateStamp(stamp, e.name, ((Number)Files.getAttribute(file, "zip:crc")).longValue());
+        }
+
+        return !isJar || null == listing.stamp
+            || listing.stamp.equals(formatStamp(listing.entries.size(), stamp.getValue()));
+    }
+
+    /**
+     * Parse single index line
+     * @return parsed entry or null, if the line is malformed
+     */
+    static Entry parseEntry(String line) {
+        String[] fields = line.split("\t", -1);
+        if (5 != fields.length)
+            return null;
+
+        try {
+            return new Entry(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                Long.parseLong(fields[3]), -1 == fields[4].indexOf('-') ? Long.parseLong(fields[4], 16) : -1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Format single index line, without line terminator. Unknown checksum is written as -1
+     */
+    static String formatEntry(Entry e) {
+        return fmt(e.checksum < 0 ? "%s\t%d\t%d\t%d\t-1" : "%s\t%d\t%d\t%d\t%08x",
+            e.name, e.order, e.length, e.decompressedLength, e.checksum);
+    }
+
+    /**
+     * Create index entry for a resource file.
+     * @param stamp stamp of the index to add the file to, or null
+     */
+    static Entry createEntry(Path file, int order, CRC32 stamp) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        String name = file.getFileName().toString();
+        byte[] decompressed = data;
+
+        // Same rule as in ResourceLoader: '_' is treated as '.', tags are ignored
+        if (ResourceLoaderUtils.getTags(name, null).replace('_', '.').endsWith(".zst")) {
+            long len = ZstdDecompressor.getDecompressedSize(data, 0, data.length);
+            if (len < 0 || len > Integer.MAX_VALUE)
+                throw new IOException(fmt("Decompressed file size is invalid: %s for %s", len, file));
+
+            decompressed = new byte[(int)len];
+            new ZstdDecompressor().decompress(data, 0, data.length, decompressed, 0, decompressed.length);
+        }
+
+        CRC32 crc = new CRC32();
+        if (null != stamp) {
+            crc.update(data, 0, data.length);
+            updateStamp(stamp, name, crc.getValue());
+            crc.reset();
+        }
+
+        crc.update(decompressed, 0, decompressed.length);
+        return new Entry(name, order, data.length, decompressed.length, crc.getValue());
+    }
+
+    /**
+     * Write index file for all regular files in the directory. Subdirectories are ignored.
+     * @return number of indexed files
+     */
+    static int write(Path dir) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file) && !isIndexFile(file.getFileName().toString()))
+                    files.add(file);
+            }
+        }
+
+        Path indexPath = dir.resolve(FILENAME);
+        if (0 == files.size()) {
+            Files.deleteIfExists(indexPath);
+            return 0;
+        }
+
+        // Sorted, so the natural order of resources does not depend on the filesystem
+        Collections.sort(files);
+        CRC32 stamp = new CRC32();
+        StringBuilder lines = new StringBuilder();
+        int order = 0;
+        for (Path file : files)
+            lines.append(formatEntry(createEntry(file, order++, stamp))).append('\n');
+
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(indexPath), UTF8))) {
+            w.write(HEADER);
+            w.write('\n');
+            w.write(STAMP_PREFIX + formatStamp(files.size(), stamp.getValue()));
+            w.write('\n');
+            w.write(lines.toString());
+        }
+
+        return files.size();
+    }
+
+    /**
+     * Write index files for every resource directory under the specified roots.
+     * @param args resource root directories
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (0 == args.length)
+            throw new IllegalArgumentException("Usage: ResourceIndex <resourceRootDir>...");
+
+        for (String root : args) {
+            Path rootPath = Paths.get(root);
+            if (!Files.isDirectory(rootPath))
+                continue;
+
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    int n = write(dir);
+                    if (0 != n)
+                        System.out.printf("Indexed %s resource(s) in: %s%n", n, dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+}
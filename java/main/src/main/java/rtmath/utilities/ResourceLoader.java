@@ -9,11 +9,15 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -39,41 +43,62 @@ import static rtmath.utilities.ResourceLoaderUtils.*;
  * @see <a href="http://adamheinrich.com/blog/2012/how-to-load-native-jni-library-from-jar">How to load native jni library from jar</a>
  * @see <a href="https://github.com/adamheinrich/native-utils">GitHub</a>
  */
-public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDone {
+public class ResourceLoader implements ResourceLoaderOptions, ResourceLoaderOptions.Loaded {
 
     static class Resource implements Closeable, Comparable<Resource> {
-        private static final int STREAM_URL = 1;
-        private static final int FILE_PATH = 2;
-        private static final int JAR_FILE = 3;
+        static final int CACHED = 0;    // Known from the listing cache, source is not available
+        static final int STREAM_URL = 1;
+        static final int FILE_PATH = 2;
+        static final int JAR_FILE = 3;
 
         private final ResourceLoader owner;
         public final int type;
         public final Object source;     // Source. Either Path or URL
         public final String name;       // Original resource filename, without path
+        public final String sourceName; // Resource filename as stored, including tags
         public final String filename;   // Filename only for the deployed resource.
 
         public final boolean isZstd;    // Needs decompression from ZStd
         public final boolean isDll;     // Is a dynamic library, will be loaded into memory (unless loading disabled)
+        public final boolean isCritical;    // Prefetched into the page cache before loading, [prefetch@critical] tag
 
         public final int length;        // Original file length, before decompression, less than 2GB
         public final int order;
+        public final int naturalOrder;  // Order in which the resource was listed
+        public int decompressedLength;  // Length after decompression, -1 if not known yet
+        public long checksum;           // CRC32 of the deployed file data, -1 if not known yet
 
         private FileLock _fileLock;
-        private boolean _isLoaded;      // Corresponds to DlHandle in C# version
+        private boolean _isKeptLock;    // _fileLock is a loaded library lock kept until exit, never closed here
+        private Path _keptLockKey;      // Key of the kept library lock added by this resource, until unloaded
+        private boolean _isLoaded;
+        private Object _handle;         // Corresponds to DlHandle in C# version, null if loaded with System.load()
 
-        public Resource(final Path resourcePath
+        public Resource(final String resourceName
             , Object source
             , int type, int initialOrder, long length
             , final ResourceLoader owner)
             throws IOException {
+            this(resourceName, source, type, initialOrder, length, -1, -1, owner);
+        }
+
+        /**
+         * @param resourceName resource filename, without path
+         */
+        public Resource(final String resourceName
+            , Object source
+            , int type, int initialOrder, long length, long decompressedLength, long checksum
+            , final ResourceLoader owner)
+            throws IOException {
 
             this.owner = owner;
             this.source = source;
             this.type = type;
-            log("Adding resource file: %s", resourcePath);
+            log("Adding resource file: %s", resourceName);
 
-            HashMap<String, String> tags = new HashMap<>();
-            String resourceName = resourcePath.getFileName().toString();
+            // Tag map is only allocated if there are tags
+            HashMap<String, String> tags = hasTags(resourceName) ? new HashMap<String, String>(2) : null;
+            this.sourceName = resourceName;
             String fileName = this.name = getTags(resourceName, tags)
                 .replace('_', '.');
 
@@ -87,7 +112,8 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
             // Parse file order tags
             int order = initialOrder;
-            for (Map.Entry<String,String> kv : tags.entrySet()) {
+            boolean isCritical = false;
+            if (null != tags) for (Map.Entry<String,String> kv : tags.entrySet()) {
                 String key = kv.getKey();
                 String value = kv.getValue();
                 if (key.equals("order")) {
@@ -101,22 +127,36 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
                         throw argException("Order tag invalid, non-negative integer expected: [order@%s]", value);
 
                     order += Integer.MIN_VALUE; // Needed to combine natural order and explicit order
+                } else if (key.equals("prefetch")) {
+                    if (!value.equals("critical"))
+                        throw argException("Prefetch tag invalid, 'critical' expected: [prefetch@%s]", value);
+
+                    isCritical = true;
                 } else
                     throw argException("Invalid Tag: [%s@%s]", key, value);
             }
 
             this.order = order;
+            this.naturalOrder = initialOrder;
+            this.isCritical = isCritical;
 //            if (length < 0)
 //                length = STREAM_URL == type ? ((URL)source).openConnection().getContentLength() : Files.size((Path)source);
 
             log( "Length: %s", length);
             if (length < 0)
-                throw argException("Resource file '%s' length is negative: %s", resourcePath, length);
+                throw argException("Resource file '%s' length is negative: %s", resourceName, length);
 
             if (length > Integer.MAX_VALUE)
-                throw argException("Resource file '%s' length is too big: %s", resourcePath, length);
+                throw argException("Resource file '%s' length is too big: %s", resourceName, length);
 
             this.length = (int)length;
+
+            if (decompressedLength > Integer.MAX_VALUE)
+                throw argException("Resource file '%s' decompressed length is too big: %s", resourceName, decompressedLength);
+
+            this.decompressedLength = decompressedLength < 0 ? -1 : (int)decompressedLength;
+            // Library contents will be patched during deployment, if renamed, so the original checksum does not apply
+            this.checksum = isDll && null != owner._libraryNameSuffix ? -1 : checksum;
             owner.onResourceAdded(this);
         }
 
@@ -124,19 +164,16 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             return deploymentPath.resolve(filename);
         }
 
-        FileLock moveFileLock() {
-            FileLock fl = _fileLock;
-            _fileLock = null;
-            return fl;
-        }
-
         FileChannel getFile() { return null == _fileLock ? null : _fileLock.channel(); }
 
         void setFileLock(final FileLock newValue) {
 
             if (newValue != _fileLock) {
-                closeLockedFileChannel(_fileLock);
+                if (!_isKeptLock)
+                    closeLockedFileChannel(_fileLock);
+
                 _fileLock = newValue;
+                _isKeptLock = false;
             }
         }
 
@@ -147,6 +184,14 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         }
 
         public void setReadLock(Path filePath) throws IOException {
+            // Loaded by this process already. Opening another channel would fail, and closing it would release the lock
+            FileLock kept = _lockedDlls.get(dllLockKey(filePath));
+            if (null != kept) {
+                setFileLock(kept);
+                _isKeptLock = true;
+                return;
+            }
+
             FileLock fl = openLockedFileChannel(filePath, StandardOpenOption.READ);
             assert(null != fl);
             setFileLock(fl);
@@ -167,6 +212,9 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         }
 
         public RlInputStream openSourceStream() throws IOException {
+            if (CACHED == type)
+                throw new IllegalStateException(fmt("Resource source is not listed: %s", sourceName));
+
             return  STREAM_URL == type ? RlInputStream.wrap(((URL)source).openStream(), length) :
                     FILE_PATH == type ? RlInputStream.wrap(FileChannel.open((Path)source, StandardOpenOption.READ), length) :
                         ((JarFs)owner._jarFileSystem).get((String)source);
@@ -191,6 +239,15 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         public ResourceLoaderInstance to(String deploymentPathTemplate) {
             return _rl.toInternal(deploymentPathTemplate);
         }
+
+        /**
+         * Same as {@link #to(String)}, but gives access to the options added after {@code ResourceLoaderInstance}.
+         * @param deploymentPathTemplate Deployment path template
+         * @return Initialized {@code ResourceLoaderOptions}
+         */
+        public ResourceLoaderOptions toWithOptions(String deploymentPathTemplate) {
+            return _rl.toInternal(deploymentPathTemplate);
+        }
     }
 
     /**
@@ -214,6 +271,10 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
          * <li>$(VERSION) =&gt; current package version</li>
          * <li>$(ARCH) =&gt; '32' | '64' - pointer size of the current architecture</li>
          * <li>$(DLLEXT) =&gt; 'dll' | 'so' | 'dylib' - dynamic library file extension for the current OS platform</li>
+         * <li>$(CPU_ARCH) =&gt; 'x86-64' | 'x86' | 'aarch64' | ... - architecture of the current JVM</li>
+         * <li>$(CPU_LEVEL) =&gt; 'x86-64-v4' .. 'x86-64-v1' - the most specific CPU feature level variant of the resource
+         * path that is supported by the CPU and exists, the baseline if none exists. {@code $(CPU_ARCH)} value
+         * on other architectures</li>
          * </ul>
          *
          * @param resourcePathTemplate Resource path template. Describes the source location of the deployed resource set.
@@ -222,14 +283,143 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         public ResourceLoaderInstance from(String resourcePathTemplate) {
             return _rl.fromInternal(null, resourcePathTemplate);
         }
+
+        /**
+         * Same as {@link #from(String)}, but gives access to the options added after {@code ResourceLoaderInstance}.
+         * @param resourcePathTemplate Resource path template. See {@link #from(String)}
+         * @return Initialized {@code ResourceLoaderOptions}
+         */
+        public ResourceLoaderOptions fromWithOptions(String resourcePathTemplate) {
+            return _rl.fromInternal(null, resourcePathTemplate);
+        }
+    }
+
+    /**
+     * Builder helper class for loading several resource sets at once.
+     * <p>Resource sets are grouped by deployment path template. Each group is listed, locked, verified and deployed
+     * as a single resource set, so the deployment directory lock is only taken once per group.
+     * Deployment options (overwrite/reuse mode, retry timeout, fallback directory, verification, deadline, eviction)
+     * must be the same for all resource sets of a group, dynamic libraries are loaded separately for each resource set,
+     * in the order of addition.
+     */
+    public static class Batch {
+        private final ArrayList<ResourceLoader> _loaders = new ArrayList<>();
+
+        Batch() {}
+
+        /**
+         * Add resource set.
+         * @param resourcePathTemplate Resource path template. See {@link ResourceLoader#from(String)}
+         * @param deploymentPathTemplate Deployment path template. See {@link From#to(String)}
+         * @return This {@code Batch}
+         */
+        public Batch add(String resourcePathTemplate, String deploymentPathTemplate) {
+            return add(null, resourcePathTemplate, deploymentPathTemplate);
+        }
+
+        /**
+         * Add resource set.
+         * @param clazz class whose classloader will be used for loading the resources.
+         * @param resourcePathTemplate Resource path template. See {@link ResourceLoader#from(String)}
+         * @param deploymentPathTemplate Deployment path template. See {@link From#to(String)}
+         * @return This {@code Batch}
+         */
+        public Batch add(Class clazz, String resourcePathTemplate, String deploymentPathTemplate) {
+            return add(from(clazz, resourcePathTemplate).to(deploymentPathTemplate));
+        }
+
+        /**
+         * Add already configured resource set.
+         * @param resourceSet Resource set, configured, but not loaded yet
+         * @return This {@code Batch}
+         */
+        public Batch add(ResourceLoaderInstance resourceSet) {
+
+            if (!(resourceSet instanceof ResourceLoader))
+                throw argException("Unsupported ResourceLoaderInstance implementation: %s", resourceSet);
+
+            ResourceLoader rl = (ResourceLoader) resourceSet;
+            if (null == rl._resourcePrefix || null == rl._deploymentPathTemplate)
+                throw argException("Resource set is not fully configured: %s -> %s",
+                    rl._resourcePathTemplate, rl._deploymentPathTemplate);
+
+            if (_loaders.contains(rl))
+                throw argException("Resource set is already added: %s", rl._resourcePathTemplate);
+
+            String key = groupKey(rl);
+            for (ResourceLoader other : _loaders) {
+                if (groupKey(other).equals(key)) {
+                    checkGroupOptions(other, rl);
+                    break;
+                }
+            }
+
+            _loaders.add(rl);
+            return this;
+        }
+
+        private static String groupKey(ResourceLoader rl) {
+            return applyBasicTemplateNoVerify(rl._deploymentPathTemplate, rl._class, rl._cpuLevel);
+        }
+
+        // Options of the group are taken from its first member
+        private static void checkGroupOptions(ResourceLoader first, ResourceLoader rl) {
+            if (!first.hasSameDeploymentOptions(rl))
+                throw argException("Deployment options of %s conflict with %s, deployed to the same path: %s",
+                    rl._resourcePathTemplate, first._resourcePathTemplate, groupKey(rl));
+        }
+
+        /**
+         * Load all added resource sets.
+         * @return Loaded resource sets, in the order of addition
+         */
+        public List<ResourceLoaderDone> load() {
+
+            // Group by deployment path template, preserving the order of first occurrence
+            LinkedHashMap<String, ArrayList<ResourceLoader>> groups = new LinkedHashMap<>();
+            for (ResourceLoader rl : _loaders) {
+                String key = groupKey(rl);
+                ArrayList<ResourceLoader> group = groups.get(key);
+                if (null == group)
+                    groups.put(key, group = new ArrayList<>());
+                else
+                    checkGroupOptions(group.get(0), rl); // Could be changed after add()
+
+                group.add(rl);
+            }
+
+            for (ArrayList<ResourceLoader> group : groups.values()) {
+                ResourceLoader rl0 = 1 == group.size() ? group.get(0) : new ResourceLoader(group);
+                rl0.loadInternal(new LoadDeadline(rl0._deadlineMs));
+
+                // Subsequent load() calls for the same resource sets will not deploy them again
+                for (ResourceLoader rl : group) {
+                    if (!rl._alwaysOverwrite)
+                        DeploymentRegistry.register(rl.deploymentKey(), rl);
+                }
+            }
+
+            return new ArrayList<ResourceLoaderDone>(_loaders);
+        }
     }
 
     private static final int READ_WRITE_BLOCK_SIZE = 1 << 24;
+
+    // Estimated retry timeout = measured deployment time * factor + base, clamped to the configured bounds
+    // Lower bound stays well above the fixed 2 sec lock update period of the older versions sharing the directory
+    private static final int DEFAULT_MIN_RETRY_TIMEOUT_MS = 8000;
+    private static final int DEFAULT_MAX_RETRY_TIMEOUT_MS = 600000;
+    private static final int RETRY_TIMEOUT_FACTOR = 4;
+    private static final int RETRY_TIMEOUT_BASE_MS = 1000;
+    private static final int ZSTD_RATIO_ESTIMATE = 4;   // Used, if the decompressed size is not known in advance
+    private static final int MAX_LOCK_UPDATE_PERIOD_MS = 2000;
     private static final String RANDOM_DIR_REGEX = "^[0-9a-fA-F]{4,8}$";
+    private static final Pattern INVALID_RESOURCE_PATH = Pattern.compile("[\\s\\\\?]");
+    private static final Pattern REPEATED_SLASHES = Pattern.compile("\\/+");
 
-    private static ArrayList<FileLock> _lockedDlls = new ArrayList<>();
     private static final Random _rnd = new Random();
-    private final ByteBuffer _dummyBuffer = ByteBuffer.wrap(new byte[1]);
+    // Read locks of the loaded libraries, kept until exit: older versions test only the file locks before overwriting
+    private static final ConcurrentHashMap<Path, FileLock> _lockedDlls = new ConcurrentHashMap<>();
 
     private Class _class;       // Corresponds to _assembly field in C# version
 
@@ -237,17 +427,19 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     private boolean _alwaysOverwrite;
     private boolean _reusePartiallyDeployed;
     private boolean _addRandomFallbackSubDirectory;
+    private boolean _cooperativeDeployment;
     private boolean _shouldLoadDlls = true;
+    private boolean _prefetchLibraries;
+    private int _dlopenFlags = -1;      // -1: System.load()
     private boolean _verifyLength;  // Not used yet
-    private boolean _verifyContent; // Not used yet
-
-    // Other config flags
-    private boolean _keepDllsLocked;
+    private boolean _verifyContent;
+    private VerificationListener _verificationListener;    // Verify in the background after loading, if not null
 
     // User-configurable paths
     private String _resourcePathTemplate;
     private String _deploymentPathTemplate;
     private String _libraryNameSuffix;      // Optional dynamic library name suffix, applied before file extension
+    private String _cpuLevel;               // $(CPU_LEVEL) variant chosen for the resource path, null if not used
 
     // Derived paths
     private String _resourcePath;           // Resource path for a single resource file, specified w/o wildcard
@@ -260,17 +452,32 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
     private Throwable _lastDeploymentException;
 
+    // Verify already deployed files, but never deploy. Set while trying the cached resource listing.
+    private boolean _isVerifyOnly;
+    private Map<String, ContentVerifier.Entry> _verifiedFiles;      // Verification record, read before verifying
+    private final HashMap<Resource, Long> _verifiedChecksums = new HashMap<>();    // Verified before loading
+    private final HashMap<Resource, ContentVerifier.Deferred> _deferredVerification = new HashMap<>(); // After loading
+
     // Multiprocess/multithread file access contention management
     private FileJanitor.LockFile _lockFile; // Lock file created during write operations
+    private DeploymentLeases.LeasedFiles _leasedFiles;  // Files used by other processes, read once per deployment
     private int _retryTimeoutMs;            // User-configurable
+    private boolean _isRetryTimeoutAuto;    // Retry timeout is estimated separately for each deployment path
+    private int _minRetryTimeoutMs;         // Bounds for the estimated retry timeout, user-configurable
+    private int _maxRetryTimeoutMs;
     private long _lockUpdatePeriodNs;
-    private long _lockLastUpdateNs;
+    private long _deadlineMs;               // Overall load() time budget, user-configurable, -1 if not set
+    private LoadDeadline _deadline;         // Deadline of the load() call in progress
+    private long _evictionMaxBytes;         // Old deployment generations eviction policy, 0 if unlimited
+    private long _evictionMaxAgeMs;
 
     // Resource set
     private ArrayList<Resource> _resources;
     private int _maxResourceLength;         // Maximum resource length before unpacking
+    private int _maxDecompressedLength;     // Maximum known length after unpacking, 0 if unknown
     private int _totalResourceLength;
     private int _dlCount;
+    private final ArrayList<Resource> _loadedDlls = new ArrayList<>();  // In load order, unloaded in reverse
 
     // Buffer for the data read from resources. As big as the biggest resource.
     private byte[] _inputBuffer;
@@ -279,15 +486,87 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     // Not allocated if there is no ZStd compression
     private byte[] _outputBuffer;
 
-    private Closeable _jarFileSystem; // For accessing JAR resources. Has 2 implementations. Closed on exit.
+    private Closeable _jarFileSystem; // For accessing JAR resources. Has 2 implementations. Released on exit.
+
+    // Resource sets deployed together by this instance (batch mode). null for a standalone resource set.
+    private List<ResourceLoader> _members;
 
     private ResourceLoader() {
         _retryTimeoutMs = -1;
+        _deadlineMs = -1;
+        _minRetryTimeoutMs = DEFAULT_MIN_RETRY_TIMEOUT_MS;
+        _maxRetryTimeoutMs = DEFAULT_MAX_RETRY_TIMEOUT_MS;
+    }
+
+    /**
+     * Create a group of resource sets sharing the same deployment path. Configuration is taken from the 1st member.
+     */
+    private ResourceLoader(List<ResourceLoader> members) {
+        ResourceLoader first = members.get(0);
+        StringBuilder sb = new StringBuilder();
+
+        for (ResourceLoader rl : members)
+            sb.append(0 != sb.length() ? ", " : "").append(rl._resourcePathTemplate);
+
+        _members = members;
+        _class = first._class;
+        _resourcePathTemplate = sb.toString();
+        _deploymentPathTemplate = first._deploymentPathTemplate;
+        _cpuLevel = first._cpuLevel;
+        _alwaysOverwrite = first._alwaysOverwrite;
+        _reusePartiallyDeployed = first._reusePartiallyDeployed;
+        _addRandomFallbackSubDirectory = first._addRandomFallbackSubDirectory;
+        _cooperativeDeployment = first._cooperativeDeployment;
+        _prefetchLibraries = first._prefetchLibraries;
+        _dlopenFlags = first._dlopenFlags;
+        _verifyLength = first._verifyLength;
+        _verifyContent = first._verifyContent;
+        _verificationListener = first._verificationListener;
+        _retryTimeoutMs = first._retryTimeoutMs;
+        _minRetryTimeoutMs = first._minRetryTimeoutMs;
+        _maxRetryTimeoutMs = first._maxRetryTimeoutMs;
+        _deadlineMs = first._deadlineMs;
+        _evictionMaxBytes = first._evictionMaxBytes;
+        _evictionMaxAgeMs = first._evictionMaxAgeMs;
     }
 
     private static ResourceLoader newInstance() { return new ResourceLoader(); }
 
-    private static String applyBasicTemplateNoVerify(String template, Class clazz) {
+    /**
+     * Check if the options copied to a group by {@link #ResourceLoader(List)} are the same.
+     */
+    private boolean hasSameDeploymentOptions(ResourceLoader other) {
+        return _alwaysOverwrite == other._alwaysOverwrite
+            && _reusePartiallyDeployed == other._reusePartiallyDeployed
+            && _addRandomFallbackSubDirectory == other._addRandomFallbackSubDirectory
+            && _cooperativeDeployment == other._cooperativeDeployment
+            && _prefetchLibraries == other._prefetchLibraries
+            && _dlopenFlags == other._dlopenFlags
+            && _verifyLength == other._verifyLength
+            && _verifyContent == other._verifyContent
+            && _verificationListener == other._verificationListener
+            && _retryTimeoutMs == other._retryTimeoutMs
+            && _minRetryTimeoutMs == other._minRetryTimeoutMs
+            && _maxRetryTimeoutMs == other._maxRetryTimeoutMs
+            && _deadlineMs == other._deadlineMs
+            && _evictionMaxBytes == other._evictionMaxBytes
+            && _evictionMaxAgeMs == other._evictionMaxAgeMs;
+    }
+
+    private List<ResourceLoader> members() {
+        return null != _members ? _members : Collections.singletonList(this);
+    }
+
+    private static String applyBasicTemplateNoVerify(String template, Class clazz, String cpuLevel) {
+        // CPU features are only detected if needed. Without $(CPU_LEVEL) in the resource path there is nothing to
+        // choose from, the baseline is used
+        if (TemplateString.containsKey(template, "CPU_LEVEL", "CPU_ARCH")) {
+            template = TemplateString.substitute(template
+                , "CPU_LEVEL", null != cpuLevel ? cpuLevel : CpuFeatures.baseline()
+                , "CPU_ARCH", CpuFeatures.arch()
+            );
+        }
+
         return TemplateString.substitute(template
             , "DLLEXT", OS.dllExt().substring(1) /* Without dot */
             , "OS", OS.name()
@@ -296,13 +575,13 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         );
     }
 
-    private static String applyBasicTemplate(String template, Class clazz) {
-        return TemplateString.verify(applyBasicTemplateNoVerify(template, clazz));
+    private static String applyBasicTemplate(String template, Class clazz, String cpuLevel) {
+        return TemplateString.verify(applyBasicTemplateNoVerify(template, clazz, cpuLevel));
     }
 
 
-    private static String applyPathTemplate(String template, Class clazz) {
-        String str = TemplateString.substitute(applyBasicTemplateNoVerify(template, clazz)
+    private static String applyPathTemplate(String template, Class clazz, String cpuLevel) {
+        String str = TemplateString.substitute(applyBasicTemplateNoVerify(template, clazz, cpuLevel)
             , "RANDOM", "/" + nextRandomDirString()
 
 //        , "COMMONAPPDATA", Environment.GetFolderPath(Environment.SpecialFolder.CommonApplicationData)
@@ -385,13 +664,16 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         if (length > _maxResourceLength)
             _maxResourceLength = length;
 
+        if (resource.isZstd && resource.decompressedLength > _maxDecompressedLength)
+            _maxDecompressedLength = resource.decompressedLength;
+
         _totalResourceLength += length;
         if (resource.isDll)
             ++_dlCount;
     }
 
-    private void addResource(Path resourceFilePath, Object source, int type, int initialOrder, long length) throws IOException {
-        _resources.add(new Resource(resourceFilePath, source, type, initialOrder, length, this));
+    private void addResource(String resourceName, Object source, int type, int initialOrder, long length) throws IOException {
+        _resources.add(new Resource(resourceName, source, type, initialOrder, length, this));
     }
 
     URL tryGetResource(String name) {
@@ -433,14 +715,17 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             throw argException("Resource path is not a directory: %s", resourcesPath);
 
         // NOTE: TODO: No subdir traversal, all resources are in the same JAR directory
-        DirectoryStream<Path> stream = Files.newDirectoryStream(resourcesPath); // May add glob pattern here instead
-        int order = 0;
-
-        for (Path filePath : stream) {
-            // TODO: globbing code is not yet present
-            //if (path.startsWith(_resourcePrefix) && path.endsWith(_resourceSuffix))
-            if (!Files.isDirectory(filePath))
-                addResource(filePath, filePath, Resource.FILE_PATH, order++, Files.size(filePath));
+        // Closed explicitly, because the JAR filesystem may be shared and stay open after we are done
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(resourcesPath)) { // May add glob pattern here instead
+            int order = 0;
+
+            for (Path filePath : stream) {
+                // TODO: globbing code is not yet present
+                //if (path.startsWith(_resourcePrefix) && path.endsWith(_resourceSuffix))
+                String name = filePath.getFileName().toString();
+                if (!Files.isDirectory(filePath) && !ResourceIndex.isIndexFile(name))
+                    addResource(name, filePath, Resource.FILE_PATH, order++, Files.size(filePath));
+            }
         }
     }
 
@@ -459,19 +744,56 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         int order = 0;
         while (null != (entry = stream.getNextEntry())) {
             String path = entry.getName();
-            if (path.startsWith(dirPath) && path.length() > pathLength) {
-                addResource(Paths.get(path), path, Resource.JAR_FILE, order++, entry.getSize());
+            String name;
+            if (path.startsWith(dirPath) && path.length() > pathLength
+                && !ResourceIndex.isIndexFile(name = path.substring(path.lastIndexOf('/') + 1))) {
+                addResource(name, path, Resource.JAR_FILE, order++, entry.getSize());
                 log("%s, %s", entry, entry.getName());
             }
         }
     }
 
-    private void listResources() throws URISyntaxException, IOException {
+    /**
+     * Try to list resources using the index file generated at build time. Not used for JARs embedded into other JARs.
+     * @return false if there is no usable index
+     */
+    private boolean tryListIndexedResources(String dirPath) throws URISyntaxException, IOException {
+        URL indexUrl = tryGetResource(dirPath + "/" + ResourceIndex.FILENAME);
+        if (null == indexUrl)
+            return false;
+
+        String indexPath = indexUrl.getPath();
+        if (indexPath.indexOf(".jar!/") != indexPath.lastIndexOf(".jar!/"))
+            return false; // Resources from embedded JARs can't be read via URL
+
+        log("Resource index: %s", indexUrl);
+        ResourceIndex.Listing listing = ResourceIndex.read(indexUrl);
+        if (!ResourceIndex.isUpToDate(indexUrl, listing)) {
+            log("Resource index is out of date, scanning the resources: %s", indexUrl);
+            return false;
+        }
+
+        for (ResourceIndex.Entry e : listing.entries) {
+            // Relative URL, with characters not allowed in URL path quoted
+            URL url = new URL(indexUrl, new URI(null, null, e.name, null).getRawPath());
+            _resources.add(new Resource(e.name, url, Resource.STREAM_URL, e.order, e.length,
+                e.decompressedLength, e.checksum, this));
+        }
+
+        return true;
+    }
 
+    private void initResourceList() {
         _maxResourceLength = -1;
+        _maxDecompressedLength = 0;
         _totalResourceLength = 0;
         _dlCount = 0;
         _resources = new ArrayList<>();
+    }
+
+    private void listResources() throws URISyntaxException, IOException {
+
+        initResourceList();
 
         // The problem with getResources is that it _searches_ for the resources passed as args and _does not_ give you
         // the ability to obtain actual JAR root. Therefore, we are passing our whole path.
@@ -488,28 +810,32 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
         if (isSingleFile) {
             log( "File path: %s URL: %s", srcPath, url);
-            addResource(Paths.get(srcPath), url, Resource.STREAM_URL, 0, url.openConnection().getContentLength());
+            addResource(srcPath.substring(srcPath.lastIndexOf('/') + 1), url, Resource.STREAM_URL, 0,
+                url.openConnection().getContentLength());
             return;
         }
 
-        if (scheme.equalsIgnoreCase("jar")) {
+        if (tryListIndexedResources(srcPath)) {
+            // Listed without scanning the resource directory
+        } else if (scheme.equalsIgnoreCase("jar")) {
             String path = url.getPath();
             int i0 = path.indexOf(".jar!/");
             int i1 = path.lastIndexOf(".jar!/");
             if (i0 == i1) {
                 log( "Simple JAR path: %s", url);
-                FileSystem jarFs = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap());
+                // The JAR filesystem is shared with other ResourceLoader instances and is not closed immediately
+                JarFsRegistry.Lease jarFs = JarFsRegistry.acquire(uri);
                 _jarFileSystem = jarFs;
-                listFsResources(jarFs.getPath(path.substring(i0 + 5)).toUri());
+                listFsResources(jarFs.fileSystem().getPath(path.substring(i0 + 5)).toUri());
             } else {
                 log( "Complex JAR path: %s", url);
                 URL jarUrl = _class.getResource(path.substring(i0 + 5, i1 + 4));
-                InputStream jarStream;
-                if (null == jarUrl || null == (jarStream = jarUrl.openStream()))
+                if (null == jarUrl)
                     throw argException("Unable to open outer JAR( %s ) for complex JAR path: %s", jarUrl, uri);
 
-                try (ZipInputStream zStream = new ZipInputStream(jarStream)) {
-                    _jarFileSystem = new JarFs(jarUrl);
+                JarFs jarFs = new JarFs(jarUrl);
+                _jarFileSystem = jarFs;
+                try (ZipInputStream zStream = jarFs.openZipStream()) {
                     listJarResources(zStream, path.substring(i1 + 6));
                 }
             }
@@ -533,30 +859,100 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     }
 
 
-    private void lockFileWatchdogUpdate(boolean force) throws IOException {
+    /**
+     * List resources of all members and combine them into a single resource set
+     */
+    private void listMemberResources() throws URISyntaxException, IOException {
+
+        initResourceList();
+        HashMap<String, ResourceLoader> owners = new HashMap<>();
+
+        for (ResourceLoader rl : _members) {
+            if (null == rl._resources)
+                rl.listResources();
+
+            for (Resource resource : rl._resources) {
+                ResourceLoader other = owners.put(resource.filename, rl);
+                if (null != other)
+                    throw argException("File '%s' is deployed by more than one resource set: %s, %s",
+                        resource.filename, other._resourcePathTemplate, rl._resourcePathTemplate);
+
+                _resources.add(resource);
+                onResourceAdded(resource);
+            }
+        }
+    }
+
+    /**
+     * Get the listing cache key for this resource set, if its resources come from a local JAR file.
+     * @return cache key or null, if listing cache is not applicable
+     */
+    private String tryGetListingCacheKey() {
+
+        if (null != _members || null == _resourceSuffix)
+            return null; // Batch group or a single file, no directory scanning to avoid
+
+        URL url = tryGetResource(_resourcePath);
+        String archiveIdentity = null != url ? ListingCache.archiveIdentity(url) : null;
+        if (null == archiveIdentity)
+            return null;
+
+        return fmt("%s\t%s\t%s", getActualResourcePath(), null != _libraryNameSuffix ? _libraryNameSuffix : "",
+            archiveIdentity);
+    }
+
+    /**
+     * Try to verify and load the resource set already deployed at the specified path, using the cached listing.
+     * Never deploys anything and never opens the source archive.
+     * @return true if successful, otherwise the resource set is left unlisted
+     */
+    private boolean tryLoadCachedAt(Path deploymentPath, String cacheKey) {
+        List<ResourceIndex.Entry> entries = ListingCache.read(ListingCache.cacheFilePath(deploymentPath,
+            getActualResourcePath()), cacheKey);
+
+        if (null == entries)
+            return false;
 
-        long now = nanoTime();
-        long elapsed = now - _lockLastUpdateNs;
+        log("Using cached resource listing at: %s", deploymentPath);
+        initResourceList();
+        try {
+            for (ResourceIndex.Entry e : entries) {
+                _resources.add(new Resource(e.name, null, Resource.CACHED, e.order, e.length,
+                    e.decompressedLength, e.checksum, this));
+            }
 
-        if (null != _lockFile && (elapsed > _lockUpdatePeriodNs || force)) {
-            _lockLastUpdateNs = now;
-            FileChannel fc = _lockFile.channel();
-            fc.position(0);
-            _dummyBuffer.rewind();
-            fc.write(_dummyBuffer);
-            fc.force(true);
-            log("LockFile updated");
+            _isVerifyOnly = true;
+            if (tryLoadAt(deploymentPath))
+                return true;
+        } catch (IOException|IllegalArgumentException e) {
+            log("Cached resource listing is invalid: %s", e);
+        } finally {
+            _isVerifyOnly = false;
         }
+
+        _resources = null;
+        return false;
     }
 
+    private void writeListingCache(Path deploymentPath, String cacheKey) {
+        ArrayList<ResourceIndex.Entry> entries = new ArrayList<>(_resources.size());
+
+        for (Resource r : _resources)
+            entries.add(new ResourceIndex.Entry(r.sourceName, r.naturalOrder, r.length, r.decompressedLength, r.checksum));
+
+        ListingCache.write(ListingCache.cacheFilePath(deploymentPath, getActualResourcePath()), cacheKey, entries);
+    }
 
     private void lockFileWatchdogUpdate() throws IOException {
-        lockFileWatchdogUpdate(false);
+        if (null != _lockFile)
+            _lockFile.update();
     }
 
 
+    // Lock file is kept alive by the background heartbeat for the whole critical section, regardless of how long
+    // individual reads, writes or decompression calls take. Heartbeat stops when the lock file is closed.
     private void lockFileWatchdogInit() {
-        _lockLastUpdateNs = nanoTime() - _lockUpdatePeriodNs;
+        _lockFile.startHeartbeat(_lockUpdatePeriodNs);
     }
 
 
@@ -567,17 +963,39 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
         // Sort for loading
         Collections.sort(_resources);
+        List<Resource> dlls = new ArrayList<>();
+        boolean isOrderExplicit = false;
+        for (Resource resource : _resources) {
+            if (resource.isDll) {
+                dlls.add(resource);
+                isOrderExplicit |= resource.order < 0;
+            }
+        }
+
+        if (!isOrderExplicit && dlls.size() > 1 && OS.isLinux())
+            dlls = dependencyOrder(dlls, deploymentPath);
+
+        // Repeated passes are only needed, if the dependencies are not known
+        HashSet<Resource> isPrefetched = new HashSet<>();
         do {
             loadedLeastOne = false;
-            for (Resource resource : _resources) {
-                if (resource.isDll && !resource.isLoaded()) {
+            for (Resource resource : dlls) {
+                if (!resource.isLoaded()) {
                     Path path = resource.getFullPath(deploymentPath);
                     if (logLevelLeast(DBG))
                         log("Loading DLL#%s: {path} , exists: %s, hasLockFile: %s",
                             numLoaded + 1, Files.exists(path), null != resource._fileLock);
 
+                    // Pages of the critical libraries are read before the first call, in this thread
+                    if (resource.isCritical && !isPrefetched.contains(resource)) {
+                        isPrefetched.add(resource);
+                        FileChannel fc = resource.getFile();
+                        if (null != fc)
+                            LibraryPrefetcher.prefetch(fc, path);
+                    }
+
                     try {
-                        System.load(path.toString());
+                        resource._handle = NativeLibraryLoader.load(path, _dlopenFlags);
                     } catch(SecurityException|LinkageError e) {
                         exception = e;
                         if (logLevelLeast(DBG))
@@ -587,6 +1005,7 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
                     }
 
                     resource.setLoaded(true);
+                    _loadedDlls.add(resource);
                     ++numLoaded;
                     loadedLeastOne = true;
                 }
@@ -601,31 +1020,206 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
                 throw (LinkageError) exception;
             }
         }
+
+        if (_prefetchLibraries)
+            prefetchLibrariesInBackground(dlls);
+    }
+
+    // Mapped while the files are still locked, touched later
+    private static void prefetchLibrariesInBackground(List<Resource> dlls) {
+        List<MappedByteBuffer> mappings = new ArrayList<>();
+        int numMapped = 0;
+        for (Resource resource : dlls) {
+            FileChannel fc = resource.getFile();
+            if (resource.isCritical || null == fc)
+                continue;
+
+            try {
+                mappings.addAll(LibraryPrefetcher.map(fc));
+                ++numMapped;
+            } catch (IOException e) {
+                log("Unable to map %s for prefetch: %s", resource.filename, e);
+            }
+        }
+
+        LibraryPrefetcher.prefetchInBackground(mappings, fmt("%s libraries", numMapped));
     }
 
 
     /**
-     * Register loaded DL file handles to keep the files locked, protecting them from deletion/corruption
+     * Order the libraries by their ELF dependencies ({@code DT_NEEDED} and {@code SONAME}), so that each library
+     * is loaded after the libraries of the set it depends on, without failed load attempts.
+     * <p>Libraries of the same dependency level keep the sorted order. The ones that are part of a dependency cycle
+     * or can't be parsed are placed last.
+     * @param dlls libraries in the sorted order, locked for reading
      */
-    private void keepDllFileHandles() {
+    private static List<Resource> dependencyOrder(List<Resource> dlls, Path deploymentPath) {
+        int n = dlls.size();
+        HashMap<String, Integer> byName = new HashMap<>();
+        List<List<String>> needed = new ArrayList<>(n);
+
+        for (int i = 0; i < n; ++i) {
+            Resource resource = dlls.get(i);
+            ElfDependencies elf = null;
+            try {
+                // Locked until the resource files are disposed: closing another channel of the file would release
+                // the locks held by this process
+                if (null == resource.getFile())
+                    resource.setReadLock(resource.getFullPath(deploymentPath));
+
+                elf = ElfDependencies.read(resource.getFile());
+            } catch (IOException|RuntimeException e) {
+                log("Unable to read ELF dependencies of %s: %s", resource.filename, e);
+            }
 
-        for (Resource resource : _resources) {
-            if (resource.isDll && null != resource._fileLock) {
-                synchronized (_lockedDlls) {
-                    _lockedDlls.add(resource.moveFileLock());
+            byName.put(resource.filename, i);
+            if (null != elf && null != elf.soname)
+                byName.put(elf.soname, i);
+
+            needed.add(null != elf ? elf.needed : null);
+        }
+
+        // Number of unloaded dependencies within the set, and the reverse edges
+        int[] pending = new int[n];
+        List<List<Integer>> dependents = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i)
+            dependents.add(new ArrayList<Integer>());
+
+        for (int i = 0; i < n; ++i) {
+            if (null == needed.get(i)) {
+                pending[i] = -1; // Unknown, last
+                continue;
+            }
+
+            HashSet<Integer> deps = new HashSet<>();
+            for (String name : needed.get(i)) {
+                Integer j = byName.get(name);
+                if (null != j && i != j && deps.add(j)) {
+                    ++pending[i];
+                    dependents.get(j).add(i);
+                }
+            }
+        }
+
+        ArrayList<Resource> ordered = new ArrayList<>(n);
+        boolean[] isOrdered = new boolean[n];
+        List<Integer> level = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            if (0 == pending[i])
+                level.add(i);
+        }
+
+        while (0 != level.size()) {
+            List<Integer> next = new ArrayList<>();
+            for (int i : level) {
+                ordered.add(dlls.get(i));
+                isOrdered[i] = true;
+                for (int j : dependents.get(i)) {
+                    if (0 == --pending[j])
+                        next.add(j);
                 }
             }
+
+            Collections.sort(next);
+            level = next;
+        }
+
+        for (int i = 0; i < n; ++i) {
+            if (!isOrdered[i])
+                ordered.add(dlls.get(i));
+        }
+
+        if (logLevelLeast(DBG)) {
+            log("Library load order:");
+            for (Resource resource : ordered)
+                log("%s", resource.filename);
+        }
+
+        return ordered;
+    }
+
+
+    /**
+     * Lease the resource files until exit, protecting them from deletion/corruption by other processes.
+     * Called while the files are still locked for reading.
+     */
+    private void leaseResourceFiles(Path deploymentPath) {
+        ArrayList<String> filenames = new ArrayList<>();
+        for (ResourceLoader rl : members()) {
+            for (Resource resource : rl._resources)
+                filenames.add(resource.filename);
+        }
+
+        DeploymentLeases.addFiles(deploymentPath, filenames, _deadline.remainingMs());
+    }
+
+    private static Path dllLockKey(Path filePath) {
+        return filePath.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Keep the loaded libraries locked for reading until exit (or unloading), in addition to the lease.
+     * Older versions don't read the leases, and would otherwise overwrite a library mapped by this process.
+     * Not needed on Windows, where a loaded library can't be overwritten.
+     * <p>The loader closes its own descriptor of the library, which releases our lock (POSIX), so it is taken again.
+     */
+    private void keepDllFileHandles(Path deploymentPath) {
+        if (OS.isWindows())
+            return;
+
+        for (Resource resource : _loadedDlls) {
+            Path key = dllLockKey(resource.getFullPath(deploymentPath));
+            if (null == resource._fileLock || resource._isKeptLock || _lockedDlls.containsKey(key))
+                continue;
+
+            FileChannel fc = resource._fileLock.channel();
+            FileLock lock = null;
+            try {
+                resource._fileLock.release();
+                lock = fc.tryLock(0, Long.MAX_VALUE, true);
+            } catch (IOException|OverlappingFileLockException e) {
+                log("Unable to keep %s locked: %s", key, e);
+            }
+
+            if (null == lock) {
+                resource.setFileLock(null);
+                continue;
+            }
+
+            resource._fileLock = lock;
+            if (null == _lockedDlls.putIfAbsent(key, lock)) {
+                resource._isKeptLock = true;
+                resource._keptLockKey = key;
+            }
         }
     }
 
-    // TODO: No support for unloading libraries. Java
-    private void unloadDynamicLibraries() {
-//        for (Resource resource : _resources) {
-//            if (resource.isDll && resource._isLoaded) {
-//                // NO way to unload libs
-//                resource._isLoaded = false;
-//            }
-//        }
+    // Only the libraries loaded with dlopen flags (Java 22+) can be unloaded, System.load() ones stay loaded.
+    // The loads joined to the same deployment share the resources: a library unloaded by any of them has no handle
+    private boolean unloadDynamicLibraries() {
+        boolean isUnloaded = false;
+        for (int i = _loadedDlls.size() - 1; i >= 0; --i) {
+            Resource resource = _loadedDlls.get(i);
+            if (null != resource._handle) {
+                NativeLibraryLoader.unload(resource._handle);
+                resource._handle = null;
+                resource.setLoaded(false);
+                _loadedDlls.remove(i);
+                isUnloaded = true;
+                if (null != resource._keptLockKey) {
+                    FileLock kept = _lockedDlls.remove(resource._keptLockKey);
+                    if (resource._fileLock == kept) {
+                        resource._fileLock = null;
+                        resource._isKeptLock = false;
+                    }
+
+                    closeLockedFileChannel(kept);
+                    resource._keptLockKey = null;
+                }
+            }
+        }
+
+        return isUnloaded;
     }
 
     // Unused
@@ -665,22 +1259,25 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             int numRead = in.read(buffer);
             if (numRead < 0)
                 throw new IOException("Unable to read resource file, EOF encountered!");
-
-            lockFileWatchdogUpdate();
         }
     }
 
     // Write data from buffer starting from position() up to limit() in chunks no greater than READ_WRITE_BLOCK_SIZE
-    private void writeResourceFile(FileChannel channel, ByteBuffer buffer) throws IOException {
+    // Chunks are smaller, if the write bandwidth is limited by DeploymentScheduler
+    private void writeResourceFile(FileChannel channel, ByteBuffer buffer, int priority, Path deploymentPath) throws IOException {
         int end = buffer.limit();
+        int chunkSize = DeploymentScheduler.chunkSize(READ_WRITE_BLOCK_SIZE);
 
         while (buffer.position() < end) {
-            buffer.limit(Math.min(buffer.position() + READ_WRITE_BLOCK_SIZE, end));
+            buffer.limit(Math.min(buffer.position() + chunkSize, end));
+            if (!DeploymentScheduler.throttle(priority, buffer.remaining(), _deadline.remainingMs())) {
+                _deadline.check(deploymentPath);
+                throw new IOException("Timed out waiting for the deployment bandwidth"); // Not expected, see above
+            }
+
             channel.write(buffer);
             if (buffer.position() < end)
                 channel.force(true);
-
-            lockFileWatchdogUpdate();
         }
     }
 
@@ -716,107 +1313,316 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
 
     private void deployResourcesInternal(Path deploymentPath) throws IOException {
-        byte[] inputData = this.getInputBuffer();
-        byte[] decompressedData = _outputBuffer;
+
+        // If decompressed sizes are known from the resource index, allocate the output buffer only once
+        if (_maxDecompressedLength > 0 && (null == _outputBuffer || _outputBuffer.length < _maxDecompressedLength))
+            _outputBuffer = new byte[_maxDecompressedLength];
+
+        _leasedFiles = new DeploymentLeases.LeasedFiles(deploymentPath);
 
         // Sort for deployment
         Collections.sort(_resources, new Comparator<Resource>() {
             @Override
             public int compare(Resource o1, Resource o2) {
+                int p1 = DeploymentScheduler.priorityOf(o1), p2 = DeploymentScheduler.priorityOf(o2);
                 /* non-null(already existing files) before null */
                 return  null != o1._fileLock && null == o2._fileLock ? -1 :
                         null == o1._fileLock && null != o2._fileLock ? 1 :
+                        /* then libraries before the other files */
+                        p1 != p2 ? Integer.compare(p1, p2) :
                         /* otherwise, descending order by size */
                         Integer.compare(o2.length, o1.length);
             }
         });
 
+        // Progress, reported to the waiting processes through the lock file lease, in source (compressed) bytes
+        long progressBytes = 0, totalBytes = 0;
+        for (Resource resource : _resources)
+            totalBytes += null == resource.getFile() ? resource.length : 0;
+
+        DeploymentThroughput.Meter meter = new DeploymentThroughput.Meter();
         for (Resource resource : _resources) {
             // If partial reuse is allowed and we already locked some files for read, do not deploy them
             if (null != resource.getFile())
                 continue;
 
-            Path filePath = resource.getFullPath(deploymentPath);
-            byte[] outputData = inputData;
-
-            log("Reading %s", filePath);
-            int resourceLength = resource.length;
-            int outputLength = resourceLength;
+            _deadline.check(deploymentPath);
+            deployResource(deploymentPath, resource, meter);
+            if (null != _lockFile)
+                _lockFile.setProgress(progressBytes += resource.length, totalBytes);
+        }
 
-            try (RlInputStream in = resource.openSourceStream()) {
-                // Note: the buffer may be bigger than the current file we are processing
-                assert(resourceLength == in.size()); // Check for logic error, or ?
-                readResourceFile(in, ByteBuffer.wrap(inputData, 0, resourceLength));
-            }
+        DeploymentThroughput.update(deploymentPath, meter);
+    }
 
-            if (resource.isZstd) {
-                long len = ZstdDecompressor.getDecompressedSize(inputData, 0, resourceLength);
-                if (len > Integer.MAX_VALUE)
-                    throw new RuntimeException(fmt("Decompressed file size is too big: %s for %s", outputLength, filePath));
 
-                outputLength = (int)len;
-                if (null == decompressedData || outputLength > decompressedData.length)
-                    decompressedData = _outputBuffer = new byte[outputLength];
+    // Read, decompress and write a single resource file, then lock it for reading
+    private void deployResource(Path deploymentPath, Resource resource, DeploymentThroughput.Meter meter)
+        throws IOException {
 
-                outputData = decompressedData;
-                ZstdDecompressor dec = new ZstdDecompressor();
-                // TODO: May use ByteBuffer interface later
-                dec.decompress(inputData, 0, resourceLength, decompressedData, 0, outputLength);
-            }
+        int priority = DeploymentScheduler.priorityOf(resource);
+        if (!DeploymentScheduler.acquireWriter(priority, _deadline.remainingMs())) {
+            _deadline.check(deploymentPath);
+            throw new IOException("Timed out waiting for a deployment writer slot"); // Not expected, see above
+        }
 
-            lockFileWatchdogUpdate();
-            // Patch library internal name if it is changed during decompression.
-            // This feature will be cleaned/improved in the future
-            if (resource.isDll && null != _libraryNameSuffix)
-                renameLibraryIfNeeded(outputData, "@@@@", _libraryNameSuffix);
-
-            log("Writing %s", filePath);
-            FileChannel out = null;
-            try (FileLock lock = openLockedFileChannel(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                out = lock.channel();
-                writeResourceFile(out, ByteBuffer.wrap(outputData, 0, outputLength));
-                out.truncate(outputLength);
-                log("Done writing %s, closing", filePath);
-            }
+        try {
+            deployResource(deploymentPath, resource, meter, priority);
+        } finally {
+            DeploymentScheduler.releaseWriter();
+        }
+    }
 
-            if (null != out)
-                out.close();
+    private void deployResource(Path deploymentPath, Resource resource, DeploymentThroughput.Meter meter, int priority)
+        throws IOException {
 
-            log("After writing %s, taking read lock", filePath);
-            resource.setReadLock(filePath);
+        byte[] inputData = this.getInputBuffer();
+        Path filePath = resource.getFullPath(deploymentPath);
+        byte[] outputData = inputData;
+
+        log("Reading %s", filePath);
+        int resourceLength = resource.length;
+        int outputLength = resourceLength;
+
+        long t0 = nanoTime();
+        try (RlInputStream in = resource.openSourceStream()) {
+            // Note: the buffer may be bigger than the current file we are processing
+            assert(resourceLength == in.size()); // Check for logic error, or ?
+            readResourceFile(in, ByteBuffer.wrap(inputData, 0, resourceLength));
         }
-    }
 
+        meter.addRead(resourceLength, nanoTime() - t0);
 
-    private boolean verifyExistingResourceFiles(Path deploymentPath) throws IOException {
+        if (resource.isZstd) {
+            long len = resource.decompressedLength >= 0 ? resource.decompressedLength :
+                ZstdDecompressor.getDecompressedSize(inputData, 0, resourceLength);
+            if (len > Integer.MAX_VALUE)
+                throw new RuntimeException(fmt("Decompressed file size is too big: %s for %s", outputLength, filePath));
 
-        // Verify automatically fails if overwrite mode is forced
-        if (_alwaysOverwrite)
-            return false;
+            outputLength = (int)len;
+            if (null == _outputBuffer || outputLength > _outputBuffer.length)
+                _outputBuffer = new byte[outputLength];
 
-        // Make sure all resource files are closed
-        if (!_reusePartiallyDeployed)
-            disposeResourceFiles();
+            outputData = _outputBuffer;
+            ZstdDecompressor dec = new ZstdDecompressor();
+            // TODO: May use ByteBuffer interface later
+            t0 = nanoTime();
+            dec.decompress(inputData, 0, resourceLength, outputData, 0, outputLength);
+            meter.addDecompressed(outputLength, nanoTime() - t0);
+        }
 
-        int timeout = _retryTimeoutMs;
-        int numExpected = _resources.size();
+        // Patch library internal name if it is changed during decompression.
+        // This feature will be cleaned/improved in the future
+        String libraryNameSuffix = resource.owner._libraryNameSuffix;
+        if (resource.isDll && null != libraryNameSuffix)
+            renameLibraryIfNeeded(outputData, "@@@@", libraryNameSuffix);
+
+        // Verify checksum, if known in advance, remember otherwise
+        CRC32 crc = new CRC32();
+        crc.update(outputData, 0, outputLength);
+        if (resource.checksum >= 0 && resource.checksum != crc.getValue())
+            throw new IOException(fmt("Resource checksum mismatch for %s: %08x, expected: %08x",
+                resource.sourceName, crc.getValue(), resource.checksum));
+
+        resource.checksum = crc.getValue();
+        resource.decompressedLength = outputLength;
+
+        log("Writing %s", filePath);
+        FileChannel out = null;
+        t0 = nanoTime();
+        if (_lockedDlls.containsKey(dllLockKey(filePath)))
+            throw new IOException(fmt("File is loaded by this process: %s", filePath));
+
+        try (FileLock lock = openLockedFileChannel(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Checked after locking: a process loading the file leases it before releasing its read lock
+            if (_leasedFiles.contains(resource.filename))
+                throw new IOException(fmt("File is in use by another process: %s", filePath));
+
+            out = lock.channel();
+            writeResourceFile(out, ByteBuffer.wrap(outputData, 0, outputLength), priority, deploymentPath);
+            out.truncate(outputLength);
+            log("Done writing %s, closing", filePath);
+        }
 
-        do {
-            int numFound = 0, numOpened = 0;
-            for (Resource resource : _resources) {
-                Path filePath = resource.getFullPath(deploymentPath);
-                if (Files.exists(filePath)) {
-                    ++numFound;
-                    if (null == resource.getFile()) {
-                        try {
-                            resource.setReadLock(filePath);
-                        }
-                        catch (IOException e) {
-                            continue;
-                        }
+        if (null != out)
+            out.close();
 
-                        if (_verifyContent || _verifyLength) {
-                            // TODO: File verification checks will go here. Currently we don't store the necessary metadata
+        meter.addWritten(outputLength, nanoTime() - t0);
+
+        log("After writing %s, taking read lock", filePath);
+        resource.setReadLock(filePath);
+    }
+
+
+    /**
+     * Deploy the resources together with other processes deploying the same files at the same time.
+     * <p>Every file is claimed separately by locking its lock stripe. Files claimed by other processes are not
+     * waited for one by one: we keep deploying the unclaimed ones and pick up the files reported as ready
+     * by the state table.
+     */
+    private void deployCooperatively(Path deploymentPath, StateTable table) throws IOException {
+        ArrayList<Resource> pending = new ArrayList<>();
+        _leasedFiles = new DeploymentLeases.LeasedFiles(deploymentPath);
+
+        for (Resource resource : _resources) {
+            if (null == resource.getFile())
+                pending.add(resource);
+        }
+
+        // Libraries first, then descending order by size, like deployResourcesInternal()
+        Collections.sort(pending, new Comparator<Resource>() {
+            @Override
+            public int compare(Resource o1, Resource o2) {
+                int p1 = DeploymentScheduler.priorityOf(o1), p2 = DeploymentScheduler.priorityOf(o2);
+                return p1 != p2 ? Integer.compare(p1, p2) : Integer.compare(o2.length, o1.length);
+            }
+        });
+
+        DeploymentThroughput.Meter meter = new DeploymentThroughput.Meter();
+        long lastProgressNs = nanoTime();
+        FileJanitor.LockWatcher watcher = null;
+        try {
+            while (0 != pending.size()) {
+                boolean isProgress = false;
+
+                for (Iterator<Resource> i = pending.iterator(); i.hasNext();) {
+                    Resource resource = i.next();
+                    _deadline.check(deploymentPath);
+
+                    // Deployed by someone else?
+                    if (tryUseReadyResource(deploymentPath, resource, table)) {
+                        i.remove();
+                        isProgress = true;
+                        continue;
+                    }
+
+                    // Claimed by someone else?
+                    if (null == setFileLock(FileJanitor.tryCreateLockFile(deploymentPath,
+                        Collections.singletonList(resource.filename))))
+                        continue;
+
+                    try {
+                        // Check again after taking the lock
+                        if (!tryUseReadyResource(deploymentPath, resource, table)) {
+                            _deadline.enter(LoadDeadline.DEPLOY);
+                            lockFileWatchdogInit();
+                            FileJanitor.deleteCompletionMarker(deploymentPath);
+                            table.set(resource.filename, StateTable.WRITING, -1, -1);
+                            deployResource(deploymentPath, resource, meter);
+                            table.set(resource.filename, StateTable.READY, resource.decompressedLength, resource.checksum);
+                        }
+                    } finally {
+                        setFileLock(null);
+                    }
+
+                    i.remove();
+                    isProgress = true;
+                }
+
+                if (isProgress) {
+                    lastProgressNs = nanoTime();
+                    continue;
+                }
+
+                // All the remaining files are being deployed by others
+                long elapsed = (nanoTime() - lastProgressNs) / 1000000;
+                long lockFileAge = currentTimeMillis() - FileJanitor.getLockFileWriteTime(deploymentPath);
+                if (elapsed > _retryTimeoutMs && (lockFileAge > _retryTimeoutMs || lockFileAge < -10L * _retryTimeoutMs))
+                    throw new IOException(fmt("Cooperative deployment timed out (timeout: %s ms, lock age: %s ms, owners: %s)",
+                        _retryTimeoutMs, lockFileAge, FileJanitor.describeLockOwners(deploymentPath)));
+
+                // Only when contended. Retried immediately, in case the files were released before the watcher started
+                if (null == watcher) {
+                    watcher = new FileJanitor.LockWatcher(deploymentPath);
+                    continue;
+                }
+
+                _deadline.enter(LoadDeadline.LOCK_WAIT);
+                if (!FileJanitor.tryBreakStaleLock(deploymentPath))
+                    watcher.await(_deadline.bound(_retryTimeoutMs));
+            }
+        } finally {
+            if (null != watcher)
+                watcher.close();
+        }
+
+        DeploymentThroughput.update(deploymentPath, meter);
+    }
+
+    // Lock the file deployed by another process for reading, if the state table reports it as ready and it matches
+    private boolean tryUseReadyResource(Path deploymentPath, Resource resource, StateTable table) {
+        if (StateTable.READY != table.state(resource.filename))
+            return false;
+
+        long length = table.length(resource.filename), checksum = table.checksum(resource.filename);
+        if ((resource.decompressedLength >= 0 && resource.decompressedLength != length)
+            || (resource.checksum >= 0 && checksum >= 0 && resource.checksum != checksum))
+            return false;
+
+        Path filePath = resource.getFullPath(deploymentPath);
+        try {
+            resource.setReadLock(filePath);
+            if (length == resource.getFile().size()) {
+                resource.decompressedLength = (int)length;
+                resource.checksum = checksum;
+                return true;
+            }
+        } catch (IOException e) {
+            // Not available yet
+        }
+
+        resource.setFileLock(null);
+        return false;
+    }
+
+
+    private boolean verifyExistingResourceFiles(Path deploymentPath) throws IOException {
+
+        // Verify automatically fails if overwrite mode is forced
+        if (_alwaysOverwrite)
+            return false;
+
+        // Make sure all resource files are closed
+        if (!_reusePartiallyDeployed)
+            disposeResourceFiles();
+
+        int timeout = (int)_deadline.bound(_retryTimeoutMs);
+        int numExpected = _resources.size();
+        if (_verifyContent && null == _verifiedFiles)
+            _verifiedFiles = ContentVerifier.read(deploymentPath);
+
+        do {
+            int numFound = 0, numOpened = 0;
+            for (Resource resource : _resources) {
+                Path filePath = resource.getFullPath(deploymentPath);
+                if (Files.exists(filePath)) {
+                    ++numFound;
+                    if (null == resource.getFile()) {
+                        long fileLength;
+                        try {
+                            resource.setReadLock(filePath);
+                            fileLength = resource.getFile().size();
+                        }
+                        catch (IOException e) {
+                            continue;
+                        }
+
+                        // Length is verified whenever known (from resource index or listing cache)
+                        if (resource.decompressedLength >= 0 ? resource.decompressedLength != fileLength :
+                            !resource.isZstd && resource.length != fileLength) {
+                            log("File length mismatch: %s (%s)", filePath, fileLength);
+                            resource.setFileLock(null);
+                            --numFound; // Will be redeployed
+                            continue;
+                        }
+
+                        if (fileLength <= Integer.MAX_VALUE)
+                            resource.decompressedLength = (int)fileLength;
+
+                        if (_verifyContent && !verifyContent(filePath, resource)) {
+                            resource.setFileLock(null);
+                            --numFound; // Will be redeployed
+                            continue;
                         }
                     }
 
@@ -845,16 +1651,57 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             timeout -= randomSleep(timeout);
         } while (timeout > 0);
 
-        if (!_reusePartiallyDeployed)
+        if (!_reusePartiallyDeployed) {
             disposeResourceFiles();
+            _verifiedChecksums.clear();
+            _deferredVerification.clear();
+        }
 
         return false;
     }
 
 
+    // Compare the checksum of the existing file with the expected one, or defer until loaded, if verified earlier
+    private boolean verifyContent(Path filePath, Resource resource) throws IOException {
+        ContentVerifier.Entry entry = _verifiedFiles.get(resource.filename);
+        if (null != entry && (entry.length != resource.decompressedLength
+            || (resource.checksum >= 0 && resource.checksum != entry.checksum)))
+            entry = null; // Stale
+
+        long expected = resource.checksum >= 0 ? resource.checksum : null != entry ? entry.checksum : -1;
+        if (null != _verificationListener && null != entry
+            && entry.lastModified == Files.getLastModifiedTime(filePath).toMillis()) {
+            try {
+                _deferredVerification.put(resource, new ContentVerifier.Deferred(resource.getFile(), expected));
+                return true;
+            } catch (IOException|UnsupportedOperationException e) {
+                log("Unable to map %s, verifying now: %s", filePath, e);
+            }
+        }
+
+        if (expected < 0)
+            return true; // Not known, only the length is verified
+
+        long t0 = nanoTime();
+        long checksum = ContentVerifier.checksum(resource.getFile());
+        log("Verified %s in %s us", filePath, (nanoTime() - t0) / 1000);
+        if (checksum != expected) {
+            log("File checksum mismatch: %s (%08x, expected: %08x)", filePath, checksum, expected);
+            return false;
+        }
+
+        _verifiedChecksums.put(resource, checksum);
+        return true;
+    }
+
+
     private void verifyOrDeployResources(Path deploymentPath) throws IOException {
 
         disposeResourceFiles();
+        _verifiedFiles = null;
+        _verifiedChecksums.clear();
+        _deferredVerification.clear();
+        _deadline.enter(LoadDeadline.VERIFY);
 
         // Check, if we can load the existing resource files
         try {
@@ -867,36 +1714,84 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             throw e;
         }
 
+        if (_isVerifyOnly)
+            throw new IOException(fmt("Deployed files do not match the cached resource listing at: %s", deploymentPath));
+
+        if (_cooperativeDeployment && !_alwaysOverwrite) {
+            try (StateTable table = StateTable.open(deploymentPath)) {
+                if (null != table) {
+                    deployCooperatively(deploymentPath, table);
+                    return;
+                }
+            }
+        }
+
         long startTimeNs = nanoTime(), startTimeNs0 = startTimeNs;
         int retries = 3;
         final long timeout = _retryTimeoutMs;
-        while (null == setFileLock(FileJanitor.tryCreateLockFile(deploymentPath))) {
-            long elapsed = (nanoTime() - startTimeNs) / 1000_000; // To milliseconds
-            // Yes, sleep at least once regardless of how much time remaining and re-check
-            randomSleep(timeout - elapsed);
-            if (elapsed < timeout || --retries >= 0)
-                continue;
+        // Only lock the stripes of our own files, other resource sets may be deployed into the same directory concurrently
+        ArrayList<String> filenames = new ArrayList<>(_resources.size());
+        for (Resource resource : _resources)
+            filenames.add(resource.filename);
 
-            long now = currentTimeMillis();
-            // If lockfile is updated between retryTimeout in the past and retryTimeout * 10 in the future(!!), extend timer
-            long lockFileAge = now - FileJanitor.getLockFileWriteTime(deploymentPath);
-            if (lockFileAge < timeout && lockFileAge > -10 * timeout) {
-                startTimeNs = nanoTime();
-                retries = 3;
-                log("Lock timer extended");
-                continue;
-            }
+        FileJanitor.LockWatcher watcher = null;
+        try {
+            while (null == setFileLock(FileJanitor.tryCreateLockFile(deploymentPath, filenames))) {
+                // Only when contended. Retried immediately, in case the lock was released before the watcher started
+                if (null == watcher) {
+                    watcher = new FileJanitor.LockWatcher(deploymentPath);
+                    continue;
+                }
+
+                _deadline.enter(LoadDeadline.LOCK_WAIT);
+                _deadline.check(deploymentPath);
+                long elapsed = (nanoTime() - startTimeNs) / 1000_000; // To milliseconds
+                // Yes, wait at least once regardless of how much time remaining and re-check
+                if (watcher.await(_deadline.bound(timeout - elapsed))) {
+                    // Other process signalled that it is done, no need to wait until it releases the lock
+                    _deadline.enter(LoadDeadline.VERIFY);
+                    if (verifyExistingResourceFiles(deploymentPath)) {
+                        log("Verified files after completion signal");
+                        return;
+                    }
+                }
+
+                _deadline.check(deploymentPath);
+
+                // Owner crashed, no need to wait for the timeout
+                if (FileJanitor.tryBreakStaleLock(deploymentPath))
+                    continue;
+
+                if (elapsed < timeout || --retries >= 0)
+                    continue;
+
+                long now = currentTimeMillis();
+                // If lockfile is updated between retryTimeout in the past and retryTimeout * 10 in the future(!!), extend timer
+                long lockFileAge = now - FileJanitor.getLockFileWriteTime(deploymentPath);
+                if (lockFileAge < timeout && lockFileAge > -10 * timeout) {
+                    startTimeNs = nanoTime();
+                    retries = 3;
+                    log("Lock timer extended");
+                    continue;
+                }
 
-            double elapsedTotal = (nanoTime() - startTimeNs0) / 1E6;
-            log(ERR, "Lock timer expired at: %s, elapsed: %s, lock age: %s ms", dt2str(now), elapsedTotal, lockFileAge);
-            throw new IOException(fmt("Unable to grab Lock file (timeout: %s ms, elapsed: %s ms, lock age: %s ms)",
-                timeout, elapsedTotal, lockFileAge));
+                double elapsedTotal = (nanoTime() - startTimeNs0) / 1E6;
+                String owners = FileJanitor.describeLockOwners(deploymentPath);
+                log(ERR, "Lock timer expired at: %s, elapsed: %s, lock age: %s ms, owners: %s", dt2str(now), elapsedTotal,
+                    lockFileAge, owners);
+                throw new IOException(fmt("Unable to grab Lock file (timeout: %s ms, elapsed: %s ms, lock age: %s ms, owners: %s)",
+                    timeout, elapsedTotal, lockFileAge, owners));
+            }
+        } finally {
+            if (null != watcher)
+                watcher.close();
         }
 
         if (logLevelLeast(DBG))
             log("Lock taken: %s %s", _lockFile, _lockFile.channel());
 
         try {
+            _deadline.enter(LoadDeadline.VERIFY);
             try {
                 // Check again after possible lock contention
                 if (verifyExistingResourceFiles(deploymentPath)) {
@@ -909,7 +1804,10 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             }
 
             log("Deploying to: %s", deploymentPath);
+            _deadline.enter(LoadDeadline.DEPLOY);
+            _deadline.check(deploymentPath);
             lockFileWatchdogInit();
+            FileJanitor.deleteCompletionMarker(deploymentPath);
 
             try {
                 deployResourcesInternal(deploymentPath);
@@ -920,6 +1818,8 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
             // Update watchdog one last time
             lockFileWatchdogUpdate();
+            // Wake up processes waiting for the lock, they may verify the files without waiting for the lock release
+            FileJanitor.writeCompletionMarker(deploymentPath);
         } catch (Throwable e) {
             log("Verify/Deploy throw/rethrow");
             throw e;
@@ -946,35 +1846,42 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         }
 
         assert(_totalResourceLength >= 0);
-        if (_retryTimeoutMs < 0)
-            _retryTimeoutMs = _totalResourceLength / 4000 + 4000; // 4 MB/s + 4 sec
-
-        // Update period fixed to be frequent enough to not cause _any_ concurrent processes to timeout
-        // regardless of how big _their_ files are
-        // It is guaranteed to be <= _retryTimeoutMs / 2
-        _lockUpdatePeriodNs = 2000 * 1000000L;
+        if (_retryTimeoutMs < 0 || _isRetryTimeoutAuto) {
+            _isRetryTimeoutAuto = true;
+            _retryTimeoutMs = estimateRetryTimeout(deploymentPath);
+        }
 
-        if (!OS.isWindows())
-            _keepDllsLocked = true;
+        // Update period is frequent enough to not cause _any_ concurrent processes to timeout
+        // regardless of how big _their_ files are, as long as they use the same lower bound for the timeout
+        // It is guaranteed to be <= _retryTimeoutMs / 4
+        _lockUpdatePeriodNs = Math.max(1, Math.min(MAX_LOCK_UPDATE_PERIOD_MS,
+            Math.min(_minRetryTimeoutMs, _retryTimeoutMs) / 4)) * 1000000L;
 
-        log("RetryTimeout:%s, LockUpdatePeriodNs: %s%s",
-            _retryTimeoutMs, _lockUpdatePeriodNs, _keepDllsLocked ? " KeepDllsLocked=1" : "");
+        log("RetryTimeout:%s, LockUpdatePeriodNs: %s", _retryTimeoutMs, _lockUpdatePeriodNs);
 
         try {
             verifyOrDeployResources(deploymentPath);
-            if (_shouldLoadDlls) {
-                log("Loading dynamic libraries..");
-                loadDynamicLibraries(deploymentPath);
-
-                if (_keepDllsLocked)
-                    keepDllFileHandles();
+            _deadline.enter(LoadDeadline.LOAD_LIBRARIES);
+            _deadline.check(deploymentPath);
+            for (ResourceLoader rl : members()) {
+                if (rl._shouldLoadDlls) {
+                    log("Loading dynamic libraries..");
+                    rl.loadDynamicLibraries(deploymentPath);
+                    rl.keepDllFileHandles(deploymentPath);
+                }
             }
+
+            leaseResourceFiles(deploymentPath);
         } catch (Throwable e) {
-            if (_shouldLoadDlls) {
-                // If some libs were already loaded before throwing, unload. All libs must be only loaded
-                // from a single deployment path.
-                log("UNloading libs..");
-                unloadDynamicLibraries();
+            for (ResourceLoader rl : members()) {
+                if (rl._shouldLoadDlls) {
+                    // If some libs were already loaded before throwing, unload. All libs must be only loaded
+                    // from a single deployment path.
+                    log("UNloading libs..");
+                    rl.unloadDynamicLibraries();
+                    // Libraries loaded with System.load() stay mapped
+                    rl.keepDllFileHandles(deploymentPath);
+                }
             }
 
             setFileLock(null);
@@ -985,13 +1892,39 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
             disposeResourceFiles();
             // If lock file existed, update the last time before deletion
             if (null != _lockFile)
-                lockFileWatchdogUpdate(true);
+                lockFileWatchdogUpdate();
 
             setFileLock(null);
         }
     }
 
 
+    /**
+     * Estimate retry timeout from the deployment throughput measured at this path earlier.
+     * Falls back to assuming 4 MB/s for the compressed data, if not measured yet.
+     */
+    private int estimateRetryTimeout(Path deploymentPath) {
+        long compressedBytes = 0, zstdBytes = 0, decompressedBytes = 0;
+
+        for (Resource resource : _resources) {
+            long n = resource.decompressedLength >= 0 ? resource.decompressedLength :
+                resource.isZstd ? (long)resource.length * ZSTD_RATIO_ESTIMATE : resource.length;
+
+            compressedBytes += resource.length;
+            zstdBytes += resource.isZstd ? n : 0;
+            decompressedBytes += n;
+        }
+
+        DeploymentThroughput throughput = DeploymentThroughput.read(deploymentPath);
+        long estimateMs = null != throughput ? throughput.estimateMs(compressedBytes, zstdBytes, decompressedBytes) : -1;
+        long timeout = estimateMs >= 0 ? estimateMs * RETRY_TIMEOUT_FACTOR + RETRY_TIMEOUT_BASE_MS
+            : _totalResourceLength / 4000 + 4000; // 4 MB/s + 4 sec
+
+        log("Estimated deployment time: %s ms", estimateMs);
+        return (int)Math.max(_minRetryTimeoutMs, Math.min(_maxRetryTimeoutMs, timeout));
+    }
+
+
     private boolean tryLoadAt(final Path deploymentPath) {
         _lastUsedPath = deploymentPath.toString();
 
@@ -1008,9 +1941,151 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     }
 
 
-    private void loadInternal() {
+    private void ensureResourcesListed() {
+        if (null != _resources)
+            return;
+
+        _deadline.enter(LoadDeadline.LIST);
+        try {
+            if (null != _members)
+                listMemberResources();
+            else
+                listResources();
+        } catch (Throwable e) {
+            throw new RuntimeException(fmt("Failed to list/scan resources at: %s", _resourcePathTemplate), e);
+        }
 
-        if (null == _resourcePrefix)
+        _deadline.check(_resourcePathTemplate);
+    }
+
+
+    /**
+     * Try to load the resource set at one of the candidate deployment paths, using the cached listing if possible.
+     */
+    private boolean tryLoadCandidateAt(Path deploymentPath, String cacheKey) {
+        _deadline.check(deploymentPath);
+        // Before verifying the existing files, so that they are not deleted meanwhile. Kept, if the files are leased
+        DeploymentLeases.acquire(deploymentPath, _deadline.remainingMs());
+        try {
+            if (null != cacheKey && null == _resources && tryLoadCachedAt(deploymentPath, cacheKey)) {
+                onLoadedAt(deploymentPath);
+                return true;
+            }
+
+            ensureResourcesListed();
+            if (!tryLoadAt(deploymentPath))
+                return false;
+
+            if (null != cacheKey)
+                writeListingCache(deploymentPath, cacheKey);
+
+            onLoadedAt(deploymentPath);
+            return true;
+        } finally {
+            DeploymentLeases.release(deploymentPath);
+        }
+    }
+
+    private void onLoadedAt(Path deploymentPath) {
+        if (0 != _evictionMaxBytes || 0 != _evictionMaxAgeMs)
+            DeploymentGenerations.scheduleEviction(deploymentPath, _evictionMaxBytes, _evictionMaxAgeMs);
+
+        if (_verifyContent)
+            onContentVerified(deploymentPath);
+    }
+
+    // Record the verified and deployed files, verify the deferred ones in the background
+    private void onContentVerified(Path deploymentPath) {
+        HashMap<String, ContentVerifier.Entry> verified = new HashMap<>();
+        HashMap<String, ContentVerifier.Deferred> deferred = new HashMap<>();
+        for (Resource resource : _resources) {
+            Long checksum = resource.checksum >= 0 ? Long.valueOf(resource.checksum) : _verifiedChecksums.get(resource);
+            if (_deferredVerification.containsKey(resource)) {
+                deferred.put(resource.filename, _deferredVerification.get(resource));
+            } else if (null != checksum) {
+                try {
+                    ContentVerifier.Entry entry = ContentVerifier.entryOf(resource.getFullPath(deploymentPath), checksum);
+                    if (null == _verifiedFiles || !entry.matches(_verifiedFiles.get(resource.filename)))
+                        verified.put(resource.filename, entry);
+                } catch (IOException e) {
+                    log("Unable to record verified file %s: %s", resource.filename, e);
+                }
+            }
+        }
+
+        if (0 != verified.size())
+            ContentVerifier.update(deploymentPath, verified, Collections.<String>emptyList());
+
+        if (null != _verificationListener) {
+            final List<ResourceLoader> members = members();
+            ContentVerifier.verifyInBackground(deploymentPath, deferred, _verificationListener, new Runnable() {
+                @Override
+                public void run() {
+                    // Next load() verifies again
+                    for (ResourceLoader rl : members)
+                        DeploymentRegistry.remove(rl.deploymentKey());
+                }
+            });
+        }
+
+        _verifiedFiles = null;
+        _verifiedChecksums.clear();
+        _deferredVerification.clear();
+    }
+
+
+    /**
+     * Resource set identity used to remember its last successful deployment path across runs.
+     */
+    private String deploymentRootKey(String deploymentPath) {
+        StringBuilder key = new StringBuilder(deploymentPath);
+        for (ResourceLoader rl : members())
+            key.append('|').append(rl.getActualResourcePath());
+
+        return key.toString().replace('\n', ' ').replace('\t', ' ');
+    }
+
+
+    /**
+     * Probe the candidate deployment paths concurrently and order them by the probe result,
+     * keeping the original order as a tie-breaker.
+     * @param cacheKey listing cache key, used to recognize already deployed resource set, if not listed yet
+     */
+    private List<Path> rankDeploymentPaths(List<Path> paths, final String cacheKey) {
+        final List<Resource> resources = _resources;
+        final String resourceSetName = getActualResourcePath();
+
+        if (paths.size() < 2)
+            return paths;
+
+        _deadline.enter(LoadDeadline.PROBE);
+        return new DeploymentRootProbe() {
+            @Override
+            boolean isDeployed(Path dir) {
+                if (null == resources)
+                    return null != cacheKey
+                        && null != ListingCache.read(ListingCache.cacheFilePath(dir, resourceSetName), cacheKey);
+
+                for (Resource resource : resources) {
+                    long length = resource.isZstd ? resource.decompressedLength : resource.length;
+                    try {
+                        Path path = resource.getFullPath(dir);
+                        if (length >= 0 ? Files.size(path) != length : !Files.exists(path))
+                            return false;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        }.rank(paths, _deadline.bound(DeploymentRootProbe.TIMEOUT_MS));
+    }
+
+
+    private void loadInternal(LoadDeadline deadline) {
+
+        if (null == _resourcePrefix && null == _members)
             throw argException("Resource path is not set, use .from(resourcePathTemplate) to set");
 
         if (null == _deploymentPathTemplate)
@@ -1022,7 +2097,7 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
         assert (null != _class);
 
         // TODO: check normalization
-        String pathStr = applyPathTemplate(_deploymentPathTemplate, _class);
+        String pathStr = applyPathTemplate(_deploymentPathTemplate, _class, _cpuLevel);
         Path path = Paths.get(pathStr);
 
         ArrayList<Path> paths = new ArrayList<>();
@@ -1064,41 +2139,103 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
 
         // TODO: verify
         FileJanitor.registerForCleanupOnExit();
+        FileJanitor.startBackgroundCleanup();
 
         if (LogLevel <= DBG) {
             log("Deployment paths:");
             for (Path p : paths)
                 log("%s", p);
         }
+
+        _deadline = deadline;
         try {
-            try {
-                if (null == _resources)
-                    listResources();
-            } catch (Throwable e) {
-                throw new RuntimeException(fmt("Failed to list/scan resources at: %s", _resourcePathTemplate), e);
+            // If the resource set is already deployed, the cached listing lets us avoid scanning the source archive
+            String cacheKey = null == _resources ? tryGetListingCacheKey() : null;
+
+            // The path that succeeded last time is tried first, without probing the others
+            String rootKey = paths.size() > 1 ? deploymentRootKey(pathStr) : null;
+            Path lastRoot = null != rootKey ? DeploymentRootCache.lookup(rootKey) : null;
+            if (null != lastRoot && paths.remove(lastRoot)) {
+                log("Trying last successful deployment path: %s", lastRoot);
+                if (tryLoadCandidateAt(lastRoot, cacheKey))
+                    return;
+
+                DeploymentRootCache.forget(rootKey);
             }
 
-            for (Path p : paths) {
-                if (tryLoadAt(p))
+            // Without the cached listing we need to scan the resources anyway, do it before probing the paths
+            if (null == cacheKey)
+                ensureResourcesListed();
+
+            for (Path p : rankDeploymentPaths(paths, cacheKey)) {
+                if (tryLoadCandidateAt(p, cacheKey)) {
+                    if (null != rootKey)
+                        DeploymentRootCache.remember(rootKey, p);
+
                     return;
+                }
             }
 
             // Failure!
             throw new RuntimeException(fmt("Failed to deploy&load native resources using path: %s", _lastUsedPath), _lastDeploymentException);
         }
         finally {
-            Closeable jfs = _jarFileSystem;
-            _jarFileSystem = null;
-            if (null != jfs) {
-                try {
-                    jfs.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            for (ResourceLoader rl : members()) {
+                rl.releaseJarFileSystem();
+                rl._lastUsedPath = _lastUsedPath;
+                rl._lastSuccessfulPath = _lastSuccessfulPath;
+                rl._lastDeploymentException = _lastDeploymentException;
+            }
+
+            _deadline = null;
+        }
+    }
+
+    private void releaseJarFileSystem() {
+        Closeable jfs = _jarFileSystem;
+        _jarFileSystem = null;
+        if (null != jfs) {
+            try {
+                jfs.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Choose the most specific $(CPU_LEVEL) variant of the resource path supported by this CPU, whose resource
+     * directory (or single resource file) exists. Falls back to the baseline level.
+     * @return null, if the template doesn't contain $(CPU_LEVEL)
+     */
+    private String selectCpuLevel(String resourcePathTemplate) {
+
+        if (!TemplateString.containsKey(resourcePathTemplate, "CPU_LEVEL"))
+            return null;
+
+        int lastPathSeparator = resourcePathTemplate.lastIndexOf('/');
+        boolean isWildcard = resourcePathTemplate.indexOf('*', lastPathSeparator + 1) >= 0;
+        if (isWildcard && resourcePathTemplate.indexOf("$(CPU_LEVEL)", lastPathSeparator + 1) >= 0)
+            throw argException("$(CPU_LEVEL) is only supported in the directory part of a resource path with '*': %s",
+                resourcePathTemplate);
+
+        List<String> levels = CpuFeatures.levels();
+        for (String level : levels) {
+            String path = REPEATED_SLASHES.matcher("/" + applyBasicTemplate(resourcePathTemplate, _class, level))
+                .replaceAll("/");
+
+            if (isWildcard)
+                path = path.substring(0, path.lastIndexOf('/'));
+
+            if (null != tryGetResource(path) || !isWildcard && null != tryFindSingleDll(path)) {
+                log("Using CPU level %s: %s", level, path);
+                return level;
+            }
+        }
+
+        return CpuFeatures.baseline();
+    }
+
     /**
      * Set resource path template and the class whose classloader will be used to load resources
      */
@@ -1125,17 +2262,18 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
          * Expand path template, normalize it and verify
          */
         _resourcePath = _resourcePrefix = _resourceSuffix = null;
-        String srcPath = applyBasicTemplate(resourcePathTemplate, _class);
+        _cpuLevel = selectCpuLevel(resourcePathTemplate);
+        String srcPath = applyBasicTemplate(resourcePathTemplate, _class, _cpuLevel);
 
         // NOTE: We are not using standard path manipulation APIs because they are platform-dependent
 
         // Perform basic check
-        if (Pattern.matches("[\\s\\\\?]", srcPath))
+        if (INVALID_RESOURCE_PATH.matcher(srcPath).matches())
             throw argException("Invalid characters detected in expanded resource path string: %s", srcPath);
 
         // "Normalize" the resource path
         // Note that we always consider the path to be absolute and convert it into such
-        srcPath = ("/" + srcPath).replaceAll("\\/+", "/");
+        srcPath = REPEATED_SLASHES.matcher("/" + srcPath).replaceAll("/");
         int lastPathSeparator = srcPath.lastIndexOf('/');
         if (lastPathSeparator < 0) {
             // Path is not present, just a single filename in the root
@@ -1196,41 +2334,107 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     }
 
     @Override
-    public ResourceLoaderDone unloadDlls() {
+    public Loaded unloadDlls() {
 
         if (null == _resources)
             throw new UnsupportedOperationException("No resources were loaded");
 
-        unloadDynamicLibraries();
+        boolean isUnloaded = false;
+        for (ResourceLoader rl : members())
+            isUnloaded |= rl.unloadDynamicLibraries();
+
+        // Joined deployments stay registered for their owner, unless the shared libraries were unloaded
+        if (null != _resourcePrefix)
+            DeploymentRegistry.remove(deploymentKey(), isUnloaded ? null : this);
+
         return this;
     }
 
     @Override
-    public ResourceLoaderInstance alwaysOverwrite(boolean alwaysOverwrite) {
+    public Object symbolLookup() {
+
+        if (null == _resources)
+            throw new UnsupportedOperationException("No resources were loaded");
+
+        ArrayList<Object> handles = new ArrayList<>();
+        for (ResourceLoader rl : members()) {
+            for (Resource resource : rl._loadedDlls) {
+                if (null != resource._handle)
+                    handles.add(resource._handle);
+            }
+        }
+
+        return 0 != handles.size() ? NativeLibraryLoader.symbolLookup(handles) : null;
+    }
+
+    @Override
+    public ResourceLoaderOptions alwaysOverwrite(boolean alwaysOverwrite) {
         _alwaysOverwrite = alwaysOverwrite;
         return this;
     }
 
     @Override
-    public ResourceLoaderInstance reusePartiallyDeployed(boolean reuseEnabled) {
+    public ResourceLoaderOptions reusePartiallyDeployed(boolean reuseEnabled) {
         _reusePartiallyDeployed = reuseEnabled;
         return this;
     }
 
     @Override
-    public ResourceLoaderInstance shouldLoadDlls(boolean shouldLoadDlls) {
+    public ResourceLoaderOptions shouldLoadDlls(boolean shouldLoadDlls) {
         _shouldLoadDlls = shouldLoadDlls;
         return this;
     }
 
     @Override
-    public ResourceLoaderInstance tryRandomFallbackSubDirectory(boolean enable) {
+    public ResourceLoaderOptions tryRandomFallbackSubDirectory(boolean enable) {
         _addRandomFallbackSubDirectory = enable;
         return this;
     }
 
     @Override
-    public ResourceLoaderInstance addDllSuffix(String libraryNameSuffix) {
+    public ResourceLoaderOptions cooperativeDeployment(boolean enable) {
+        _cooperativeDeployment = enable;
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions prefetchLibraries(boolean enable) {
+        _prefetchLibraries = enable;
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions verifyContent(boolean enable) {
+        _verifyContent = enable;
+        if (!enable)
+            _verificationListener = null;
+
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions verifyContentInBackground(VerificationListener listener) {
+
+        if (null == listener)
+            throw new NullPointerException("listener");
+
+        _verifyContent = true;
+        _verificationListener = listener;
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions dlopenFlags(int flags) {
+
+        if (flags < 0)
+            throw argException("dlopen flags should not be negative: %s", flags);
+
+        _dlopenFlags = flags;
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions addDllSuffix(String libraryNameSuffix) {
 
         if (null == libraryNameSuffix || libraryNameSuffix.equals(""))
             throw argException("libraryNameSuffix should not be empty");
@@ -1240,18 +2444,144 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     }
 
     @Override
-    public ResourceLoaderInstance retryTimeout(int millis) {
+    public ResourceLoaderOptions retryTimeout(int millis) {
         _retryTimeoutMs = millis;
+        _isRetryTimeoutAuto = false;
         return this;
     }
 
     @Override
-    public ResourceLoaderDone load() {
-        // TODO: May want to do something with these exceptions later
-        loadInternal();
+    public ResourceLoaderOptions retryTimeoutBounds(int minMillis, int maxMillis) {
+
+        if (minMillis <= 0 || maxMillis < minMillis)
+            throw argException("Invalid retry timeout bounds: %s..%s", minMillis, maxMillis);
+
+        _minRetryTimeoutMs = minMillis;
+        _maxRetryTimeoutMs = maxMillis;
         return this;
     }
 
+    @Override
+    public ResourceLoaderOptions deadline(long timeout, TimeUnit unit) {
+
+        if (timeout < 0)
+            throw argException("Deadline can't be negative: %s", timeout);
+
+        _deadlineMs = unit.toMillis(timeout);
+        return this;
+    }
+
+    @Override
+    public ResourceLoaderOptions evictOldGenerations(long maxBytes, long maxAge, TimeUnit unit) {
+
+        if (maxBytes < 0 || maxAge < 0)
+            throw argException("Invalid eviction policy: %s bytes, %s %s", maxBytes, maxAge, unit);
+
+        _evictionMaxBytes = maxBytes;
+        _evictionMaxAgeMs = unit.toMillis(maxAge);
+        return this;
+    }
+
+    @Override
+    public Future<ResourceLoaderDone> loadAsync(Executor executor) {
+
+        if (null == executor)
+            throw new NullPointerException("executor");
+
+        FutureTask<ResourceLoaderDone> task = new FutureTask<>(new Callable<ResourceLoaderDone>() {
+            @Override
+            public ResourceLoaderDone call() {
+                return load();
+            }
+        });
+
+        executor.execute(task);
+        return task;
+    }
+
+    @Override
+    public Loaded load() {
+
+        LoadDeadline deadline = new LoadDeadline(_deadlineMs);
+        // Overwriting is explicitly requested, always deploy. Incomplete configuration is reported by loadInternal()
+        if (_alwaysOverwrite || null == _resourcePrefix || null == _deploymentPathTemplate) {
+            loadInternal(deadline);
+            return this;
+        }
+
+        DeploymentRegistry.Key key = deploymentKey();
+        while (true) {
+            DeploymentRegistry.Deployment deployment = DeploymentRegistry.acquire(key);
+            if (null == deployment) {
+                loadInternal(deadline);
+                return this;
+            }
+
+            if (deployment.isOwner()) {
+                try {
+                    // TODO: May want to do something with these exceptions later
+                    loadInternal(deadline);
+                } catch (RuntimeException|Error e) {
+                    DeploymentRegistry.fail(deployment, e);
+                    throw e;
+                }
+
+                DeploymentRegistry.complete(deployment, this);
+                return this;
+            }
+
+            // Already deployed (or being deployed) by another thread or an earlier call
+            deadline.enter(LoadDeadline.JOIN);
+            ResourceLoader result = deployment.await(deadline.remainingMs());
+            if (null == result) {
+                deadline.check(key);
+                continue; // Timed out, or the result is no longer used and the deployment is forgotten
+            }
+            if (result.areResourceFilesPresent()) {
+                // Joined: shares the result, but does not own the deployment
+                if (result != this) {
+                    _resources = new ArrayList<>(result._resources);
+                    // Same library handles: symbolLookup() and unloadDlls() work on the joined result too
+                    _loadedDlls.clear();
+                    _loadedDlls.addAll(result._loadedDlls);
+                    _lastUsedPath = result._lastUsedPath;
+                    _lastSuccessfulPath = result._lastSuccessfulPath;
+                    _lastDeploymentException = result._lastDeploymentException;
+                }
+
+                return this;
+            }
+
+            // Deleted behind our back, deploy again
+            log("Deployed files are missing, redeploying: %s", key);
+            DeploymentRegistry.remove(key);
+        }
+    }
+
+    // Every option that changes what is deployed, verified, evicted or how the libraries are loaded. Loads with
+    // different options deploy separately. Retry timeouts and the deadline only limit the waiting and are not included
+    DeploymentRegistry.Key deploymentKey() {
+        return new DeploymentRegistry.Key(_class.getClassLoader(), fmt("%s\n%s\n%s %s %s %s %s %s %s %s %s %s %s",
+            getActualResourcePath(), applyBasicTemplateNoVerify(_deploymentPathTemplate, _class, _cpuLevel),
+            _libraryNameSuffix, _shouldLoadDlls, _reusePartiallyDeployed, _addRandomFallbackSubDirectory,
+            _cooperativeDeployment, _prefetchLibraries, _dlopenFlags, _verifyLength, _verifyContent,
+            _evictionMaxBytes, _evictionMaxAgeMs), _verificationListener);
+    }
+
+    private boolean areResourceFilesPresent() {
+        String path = getActualDeploymentPath();
+        if (null == path || null == _resources)
+            return false;
+
+        Path deploymentPath = Paths.get(path);
+        for (Resource resource : _resources) {
+            if (!Files.exists(resource.getFullPath(deploymentPath)))
+                return false;
+        }
+
+        return true;
+    }
+
 
     /**
      * Set resource path template. Resources matching the template will be deployed to the destination dir.
@@ -1267,6 +2597,10 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
      * <li>$(VERSION) =&gt; current package version</li>
      * <li>$(ARCH) =&gt; '32' | '64' - pointer size of the current architecture</li>
      * <li>$(DLLEXT) =&gt; 'dll' | 'so' | 'dylib' - dynamic library file extension for the current OS platform</li>
+     * <li>$(CPU_ARCH) =&gt; 'x86-64' | 'x86' | 'aarch64' | ... - architecture of the current JVM</li>
+     * <li>$(CPU_LEVEL) =&gt; 'x86-64-v4' .. 'x86-64-v1' - the most specific CPU feature level variant of the resource
+     * path that is supported by the CPU and exists, the baseline if none exists. {@code $(CPU_ARCH)} value
+     * on other architectures</li>
      * </ul>
      *
      * @param resourcePathTemplate Resource path template. Describes the source location of the deployed resource set.
@@ -1290,6 +2624,10 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
      * <li>$(VERSION) =&gt; current package version</li>
      * <li>$(ARCH) =&gt; '32' | '64' - pointer size of the current architecture</li>
      * <li>$(DLLEXT) =&gt; 'dll' | 'so' | 'dylib' - dynamic library file extension for the current OS platform</li>
+     * <li>$(CPU_ARCH) =&gt; 'x86-64' | 'x86' | 'aarch64' | ... - architecture of the current JVM</li>
+     * <li>$(CPU_LEVEL) =&gt; 'x86-64-v4' .. 'x86-64-v1' - the most specific CPU feature level variant of the resource
+     * path that is supported by the CPU and exists, the baseline if none exists. {@code $(CPU_ARCH)} value
+     * on other architectures</li>
      * </ul>
      *
      * @param clazz class whose classloader will be used for loading the resources.
@@ -1309,4 +2647,29 @@ public class ResourceLoader implements ResourceLoaderInstance, ResourceLoaderDon
     public static To to(String deploymentPathTemplate) {
         return new To(newInstance().toInternal(deploymentPathTemplate));
     }
+
+    /**
+     * Start a batch of resource sets that will be deployed and loaded together by a single {@code load()} call.
+     * Resource sets sharing the same deployment path are deployed under a single directory lock.
+     * @return Empty batch, call .add() to add resource sets and .load() to load them
+     */
+    public static Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Limit the deployment I/O of all {@code ResourceLoader} instances in this JVM, unlimited by default.
+     * <p>Protects the latency-critical processes sharing the host from a cold deployment of a big resource set.
+     * Dynamic libraries are deployed before the other files, when waiting for the bandwidth or for a writer.
+     * Does not limit the deployment done by other processes.
+     * @param megabytesPerSecond Total write bandwidth, in MB/s. 0 for unlimited.
+     * @param maxConcurrentWriters Maximum number of files deployed at the same time. 0 for unlimited.
+     */
+    public static void setDeploymentIoLimits(int megabytesPerSecond, int maxConcurrentWriters) {
+
+        if (megabytesPerSecond < 0 || maxConcurrentWriters < 0)
+            throw argException("Invalid deployment I/O limits: %s MB/s, %s writers", megabytesPerSecond, maxConcurrentWriters);
+
+        DeploymentScheduler.setLimits(megabytesPerSecond * 1000000L, maxConcurrentWriters);
+    }
 }
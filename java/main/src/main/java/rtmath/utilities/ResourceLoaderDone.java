@@ -7,7 +7,8 @@ public interface ResourceLoaderDone extends ResourceLoaderInstance.ResourceLoade
 
     /**
      * Unload (decrement reference count) all loaded Dynamic Libraries.
-     * Does not work in Java version of ResourceLoader, but remains for source code compatibility.
+     * Only works for the libraries loaded with {@code dlopenFlags()} on Java 22+, libraries loaded with
+     * {@code System.load()} can't be unloaded and remain loaded.
      * Does not unlock the files (will only be unlocked on exit).
      * @return This ResourceLoader instance ({@code ResourceLoaderDone})
      */
@@ -90,7 +90,9 @@ public interface ResourceLoaderInstance {
      * instance of the ResourceLoader is writing to some files in the directory
      * (regularly updates lockfile.$$$ write time).
      *
-     * <p>By default, timeout is calculated from the _compressed_ size of the deployed data.
+     * <p>By default, timeout is estimated from the size of the deployed data and the read, decompression and write
+     * throughput measured by the earlier deployments to the same path (stored in the deployment directory).
+     * If nothing was measured yet, the timeout is calculated from the _compressed_ size of the deployed data.
      * @param millis Minimum deployment timeout.
      * @return This {@code ResourceLoaderInstance}
      */
@@ -0,0 +1,185 @@
+package rtmath.utilities;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration Builder interface for {@code ResourceLoader}, with the options added after {@code ResourceLoaderInstance}.
+ * <p>Returned by {@code ResourceLoader.from(..).toWithOptions(..)} and {@code ResourceLoader.to(..).fromWithOptions(..)}.
+ * Kept separate, so that the existing implementations of {@code ResourceLoaderInstance} are not broken by the new
+ * methods, and {@code to(..)} and {@code from(..)} keep returning {@code ResourceLoaderInstance} for the code compiled
+ * against the earlier versions.
+ */
+public interface ResourceLoaderOptions extends ResourceLoaderInstance {
+    // dlopen() flags, Linux values, translated on other platforms
+    int RTLD_LAZY = 0x1;
+    int RTLD_NOW = 0x2;
+    int RTLD_LOCAL = 0;
+    int RTLD_GLOBAL = 0x100;
+    int RTLD_NODELETE = 0x1000;
+
+    /**
+     * Receives the results of the background content verification, see {@code verifyContentInBackground()}.
+     */
+    interface VerificationListener {
+        /**
+         * Called from the background verification thread, if a deployed file doesn't match its expected checksum.
+         * @param path Deployed file path
+         * @param expectedChecksum Expected CRC32
+         * @param actualChecksum Actual CRC32, -1 if the file can't be read
+         */
+        void onMismatch(String path, long expectedChecksum, long actualChecksum);
+    }
+
+    /**
+     * Loaded resource set, with the operations added after {@code ResourceLoaderDone}.
+     */
+    interface Loaded extends ResourceLoaderDone {
+        @Override
+        Loaded unloadDlls();
+
+        /**
+         * Get the symbols of the loaded Dynamic Libraries, for use with the Foreign Function &amp; Memory API.
+         * @return {@code java.lang.foreign.SymbolLookup} over the libraries loaded with {@code dlopenFlags()},
+         * in load order. Null if there are none (Java before 22 or {@code dlopenFlags()} not used).
+         */
+        Object symbolLookup();
+    }
+
+    @Override
+    ResourceLoaderOptions alwaysOverwrite(boolean alwaysOverwrite);
+
+    @Override
+    ResourceLoaderOptions reusePartiallyDeployed(boolean reuseEnabled);
+
+    @Override
+    ResourceLoaderOptions shouldLoadDlls(boolean shouldLoadDlls);
+
+    @Override
+    ResourceLoaderOptions tryRandomFallbackSubDirectory(boolean enable);
+
+    @Override
+    ResourceLoaderOptions addDllSuffix(String libraryNameSuffix);
+
+    @Override
+    ResourceLoaderOptions retryTimeout(int millis);
+
+    /**
+     * Prefetch the loaded dynamic libraries into the page cache in the background, false by default.
+     * <p>Reduces the latency of the first calls into big libraries, whose pages would otherwise be read from the disk
+     * on first access. Libraries tagged with {@code [prefetch@critical]} are always prefetched, synchronously before
+     * loading, regardless of this option.
+     *
+     * @param enable Prefetch libraries in the background. False by default.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions prefetchLibraries(boolean enable);
+
+    /**
+     * Load the dynamic libraries with {@code dlopen()} and these flags, instead of {@code System.load()}.
+     * <p>Only supported on Java 22+, through the Foreign Function &amp; Memory API. Needs
+     * {@code --enable-native-access}. Libraries loaded this way can be unloaded with {@code unloadDlls()} and their
+     * symbols looked up with {@code symbolLookup()}, but they are not registered with the JVM: JNI methods
+     * are not linked. On older Java versions the flags are ignored.
+     * <p>On Windows only the fact that the flags are specified matters, the libraries are loaded with
+     * {@code LoadLibraryW()}.
+     *
+     * @param flags Combination of {@code RTLD_*} constants, e.g. {@code RTLD_LAZY | RTLD_LOCAL}.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions dlopenFlags(int flags);
+
+    /**
+     * Verify the content of the already deployed files before loading them, false by default.
+     * <p>CRC32 of every existing file is compared with its checksum, known from the resource index, the listing cache
+     * or an earlier verification. Mismatching files are redeployed. Files, whose checksum is not known yet, are only
+     * verified by length.
+     *
+     * @param enable Verify the content of the deployed files. False by default.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions verifyContent(boolean enable);
+
+    /**
+     * Verify the content of the deployed files after loading them, in the background. Implies {@code verifyContent(true)}.
+     * <p>Files verified earlier and not modified since (same length and modification time) are loaded immediately
+     * and verified in a background thread, other files are verified before loading. If a mismatch is found,
+     * the file is no longer considered verified and the listener is called: the next {@code load()}, in this or
+     * another process (including one called by the listener), verifies it before loading and redeploys it.
+     * The file is not replaced while it is in use by another process.
+     *
+     * @param listener Called from the background thread for every mismatching file.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions verifyContentInBackground(VerificationListener listener);
+
+    /**
+     * Deploy together with other processes, false by default.
+     * <p>Instead of waiting for the whole resource set to be deployed by a single process, every process claims
+     * and deploys the files not yet claimed by others, and picks up the files deployed by others through
+     * a memory-mapped state table (.rlstate) in the deployment directory.
+     * <p>Useful when many processes are started at once against the same deployment directory on the same host.
+     *
+     * @param enable Enable cooperative deployment. False by default.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions cooperativeDeployment(boolean enable);
+
+    /**
+     * Set bounds for the automatic retry timeout, 8 sec .. 10 min by default.
+     * <p>Has no effect, if the retry timeout is set explicitly with {@code retryTimeout}.
+     * Lock file update period is derived from the lower bound, concurrent processes should use the same one.
+     * @param minMillis Lower bound, in milliseconds.
+     * @param maxMillis Upper bound, in milliseconds.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions retryTimeoutBounds(int minMillis, int maxMillis);
+
+    /**
+     * Set overall deadline for {@code load()}, none by default.
+     * <p>Unlike the retry timeout, covers the whole {@code load()} call: resource listing, lock waits, deployment
+     * and loading of the dynamic libraries, for all the deployment paths tried. Lock waits are not extended
+     * beyond the deadline, even if another process keeps updating the lock file.
+     * <p>When the deadline is exceeded, {@code load()} throws {@link DeadlineExceededException} with the time
+     * spent in each phase. Individual file reads and writes are not interrupted, the deadline is checked between them.
+     * @param timeout Deadline, counted from the start of {@code load()}.
+     * @param unit Time unit of {@code timeout}.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions deadline(long timeout, TimeUnit unit);
+
+    /**
+     * Evict the old deployment generations, disabled by default.
+     * <p>Generations are the sibling directories of the deployment directory, e.g. the earlier versions deployed
+     * to {@code $(TEMP)/myapp/$(VERSION)}. After a successful {@code load()}, generations not used for longer than
+     * {@code maxAge} are deleted in the background, then the least recently used ones, until the total size
+     * of the generations is within {@code maxBytes}.
+     * <p>Only the directories used by {@code ResourceLoader} are considered. A generation is never deleted while
+     * it is used by a running process, or is being deployed.
+     * @param maxBytes Total size limit, including the generation in use, 0 for unlimited.
+     * @param maxAge Maximum time since the last use, 0 for unlimited.
+     * @param unit Time unit of {@code maxAge}.
+     * @return This {@code ResourceLoaderOptions}
+     */
+    ResourceLoaderOptions evictOldGenerations(long maxBytes, long maxAge, TimeUnit unit);
+
+    /**
+     * Load the resource set asynchronously, using the specified executor.
+     * <p>Lets the application start the deployment early and overlap it with the rest of its initialization.
+     * Same as {@code load()} otherwise, exceptions thrown by {@code load()} are reported by {@code Future.get()}.
+     * Waits for the other processes without holding monitors, so it may be run on virtual threads.
+     * Do not modify the configuration until the returned {@code Future} is done.
+     * @param executor Executor to run {@code load()} on.
+     * @return {@code Future}, completed with this instance as {@code ResourceLoaderDone}, if the deployment was a success.
+     */
+    Future<ResourceLoaderDone> loadAsync(Executor executor);
+
+    /**
+     * Load the resource set.
+     * Call this method after finishing with the configuration.
+     * @return This instance as {@code ResourceLoaderOptions.Loaded}, if the deployment was a success.
+     */
+    @Override
+    Loaded load();
+}
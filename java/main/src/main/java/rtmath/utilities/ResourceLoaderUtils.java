@@ -12,6 +12,7 @@ import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,6 +28,7 @@ final class ResourceLoaderUtils {
     private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSSSSS");
 
     private static ArrayList<PrintStream> _logSinks = new ArrayList<>();
+    private static final ReentrantLock _logLock = new ReentrantLock(); // Not a monitor, sinks may block
     private static StringBuilder _logSb = new StringBuilder();
 
     static String fmt(String fmt, Object... args) {
@@ -42,7 +44,8 @@ final class ResourceLoaderUtils {
     }
 
     private static void logLog(String v) {
-        synchronized (_logSinks) {
+        _logLock.lock();
+        try {
             StringBuilder sb =
             new StringBuilder().append(ManagementFactory.getRuntimeMXBean().getName())
                 .append(' ')
@@ -55,6 +58,8 @@ final class ResourceLoaderUtils {
                 for (PrintStream w : _logSinks)
                     w.print(sb.toString());
             }
+        } finally {
+            _logLock.unlock();
         }
     }
 
@@ -84,28 +89,35 @@ final class ResourceLoaderUtils {
         log0(fmt, args);
     }
 
+    // NOTE: Fixed-arity overloads check log level before allocating varargs array
     static void log(int loglevel, String fmt, Object arg0) {
-        log0(loglevel, fmt, arg0);
+        if (loglevel >= LogLevel)
+            log0(loglevel, fmt, arg0);
     }
 
     static void log(int loglevel, String fmt, Object arg0, Object arg1) {
-        log0(loglevel, fmt, arg0, arg1);
+        if (loglevel >= LogLevel)
+            log0(loglevel, fmt, arg0, arg1);
     }
 
     static void log(int loglevel, String fmt, Object arg0, Object arg1, Object arg2) {
-        log0(loglevel, fmt, arg0, arg1, arg2);
+        if (loglevel >= LogLevel)
+            log0(loglevel, fmt, arg0, arg1, arg2);
     }
 
     static void log(String fmt, Object arg0) {
-        log0(fmt, arg0);
+        if (DBG >= LogLevel)
+            log0(fmt, arg0);
     }
 
     static void log(String fmt, Object arg0, Object arg1) {
-        log0(fmt, arg0, arg1);
+        if (DBG >= LogLevel)
+            log0(fmt, arg0, arg1);
     }
 
     static void log(String fmt, Object arg0, Object arg1, Object arg2) {
-        log0(fmt, arg0, arg1, arg2);
+        if (DBG >= LogLevel)
+            log0(fmt, arg0, arg1, arg2);
     }
 
     static void log(String fmt) {
@@ -116,8 +128,11 @@ final class ResourceLoaderUtils {
         if (null == to)
             to = System.out;
 
-        synchronized (_logSinks) {
+        _logLock.lock();
+        try {
             _logSinks.add(to);
+        } finally {
+            _logLock.unlock();
         }
     }
 
@@ -279,11 +294,11 @@ final class ResourceLoaderUtils {
             return template.replace("$(" + key + ')', value);
         }
 
-        private static boolean containsKey(String template, String key) {
+        static boolean containsKey(String template, String key) {
             return template.indexOf("$(" + key + ')') >= 0;
         }
 
-        private static boolean containsKey(String template, String... keys) {
+        static boolean containsKey(String template, String... keys) {
 
             for (String key : keys)
                 if (containsKey(template, key))
@@ -305,9 +320,21 @@ final class ResourceLoaderUtils {
         }
     }
 
+    private static final Pattern TAG_PATTERN = Pattern.compile("\\[([^@\\]]*)@([^@\\]]*)\\]");
+
+    /**
+     * Quick check for possible presence of tags. Never returns false if tags are present.
+     */
+    static boolean hasTags(String str) {
+        return str.indexOf('@') >= 0;
+    }
+
     static String getTags(String str, Map<String, String> tags) {
-        Pattern p = Pattern.compile("\\[([^@\\]]*)@([^@\\]]*)\\]");
-        Matcher m = p.matcher(str);
+
+        if (!hasTags(str))
+            return str;
+
+        Matcher m = TAG_PATTERN.matcher(str);
 
         if (null != tags) {
             while (m.find()) {
@@ -0,0 +1,163 @@
+package rtmath.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Memory-mapped deployment state table, shared by the cooperating processes deploying into the same directory.
+ * <p>Holds one slot per deployed file: filename hash, state (absent/writing/ready), length and CRC32 of the data.
+ * Lets the processes see which files are already deployed by others without touching the files themselves.
+ * <p>Slots are grouped by lock stripe (see {@link FileJanitor#lockStripe}), and a slot group is only modified by
+ * the owner of the corresponding stripe lock, so no atomic operations are necessary.
+ * The table is only a hint: readers still open and verify the files, a crashed writer leaves its slot in
+ * the "writing" state until the next owner of the stripe overwrites it.
+ * <p>Only coherent between the processes running on the same host.
+ */
+final class StateTable implements Closeable {
+    static final String FILENAME = ".rlstate";
+
+    static final int ABSENT = 0;
+    static final int WRITING = 1;
+    static final int READY = 2;
+
+    private static final int MAGIC = 0x524C5354; // "RLST"
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOTS_PER_STRIPE = 8;
+    private static final int NUM_SLOTS = FileJanitor.LOCK_STRIPES * SLOTS_PER_STRIPE;
+    private static final int SIZE = HEADER_SIZE + NUM_SLOTS * SLOT_SIZE;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Slot layout
+    private static final int NAME_HASH = 0;   // long, 0 for an empty slot
+    private static final int STATE = 8;       // int
+    private static final int CHECKSUM = 12;   // int, CRC32
+    private static final int LENGTH = 16;     // long, -1 if unknown
+    private static final int UPDATE_TIME = 24; // long
+
+    private MappedByteBuffer _buffer;
+
+    private StateTable(MappedByteBuffer buffer) {
+        _buffer = buffer;
+    }
+
+    /**
+     * Open or create the state table in the deployment directory.
+     * @return state table, or null if it can't be mapped or has an unknown format
+     */
+    static StateTable open(Path dir) {
+        Path path = dir.resolve(FILENAME);
+
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            // Extends the new file with zeroes, the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            int magic = buffer.getInt(0);
+            if (0 == magic) {
+                buffer.putInt(0, MAGIC);
+            } else if (MAGIC != magic) {
+                log("Unknown state table format: %s", path);
+                return null;
+            }
+
+            return new StateTable(buffer);
+        } catch (IOException|UnsupportedOperationException e) {
+            log("Unable to map state table %s: %s", path, e);
+            return null;
+        }
+    }
+
+    // FNV-1a, never 0
+    private static long nameHash(String filename) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : filename.getBytes(UTF8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+
+        return 0 != hash ? hash : 1;
+    }
+
+    /**
+     * Find the slot of the file
+     * @param isAdding return the first empty slot, if the file is not found
+     * @return slot offset, or -1 if not found and there is no space
+     */
+    private int findSlot(String filename, boolean isAdding) {
+        long hash = nameHash(filename);
+        int first = HEADER_SIZE + FileJanitor.lockStripe(filename) * SLOTS_PER_STRIPE * SLOT_SIZE;
+        int empty = -1;
+
+        for (int i = 0; i < SLOTS_PER_STRIPE; ++i) {
+            int slot = first + i * SLOT_SIZE;
+            long slotHash = _buffer.getLong(slot + NAME_HASH);
+            if (hash == slotHash)
+                return slot;
+
+            if (0 == slotHash && empty < 0)
+                empty = slot;
+        }
+
+        return isAdding ? empty : -1;
+    }
+
+    /**
+     * Get the state of the file. Does not perform any system calls.
+     */
+    int state(String filename) {
+        int slot = findSlot(filename, false);
+        return slot < 0 ? ABSENT : _buffer.getInt(slot + STATE);
+    }
+
+    /**
+     * Get the length of the file, if its state is READY.
+     * @return length or -1 if not known
+     */
+    long length(String filename) {
+        int slot = findSlot(filename, false);
+        return slot < 0 || READY != _buffer.getInt(slot + STATE) ? -1 : _buffer.getLong(slot + LENGTH);
+    }
+
+    /**
+     * Get the checksum of the file, if its state is READY.
+     * @return CRC32 or -1 if not known
+     */
+    long checksum(String filename) {
+        int slot = findSlot(filename, false);
+        return slot < 0 || READY != _buffer.getInt(slot + STATE) ? -1 : _buffer.getInt(slot + CHECKSUM) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Set the state of the file. Caller must hold the lock stripe of the file.
+     * <p>State is written last, so that a reader never sees READY state with stale length or checksum.
+     */
+    void set(String filename, int state, long length, long checksum) {
+        int slot = findSlot(filename, true);
+        if (slot < 0) {
+            log("State table has no space for: %s", filename);
+            return;
+        }
+
+        _buffer.putInt(slot + STATE, ABSENT);
+        _buffer.putLong(slot + NAME_HASH, nameHash(filename));
+        _buffer.putInt(slot + CHECKSUM, (int)checksum);
+        _buffer.putLong(slot + LENGTH, length);
+        _buffer.putLong(slot + UPDATE_TIME, System.currentTimeMillis());
+        _buffer.putInt(slot + STATE, state);
+    }
+
+    /**
+     * Release the mapping. Java 7 has no way to unmap explicitly, it is unmapped when garbage collected.
+     */
+    @Override
+    public void close() {
+        _buffer = null;
+    }
+}
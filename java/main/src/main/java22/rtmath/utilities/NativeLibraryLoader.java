@@ -0,0 +1,174 @@
+package rtmath.utilities;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static rtmath.utilities.ResourceLoaderUtils.OS;
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+import static rtmath.utilities.ResourceLoaderUtils.log;
+
+/**
+ * Loads dynamic libraries for {@code ResourceLoader}, Java 22+ version (multi-release JAR layer).
+ * <p>If dlopen flags are specified, loads the libraries with {@code dlopen}/{@code LoadLibraryW} through the Foreign
+ * Function &amp; Memory API, so that they can be unloaded and their symbols looked up by FFM users. Such libraries
+ * are not registered with the JVM: their JNI methods are not linked. Otherwise uses {@code System.load()},
+ * like the base version.
+ * <p>Calling native functions is a restricted operation: run with {@code --enable-native-access=ALL-UNNAMED}
+ * (or the module name) to avoid the warning.
+ */
+final class NativeLibraryLoader {
+    // ResourceLoaderOptions.RTLD_* flags use Linux values
+    private static final int RTLD_LAZY = 0x1;
+    private static final int RTLD_NOW = 0x2;
+    private static final int RTLD_GLOBAL = 0x100;
+    private static final int RTLD_NODELETE = 0x1000;
+
+    private static final class Handle {
+        final MemorySegment address;
+        final Path path;
+
+        Handle(MemorySegment address, Path path) {
+            this.address = address;
+            this.path = path;
+        }
+    }
+
+    // Native functions, resolved on first use
+    private static final class Native {
+        static final Linker LINKER = Linker.nativeLinker();
+        static final boolean IS_WINDOWS = OS.isWindows();
+        static final SymbolLookup LOOKUP = IS_WINDOWS
+            ? SymbolLookup.libraryLookup("kernel32", Arena.global())
+            : LINKER.defaultLookup();
+
+        static final MethodHandle OPEN = IS_WINDOWS
+            ? handle("LoadLibraryW", FunctionDescriptor.of(ADDRESS, ADDRESS))
+            : handle("dlopen", FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_INT));
+        static final MethodHandle CLOSE = handle(IS_WINDOWS ? "FreeLibrary" : "dlclose",
+            FunctionDescriptor.of(JAVA_INT, ADDRESS));
+        static final MethodHandle SYM = handle(IS_WINDOWS ? "GetProcAddress" : "dlsym",
+            FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+        // GetLastError() is not reliable without capturing the call state, not used
+        static final MethodHandle ERROR = IS_WINDOWS ? null : handle("dlerror", FunctionDescriptor.of(ADDRESS));
+
+        private static MethodHandle handle(String name, FunctionDescriptor descriptor) {
+            return LINKER.downcallHandle(LOOKUP.find(name).orElseThrow(
+                () -> new UnsatisfiedLinkError("Native function not found: " + name)), descriptor);
+        }
+    }
+
+    private NativeLibraryLoader() {}
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    // OSX uses different values for the same flags
+    private static int nativeFlags(int flags) {
+        if (!OS.isOsx())
+            return flags;
+
+        return (flags & (RTLD_LAZY | RTLD_NOW))
+            | (0 != (flags & RTLD_GLOBAL) ? 0x8 : 0x4)
+            | (0 != (flags & RTLD_NODELETE) ? 0x80 : 0);
+    }
+
+    private static String lastError() throws Throwable {
+        if (Native.IS_WINDOWS)
+            return "LoadLibraryW/FreeLibrary failed";
+
+        MemorySegment error = (MemorySegment)Native.ERROR.invokeExact();
+        return MemorySegment.NULL.equals(error) ? "unknown error" : error.reinterpret(Long.MAX_VALUE).getString(0);
+    }
+
+    /**
+     * Load the library.
+     * @param path library path
+     * @param dlopenFlags {@code ResourceLoaderOptions.RTLD_*} flags, -1 to use {@code System.load()}
+     * @return handle to unload the library with, null if it can't be unloaded
+     * @throws UnsatisfiedLinkError if the library or its dependencies can't be loaded
+     */
+    static Object load(Path path, int dlopenFlags) {
+        if (dlopenFlags < 0) {
+            System.load(path.toString());
+            return null;
+        }
+
+        MemorySegment address;
+        try (Arena arena = Arena.ofConfined()) {
+            if (Native.IS_WINDOWS) {
+                address = (MemorySegment)Native.OPEN.invokeExact(
+                    arena.allocateFrom(path.toString(), StandardCharsets.UTF_16LE));
+            } else {
+                // Clear the pending error, if any
+                MemorySegment unused = (MemorySegment)Native.ERROR.invokeExact();
+                address = (MemorySegment)Native.OPEN.invokeExact(arena.allocateFrom(path.toString()),
+                    nativeFlags(dlopenFlags));
+            }
+
+            if (MemorySegment.NULL.equals(address))
+                throw new UnsatisfiedLinkError(fmt("Can't load library: %s (%s)", path, lastError()));
+        } catch (UnsatisfiedLinkError e) {
+            throw e;
+        } catch (Throwable e) {
+            throw (UnsatisfiedLinkError)new UnsatisfiedLinkError(fmt("Can't load library: %s", path)).initCause(e);
+        }
+
+        log("Loaded %s with flags %s: %s", path, dlopenFlags, address);
+        return new Handle(address, path);
+    }
+
+    /**
+     * Unload the library (decrement its reference count).
+     * @param handle handle returned by {@code load()}, not null
+     */
+    static void unload(Object handle) {
+        Handle h = (Handle)handle;
+        try {
+            int result = (int)Native.CLOSE.invokeExact(h.address);
+            // FreeLibrary returns non-zero on success, dlclose returns 0
+            if (Native.IS_WINDOWS ? 0 == result : 0 != result)
+                log("Unable to unload %s: %s", h.path, lastError());
+        } catch (Throwable e) {
+            log("Unable to unload %s: %s", h.path, e);
+        }
+    }
+
+    /**
+     * @param handles handles of the loaded libraries, in the search order
+     * @return {@code java.lang.foreign.SymbolLookup} over the libraries, null if not supported
+     */
+    static Object symbolLookup(List<Object> handles) {
+        final List<Handle> libraries = new ArrayList<>();
+        for (Object handle : handles) {
+            if (null != handle)
+                libraries.add((Handle)handle);
+        }
+
+        return (SymbolLookup)name -> {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment cName = arena.allocateFrom(name);
+                for (Handle h : libraries) {
+                    MemorySegment symbol = (MemorySegment)Native.SYM.invokeExact(h.address, cName);
+                    if (!MemorySegment.NULL.equals(symbol))
+                        return Optional.of(symbol);
+                }
+            } catch (Throwable e) {
+                log("Symbol lookup failed: %s %s", name, e);
+            }
+
+            return Optional.empty();
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestContentVerifier {
+
+    /**
+     * Test that the verification record keeps the expected checksum of the invalidated files
+     * @throws IOException
+     */
+    @Test
+    public void testContentVerifierRecord() throws IOException {
+
+        Path path = testDir("testContentVerifierRecord");
+        Files.deleteIfExists(path.resolve(ContentVerifier.FILENAME));
+        Files.write(path.resolve("a.txt"), "hello".getBytes());
+
+        long checksum, mappedChecksum;
+        try (FileChannel fc = FileChannel.open(path.resolve("a.txt"), StandardOpenOption.READ)) {
+            checksum = ContentVerifier.checksum(fc);
+            mappedChecksum = ContentVerifier.checksum(LibraryPrefetcher.map(fc));
+        }
+
+        Assert.assertEquals(0x3610a686L, checksum);
+        Assert.assertEquals(checksum, mappedChecksum);
+        Map<String, ContentVerifier.Entry> verified = new HashMap<>();
+        verified.put("a.txt", ContentVerifier.entryOf(path.resolve("a.txt"), checksum));
+        ContentVerifier.update(path, verified, Arrays.<String>asList());
+        Assert.assertTrue(verified.get("a.txt").matches(ContentVerifier.read(path).get("a.txt")));
+
+        ContentVerifier.update(path, new HashMap<String, ContentVerifier.Entry>(), Arrays.asList("a.txt", "b.txt"));
+        Map<String, ContentVerifier.Entry> entries = ContentVerifier.read(path);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(-1, entries.get("a.txt").lastModified);
+        Assert.assertEquals(checksum, entries.get("a.txt").checksum);
+        Assert.assertEquals(5, entries.get("a.txt").length);
+    }
+
+
+    /**
+     * Test that a mismatch found in the background is reported after the deployment is forgotten, so that
+     * the listener loading the resource set again gets the file verified and redeployed
+     * @throws Exception
+     */
+    @Test
+    public void testBackgroundMismatchRedeploy() throws Exception {
+
+        Path src = testDir("testBackgroundMismatchRedeploy");
+        writeFiles(src.resolve("res"), "a.txt", "hello");
+        final Path dst = Files.createTempDirectory(src, "out");
+        ResourceLoader.from(anchorClass(src), "/res/*").toWithOptions(dst.toString()).verifyContent(true).load();
+
+        // Corrupted in place: same length and modification time, so that the verification is deferred
+        Path file = dst.resolve("a.txt");
+        FileTime lastModified = Files.getLastModifiedTime(file);
+        Files.write(file, "jello".getBytes());
+        Files.setLastModifiedTime(file, lastModified);
+
+        final Class<?> anchor = anchorClass(src);
+        final List<String> mismatched = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch redeployed = new CountDownLatch(1);
+        ResourceLoaderOptions.VerificationListener listener = new ResourceLoaderOptions.VerificationListener() {
+            @Override
+            public void onMismatch(String path, long expectedChecksum, long actualChecksum) {
+                mismatched.add(path);
+                try {
+                    ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString()).verifyContentInBackground(this).load();
+                } catch (Throwable e) {
+                    error.set(e);
+                } finally {
+                    redeployed.countDown();
+                }
+            }
+        };
+
+        ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString()).verifyContentInBackground(listener).load();
+        Assert.assertTrue(redeployed.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(error.get());
+        Assert.assertEquals(Collections.singletonList(file.toString()), mismatched);
+        Assert.assertEquals("hello", new String(Files.readAllBytes(file)));
+    }
+}
@@ -0,0 +1,68 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestCpuFeatures {
+
+    /**
+     * Test x86-64 feature level detection from /proc/cpuinfo flags
+     * @throws IOException
+     */
+    @Test
+    public void testCpuLevels() throws IOException {
+
+        String v2 = "fpu sse sse2 cx16 lahf_lm popcnt pni ssse3 sse4_1 sse4_2";
+        String v3 = v2 + " avx avx2 bmi1 bmi2 f16c fma abm movbe xsave";
+        Assert.assertEquals(1, CpuFeatures.x86_64Level(new HashSet<>(Arrays.asList("fpu", "sse", "sse2"))));
+        Assert.assertEquals(2, CpuFeatures.x86_64Level(new HashSet<>(Arrays.asList(v2.split(" ")))));
+        Assert.assertEquals(3, CpuFeatures.x86_64Level(new HashSet<>(Arrays.asList(v3.split(" ")))));
+        Assert.assertEquals(3, CpuFeatures.x86_64Level(new HashSet<>(Arrays.asList((v3 + " avx512f").split(" ")))));
+        Assert.assertEquals(4, CpuFeatures.x86_64Level(new HashSet<>(Arrays.asList(
+            (v3 + " avx512f avx512bw avx512cd avx512dq avx512vl").split(" ")))));
+
+        String cpuinfo = "processor\t: 0\nvendor_id\t: GenuineIntel\nflags\t\t: " + v2 + "\nbugs\t\t: spectre_v1\n";
+        Assert.assertEquals(2, CpuFeatures.x86_64Level(CpuFeatures.readCpuinfoFlags(
+            new BufferedReader(new StringReader(cpuinfo)))));
+
+        List<String> levels = CpuFeatures.levels();
+        Assert.assertFalse(levels.isEmpty());
+        if (CpuFeatures.arch().equals(CpuFeatures.X86_64))
+            Assert.assertEquals("x86-64-v1", levels.get(levels.size() - 1));
+    }
+
+    /**
+     * Test that the most specific supported $(CPU_LEVEL) variant of the resources is chosen, and that the baseline
+     * is used if the resource path has no variants
+     * @throws Exception
+     */
+    @Test
+    public void testSelectCpuLevel() throws Exception {
+
+        Path src = testDir("testSelectCpuLevel");
+        for (String level : Arrays.asList("x86-64-v3", "x86-64-v1")) {
+            Files.createDirectories(src.resolve("libs").resolve(level));
+            Files.write(src.resolve("libs").resolve(level).resolve("a.txt"), level.getBytes());
+        }
+
+        Class<?> anchor = anchorClass(src);
+        String expected = CpuFeatures.levels().contains("x86-64-v3") ? "x86-64-v3" : CpuFeatures.baseline();
+        String path = ResourceLoader.from(anchor, "/libs/$(CPU_LEVEL)/*").getActualResourcePath();
+        Assert.assertTrue(path, path.startsWith("/libs/" + expected + "/"));
+
+        // Deployment path only
+        ResourceLoaderDone rl = ResourceLoader.from(anchor, "/libs/x86-64-v1/*")
+            .to(src.resolve("out").toString() + "/$(CPU_LEVEL)").load();
+        Assert.assertEquals(src.resolve("out").resolve(CpuFeatures.baseline()).toString(), rl.getActualDeploymentPath());
+    }
+}
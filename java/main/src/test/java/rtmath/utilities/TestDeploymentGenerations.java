@@ -0,0 +1,77 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentGenerations {
+
+    /**
+     * Test that old deployment generations are evicted by age and size, unless in use
+     * @throws IOException
+     */
+    @Test
+    public void testEvictGenerations() throws IOException {
+
+        Path root = testDir("testEvictGenerations");
+        long now = System.currentTimeMillis();
+        String[] names = {"1.0", "1.1", "1.2", "1.3", "unrelated"};
+        for (int i = 0; i < names.length; ++i) {
+            Path dir = root.resolve(names[i]);
+            Files.createDirectories(dir.resolve("sub"));
+            Files.write(dir.resolve("sub").resolve("a.bin"), new byte[1000]);
+            if (names[i].equals("unrelated"))
+                continue;
+
+            Path leasePath = dir.resolve(DeploymentLeases.FILENAME);
+            Files.write(leasePath, new byte[0]);
+            Files.setLastModifiedTime(leasePath, FileTime.fromMillis(now - (4 - i) * 86400000L));
+        }
+
+        // 1.2 is in use, 1.3 is current: 1.0 expired, 1.1 over the size limit
+        DeploymentLeases.acquire(root.resolve("1.2"), 0);
+        List<Path> evicted = DeploymentGenerations.evict(root, root.resolve("1.3"), 1500, 3 * 86400000L + 3600000);
+        Assert.assertEquals(Arrays.asList(root.resolve("1.0"), root.resolve("1.1")), evicted);
+        Assert.assertFalse(Files.exists(root.resolve("1.0")));
+        Assert.assertFalse(Files.exists(root.resolve("1.1")));
+        Assert.assertTrue(Files.exists(root.resolve("1.2").resolve("sub").resolve("a.bin")));
+        Assert.assertTrue(Files.exists(root.resolve("unrelated").resolve("sub").resolve("a.bin")));
+
+        DeploymentLeases.releaseAll();
+        Assert.assertEquals(Arrays.asList(root.resolve("1.2")), DeploymentGenerations.evict(root, root.resolve("1.3"), 1500, 0));
+    }
+
+    /**
+     * Test that a generation is not evicted while a nested deployment directory (e.g. a $(RANDOM) fallback)
+     * is leased by its own user
+     * @throws IOException
+     */
+    @Test
+    public void testEvictNestedLeasedGeneration() throws IOException {
+
+        Path root = testDir("testEvictNestedLeasedGeneration");
+        Path old = root.resolve("1.0"), nested = old.resolve("ab12cd");
+        Files.createDirectories(nested);
+        Files.write(old.resolve(DeploymentLeases.FILENAME), new byte[0]);
+        Files.setLastModifiedTime(old.resolve(DeploymentLeases.FILENAME), FileTime.fromMillis(0));
+        Files.write(nested.resolve("lib.so"), new byte[1000]);
+
+        DeploymentLeases.acquire(nested, 0);
+        try {
+            Assert.assertEquals(0, DeploymentGenerations.evict(root, root.resolve("1.1"), 0, 86400000L).size());
+            Assert.assertTrue(Files.exists(nested.resolve("lib.so")));
+        } finally {
+            DeploymentLeases.releaseAll();
+        }
+
+        Assert.assertEquals(Arrays.asList(old), DeploymentGenerations.evict(root, root.resolve("1.1"), 0, 86400000L));
+        Assert.assertFalse(Files.exists(old));
+    }
+}
@@ -0,0 +1,171 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static rtmath.utilities.FileJanitor.*;
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentLeases {
+
+    /**
+     * Child process, that leases the files of the directory until its input is closed
+     */
+    public static class LeaseHolder {
+        public static void main(String[] args) throws IOException {
+            DeploymentLeases.addFiles(Paths.get(args[0]), Arrays.asList(args).subList(1, args.length), 5000);
+            System.out.println("leased");
+            while (System.in.read() >= 0) {}
+        }
+    }
+
+    private static Process startHolder(Class<?> mainClass, String... args) throws IOException {
+        Process process = startProcess(mainClass, args);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = reader.readLine();
+        Assert.assertTrue(line, "leased".equals(line) || "locked".equals(line));
+        return process;
+    }
+
+    private static void stop(Process process) throws Exception {
+        process.getOutputStream().close();
+        process.waitFor();
+    }
+
+    /**
+     * Test that the files leased by another process are protected from overwriting and the leased directory
+     * from deletion, and that the leases of this process don't count
+     * @throws Exception
+     */
+    @Test
+    public void testLeases() throws Exception {
+
+        Path path = writeFiles(testDir("testLeases").resolve("dir"), "a.so", "a", "b.txt", "b");
+        DeploymentLeases.addFiles(path, Arrays.asList("b.txt"), 0);
+        Process process = startHolder(LeaseHolder.class, path.toString(), "a.so");
+        try {
+            DeploymentLeases.LeasedFiles leased = new DeploymentLeases.LeasedFiles(path);
+            Assert.assertTrue(leased.contains("a.so"));
+            Assert.assertFalse(leased.contains("b.txt"));
+            Assert.assertFalse(tryDeleteDirectory(path));
+            Assert.assertTrue(Files.exists(path.resolve("b.txt")));
+        } finally {
+            stop(process);
+        }
+
+        Assert.assertFalse(new DeploymentLeases.LeasedFiles(path).contains("a.so"));
+        Assert.assertFalse(tryDeleteDirectory(path));
+
+        DeploymentLeases.releaseAll();
+        Assert.assertTrue(tryDeleteDirectory(path));
+        Assert.assertFalse(Files.exists(path));
+    }
+
+    /**
+     * Test that the records are read again only after a process leased files
+     * @throws Exception
+     */
+    @Test
+    public void testLeasedFilesVersion() throws Exception {
+
+        Path path = writeFiles(testDir("testLeasedFilesVersion").resolve("dir"), "a.so", "a");
+        DeploymentLeases.acquire(path, 0);
+        try {
+            DeploymentLeases.LeasedFiles leased = new DeploymentLeases.LeasedFiles(path);
+            Assert.assertFalse(leased.contains("a.so"));
+
+            Process process = startHolder(LeaseHolder.class, path.toString(), "a.so");
+            try {
+                Assert.assertTrue(leased.contains("a.so"));
+            } finally {
+                stop(process);
+            }
+
+            // Dead, but still treated as live until the next deployment
+            Assert.assertTrue(leased.contains("a.so"));
+            Assert.assertFalse(new DeploymentLeases.LeasedFiles(path).contains("a.so"));
+        } finally {
+            DeploymentLeases.releaseAll();
+        }
+    }
+
+    /**
+     * Test that a directory acquired for verification is released, unless its files were leased
+     * @throws IOException
+     */
+    @Test
+    public void testRelease() throws IOException {
+
+        Path path = writeFiles(testDir("testRelease").resolve("dir"), "a.so", "a");
+        DeploymentLeases.acquire(path, 0);
+        DeploymentLeases.acquire(path, 0);
+        DeploymentLeases.release(path);
+        Assert.assertFalse(tryDeleteDirectory(path));
+
+        DeploymentLeases.release(path);
+        Assert.assertTrue(tryDeleteDirectory(path));
+
+        writeFiles(path, "a.so", "a");
+        DeploymentLeases.acquire(path, 0);
+        DeploymentLeases.addFiles(path, Collections.singletonList("a.so"), 0);
+        DeploymentLeases.release(path);
+        Assert.assertFalse(tryDeleteDirectory(path));
+
+        DeploymentLeases.releaseAll();
+        Assert.assertTrue(tryDeleteDirectory(path));
+    }
+
+    /**
+     * Test that waiting for a directory being deleted by another process is limited by the timeout
+     * @throws Exception
+     */
+    @Test
+    public void testAcquireTimeout() throws Exception {
+
+        Path path = writeFiles(testDir("testAcquireTimeout").resolve("dir"), "a.so", "a");
+        Process process = startHolder(TestLoadDeadline.LockHolder.class, path.resolve(DeploymentLeases.FILENAME).toString());
+        try {
+            long t0 = System.currentTimeMillis();
+            DeploymentLeases.acquire(path, 200);
+            long elapsed = System.currentTimeMillis() - t0;
+            Assert.assertTrue(Long.toString(elapsed), elapsed >= 200 && elapsed < 5000);
+        } finally {
+            stop(process);
+        }
+
+        // Not acquired: deleted by this process without waiting
+        Assert.assertTrue(tryDeleteDirectory(path));
+    }
+
+    /**
+     * Test that a process replaces the files it leased itself, when the resource set deployed to the same directory
+     * changes
+     * @throws Exception
+     */
+    @Test
+    public void testRedeployLeasedBySelf() throws Exception {
+
+        Path src = testDir("testRedeployLeasedBySelf");
+        Path dst = Files.createTempDirectory(src, "out");
+        Class<?> anchor1 = anchorClass(writeFiles(src.resolve("v1").resolve("res"), "a.txt", "hello").getParent());
+        Class<?> anchor2 = anchorClass(writeFiles(src.resolve("v2").resolve("res"), "a.txt", "world!").getParent());
+
+        try {
+            ResourceLoader.from(anchor1, "/res/*").to(dst.toString()).load();
+            Assert.assertEquals("hello", new String(Files.readAllBytes(dst.resolve("a.txt"))));
+
+            ResourceLoader.from(anchor2, "/res/*").to(dst.toString()).load();
+            Assert.assertEquals("world!", new String(Files.readAllBytes(dst.resolve("a.txt"))));
+        } finally {
+            DeploymentLeases.releaseAll();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentRegistry {
+
+    /**
+     * Test that concurrent and repeated loads of the same resource set join the first deployment, and that
+     * the joiners neither share its resource list nor own its registry entry
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentRegistryJoin() throws Exception {
+
+        Path src = testDir("testDeploymentRegistryJoin");
+        writeFiles(src.resolve("res"), "b.txt", "b", "a[order@1].txt", "a");
+        Class<?> anchor = anchorClass(src);
+        String dst = src.resolve("out").toString();
+
+        ResourceLoader owner = (ResourceLoader)ResourceLoader.from(anchor, "/res/*").to(dst).load();
+        ResourceLoader joiner = (ResourceLoader)ResourceLoader.from(anchor, "/res/*").to(dst).load();
+        Assert.assertEquals(owner.getActualDeploymentPath(), joiner.getActualDeploymentPath());
+
+        DeploymentRegistry.Deployment deployment = DeploymentRegistry.acquire(owner.deploymentKey());
+        Assert.assertFalse(deployment.isOwner());
+        Assert.assertTrue(deployment.isResult(owner));
+        Assert.assertFalse(deployment.isResult(joiner));
+
+        // Not owned by the joiner
+        joiner.unloadDlls();
+        Assert.assertFalse(DeploymentRegistry.acquire(owner.deploymentKey()).isOwner());
+
+        owner.unloadDlls();
+        deployment = DeploymentRegistry.acquire(owner.deploymentKey());
+        Assert.assertTrue(deployment.isOwner());
+        DeploymentRegistry.fail(deployment, new RuntimeException("test"));
+
+        // Different options, different deployments
+        ResourceLoaderOptions.VerificationListener listener = new ResourceLoaderOptions.VerificationListener() {
+            @Override
+            public void onMismatch(String path, long expectedChecksum, long actualChecksum) {}
+        };
+
+        List<ResourceLoader> others = Arrays.asList(
+            (ResourceLoader)ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).cooperativeDeployment(true),
+            (ResourceLoader)ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).prefetchLibraries(true),
+            (ResourceLoader)ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).verifyContent(true),
+            (ResourceLoader)ResourceLoader.from(anchor, "/res/*").toWithOptions(dst)
+                .verifyContentInBackground(listener));
+        HashSet<DeploymentRegistry.Key> keys = new HashSet<>();
+        keys.add(owner.deploymentKey());
+        for (ResourceLoader other : others)
+            keys.add(other.deploymentKey());
+
+        Assert.assertEquals(others.size() + 1, keys.size());
+
+        // Retry timeouts and the deadline don't change the deployment
+        Assert.assertEquals(owner.deploymentKey(), ((ResourceLoader)ResourceLoader.from(anchor, "/res/*")
+            .toWithOptions(dst).deadline(1, TimeUnit.MINUTES)).deploymentKey());
+
+        // Different class loader, different deployment
+        deployment = DeploymentRegistry.acquire(new DeploymentRegistry.Key(anchorClass(src).getClassLoader(),
+            owner.deploymentKey().toString()));
+        Assert.assertTrue(deployment.isOwner());
+        DeploymentRegistry.fail(deployment, new RuntimeException("test"));
+    }
+
+    /**
+     * Test that the threads joining a failed deployment get the exception thrown by the owner, not a wrapper
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentRegistryFailure() throws Exception {
+
+        final DeploymentRegistry.Key key = new DeploymentRegistry.Key(null, "testDeploymentRegistryFailure");
+        DeploymentRegistry.Deployment deployment = DeploymentRegistry.acquire(key);
+        Assert.assertTrue(deployment.isOwner());
+
+        final Throwable[] joined = new Throwable[1];
+        Thread joiner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DeploymentRegistry.acquire(key).await(10000);
+                } catch (Throwable e) {
+                    joined[0] = e;
+                }
+            }
+        });
+
+        joiner.start();
+        Thread.sleep(100);
+        DeadlineExceededException error = new DeadlineExceededException(1, 2, LoadDeadline.LOCK_WAIT, null,
+            new HashMap<String, Long>());
+        DeploymentRegistry.fail(deployment, error);
+        joiner.join(10000);
+        Assert.assertSame(error, joined[0]);
+
+        // Errors are not wrapped either
+        deployment = DeploymentRegistry.acquire(key);
+        Assert.assertTrue(deployment.isOwner());
+        UnsatisfiedLinkError linkError = new UnsatisfiedLinkError("test");
+        DeploymentRegistry.fail(deployment, linkError);
+        try {
+            deployment.await(0);
+            Assert.fail("UnsatisfiedLinkError is expected");
+        } catch (UnsatisfiedLinkError e) {
+            Assert.assertSame(linkError, e);
+        }
+    }
+}
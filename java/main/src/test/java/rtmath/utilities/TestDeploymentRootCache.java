@@ -0,0 +1,61 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentRootCache {
+
+    /**
+     * Test that the last successful deployment paths are remembered, most recently used first, and forgotten
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentRootCache() throws Exception {
+
+        Path path = testDir("testDeploymentRootCache");
+        Path stateFile = path.resolve("state").resolve("roots");
+        Files.deleteIfExists(stateFile);
+
+        Path oldStateFile = DeploymentRootCache._stateFile;
+        DeploymentRootCache._stateFile = stateFile;
+        try {
+            Assert.assertNull(DeploymentRootCache.lookup("a"));
+            DeploymentRootCache.remember("a", path.resolve("1"));
+            DeploymentRootCache.remember("b", path.resolve("2"));
+            DeploymentRootCache.remember("a", path.resolve("3"));
+            Assert.assertEquals(path.resolve("3"), DeploymentRootCache.lookup("a"));
+            Assert.assertEquals(path.resolve("2"), DeploymentRootCache.lookup("b"));
+
+            DeploymentRootCache.forget("a");
+            DeploymentRootCache.forget("c");
+            Assert.assertNull(DeploymentRootCache.lookup("a"));
+            Assert.assertEquals(path.resolve("2"), DeploymentRootCache.lookup("b"));
+
+            // Least recently used are dropped
+            for (int i = 0; i < DeploymentRootCache.MAX_ENTRIES; ++i)
+                DeploymentRootCache.remember("key" + i, path.resolve("dir" + i));
+
+            Assert.assertNull(DeploymentRootCache.lookup("b"));
+            Assert.assertEquals(path.resolve("dir0"), DeploymentRootCache.lookup("key0"));
+
+            // Remembered after loading from one of several candidate paths
+            Path src = path.resolve("src");
+            writeFiles(src.resolve("res"), "a.txt", "hello");
+            Path dst = path.resolve("out");
+            ResourceLoader.From from = ResourceLoader.from(anchorClass(src), "/res/*");
+            String key = dst + "|" + from.getActualResourcePath();
+            ResourceLoaderDone rl = from.to(dst.toString()).tryRandomFallbackSubDirectory(true).load();
+            Assert.assertEquals(Paths.get(rl.getActualDeploymentPath()), DeploymentRootCache.lookup(key));
+
+            Files.write(stateFile, "garbage\n".getBytes());
+            Assert.assertNull(DeploymentRootCache.lookup(key));
+        } finally {
+            DeploymentRootCache._stateFile = oldStateFile;
+        }
+    }
+}
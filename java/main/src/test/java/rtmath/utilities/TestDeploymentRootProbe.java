@@ -0,0 +1,72 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static rtmath.utilities.FileJanitor.*;
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentRootProbe {
+
+    /**
+     * Test that the deployment paths are ranked by the probe results, keeping their order within a rank
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentRootProbe() throws Exception {
+
+        Path root = testDir("testDeploymentRootProbe");
+        for (String name : Arrays.asList("stalled", "deployed", "slow", "free"))
+            Files.createDirectories(root.resolve(name));
+
+        Files.write(root.resolve("file"), new byte[0]);
+
+        // Owner missed its heartbeats, but is not known to be dead
+        try (FileChannel fc = FileChannel.open(lockFilePath(root.resolve("stalled")), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE)) {
+            LockLease.write(fc, 0, 1, 0, 100, 1, System.currentTimeMillis() - 10000, 0, 0);
+        }
+
+        DeploymentRootProbe probe = new DeploymentRootProbe() {
+            @Override
+            boolean isDeployed(Path dir) {
+                if (dir.endsWith("slow")) {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {}
+                }
+
+                return dir.endsWith("deployed");
+            }
+        };
+
+        List<String> names = Arrays.asList("file", "missing/sub", "stalled", "slow", "deployed", "free");
+        List<Path> paths = new ArrayList<>();
+        for (String name : names)
+            paths.add(root.resolve(name));
+
+        Assert.assertEquals(DeploymentRootProbe.UNWRITABLE, probe.probe(root.resolve("file")));
+        Assert.assertEquals(DeploymentRootProbe.UNWRITABLE, probe.probe(root.resolve("file").resolve("sub")));
+        Assert.assertEquals(DeploymentRootProbe.WRITABLE, probe.probe(root.resolve("missing/sub")));
+        Assert.assertEquals(DeploymentRootProbe.STALLED, probe.probe(root.resolve("stalled")));
+
+        long t0 = System.currentTimeMillis();
+        List<Path> ranked = probe.rank(paths, 200);
+        Assert.assertTrue(System.currentTimeMillis() - t0 < 2000);
+
+        List<String> rankedNames = new ArrayList<>();
+        for (Path p : ranked)
+            rankedNames.add(root.relativize(p).toString().replace('\\', '/'));
+
+        Assert.assertEquals(Arrays.asList("deployed", "missing/sub", "free", "stalled", "slow", "file"), rankedNames);
+        List<Path> single = paths.subList(0, 1);
+        Assert.assertSame(single, probe.rank(single, 200));
+    }
+}
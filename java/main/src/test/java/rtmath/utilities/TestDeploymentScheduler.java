@@ -0,0 +1,99 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+public class TestDeploymentScheduler {
+
+    /**
+     * Test that a critical writer waiting for the slot is served before a background writer that waited longer
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentSchedulerPriority() throws Exception {
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        DeploymentScheduler.setLimits(0, 1);
+        try {
+            Assert.assertTrue(DeploymentScheduler.acquireWriter(DeploymentScheduler.BACKGROUND, 0));
+            Assert.assertFalse(DeploymentScheduler.acquireWriter(DeploymentScheduler.CRITICAL, 50));
+
+            Thread background = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (DeploymentScheduler.acquireWriter(DeploymentScheduler.BACKGROUND, 10000)) {
+                        order.add("background");
+                        DeploymentScheduler.releaseWriter();
+                    }
+                }
+            });
+            Thread critical = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (DeploymentScheduler.acquireWriter(DeploymentScheduler.CRITICAL, 10000)) {
+                        order.add("critical");
+                        DeploymentScheduler.releaseWriter();
+                    }
+                }
+            });
+
+            background.start();
+            Thread.sleep(100);
+            critical.start();
+            Thread.sleep(100);
+            DeploymentScheduler.releaseWriter();
+            background.join(10000);
+            critical.join(10000);
+            Assert.assertEquals(Arrays.asList("critical", "background"), order);
+        } finally {
+            DeploymentScheduler.setLimits(0, 0);
+        }
+    }
+
+    /**
+     * Test that the writers sharing the bandwidth are paced to the limit, and that a bandwidth wait times out
+     * @throws Exception
+     */
+    @Test
+    public void testDeploymentSchedulerPacing() throws Exception {
+
+        final long bytesPerSecond = 4000000, chunk = 100000;
+        final int numChunks = 10;
+        DeploymentScheduler.setLimits(bytesPerSecond, 2);
+        try {
+            Thread[] writers = new Thread[2];
+            for (int i = 0; i < writers.length; ++i) {
+                writers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < numChunks; ++j)
+                            DeploymentScheduler.throttle(DeploymentScheduler.BACKGROUND, chunk, 10000);
+                    }
+                });
+            }
+
+            long t0 = System.nanoTime();
+            for (Thread writer : writers)
+                writer.start();
+            for (Thread writer : writers)
+                writer.join(10000);
+
+            // 2 MB at 4 MB/s, less the 100 ms burst
+            long elapsedMs = (System.nanoTime() - t0) / 1000000;
+            Assert.assertTrue("Elapsed: " + elapsedMs, elapsedMs >= 350 && elapsedMs < 5000);
+
+            // Pays for 2 sec ahead
+            Assert.assertTrue(DeploymentScheduler.throttle(DeploymentScheduler.CRITICAL, 2 * bytesPerSecond, 10000));
+            t0 = System.nanoTime();
+            Assert.assertFalse(DeploymentScheduler.throttle(DeploymentScheduler.BACKGROUND, chunk, 50));
+            Assert.assertTrue((System.nanoTime() - t0) / 1000000 < 1000);
+        } finally {
+            DeploymentScheduler.setLimits(0, 0);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestDeploymentThroughput {
+
+    /**
+     * Test that the throughput is measured from large enough samples, combined with the stored values and used
+     * for the deployment time estimate
+     * @throws IOException
+     */
+    @Test
+    public void testDeploymentThroughput() throws IOException {
+
+        Path path = testDir("testDeploymentThroughput");
+        Files.deleteIfExists(path.resolve(DeploymentThroughput.FILENAME));
+
+        // Too small to be measured
+        DeploymentThroughput.Meter meter = new DeploymentThroughput.Meter();
+        meter.addRead(1000, 1000);
+        meter.addWritten(1000, 1000);
+        Assert.assertTrue(meter.isEmpty());
+        DeploymentThroughput.update(path, meter);
+        Assert.assertNull(DeploymentThroughput.read(path));
+
+        // 4 MB read in 1 sec, 8 MB written in 1 sec (2 samples), no decompression
+        meter = new DeploymentThroughput.Meter();
+        meter.addRead(4000000, 1000000000);
+        meter.addWritten(4000000, 500000000);
+        meter.addWritten(4000000, 500000000);
+        DeploymentThroughput.update(path, meter);
+        DeploymentThroughput t = DeploymentThroughput.read(path);
+        Assert.assertNotNull(t);
+        Assert.assertEquals(4000, t.read, 0.1);
+        Assert.assertEquals(0, t.decompress, 0);
+        Assert.assertEquals(8000, t.write, 0.1);
+        Assert.assertEquals(1000 + 500, t.estimateMs(4000000, 0, 4000000));
+        Assert.assertEquals(-1, t.estimateMs(4000000, 12000000, 12000000));
+
+        // Combined with the stored values, unmeasured rates are kept
+        meter = new DeploymentThroughput.Meter();
+        meter.addRead(2000000, 1000000000);
+        meter.addDecompressed(12000000, 1000000000);
+        DeploymentThroughput.update(path, meter);
+        t = DeploymentThroughput.read(path);
+        Assert.assertEquals(3000, t.read, 0.1);
+        Assert.assertEquals(12000, t.decompress, 0.1);
+        Assert.assertEquals(8000, t.write, 0.1);
+        Assert.assertEquals(1000 + 1000 + 1500, t.estimateMs(3000000, 12000000, 12000000));
+
+        Files.write(path.resolve(DeploymentThroughput.FILENAME), "garbage\n1\t2\t3\n".getBytes());
+        Assert.assertNull(DeploymentThroughput.read(path));
+    }
+}
@@ -0,0 +1,44 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestElfDependencies {
+
+    /**
+     * Test ELF dynamic section parsing on a system library
+     * @throws IOException
+     */
+    @Test
+    public void testElfDependencies() throws IOException {
+
+        Path path = null;
+        for (String dir : new String[] {"/lib/x86_64-linux-gnu", "/lib/aarch64-linux-gnu", "/lib64", "/usr/lib64", "/lib"}) {
+            if (Files.exists(Paths.get(dir, "libm.so.6")))
+                path = Paths.get(dir, "libm.so.6");
+        }
+
+        Assume.assumeTrue(ResourceLoaderUtils.OS.isLinux() && null != path);
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            ElfDependencies elf = ElfDependencies.read(fc);
+            Assert.assertNotNull(elf);
+            Assert.assertEquals("libm.so.6", elf.soname);
+            Assert.assertTrue(elf.needed.contains("libc.so.6"));
+        }
+
+        Path notElf = testDir("testElfDependencies").resolve("a.so");
+        Files.write(notElf, new byte[100]);
+        try (FileChannel fc = FileChannel.open(notElf, StandardOpenOption.READ)) {
+            Assert.assertNull(ElfDependencies.read(fc));
+        }
+    }
+}
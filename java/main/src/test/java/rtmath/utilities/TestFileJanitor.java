@@ -0,0 +1,275 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static rtmath.utilities.FileJanitor.*;
+import static rtmath.utilities.TestFixture.*;
+
+public class TestFileJanitor {
+
+    /**
+     * Test that the completion marker is removed before redeploying, and not left behind by a failed deployment
+     * @throws Exception
+     */
+    @Test
+    public void testCompletionMarker() throws Exception {
+
+        Path src = testDir("testCompletionMarker");
+        writeFiles(src.resolve("res"), "a.txt", "a", "b.txt", "b");
+        Class<?> anchor = anchorClass(src);
+        Path dst = src.resolve("out");
+        Path marker = dst.resolve("deployed.$$$");
+        Files.deleteIfExists(marker);
+
+        ResourceLoader.from(anchor, "/res/*").to(dst.toString()).alwaysOverwrite(true).load();
+        Assert.assertTrue(Files.exists(marker));
+
+        // Can't be overwritten
+        Files.delete(dst.resolve("b.txt"));
+        Files.createDirectories(dst.resolve("b.txt"));
+        try {
+            ResourceLoader.from(anchor, "/res/*").to(dst.toString()).alwaysOverwrite(true).load();
+            Assert.fail("Deployment is expected to fail");
+        } catch (RuntimeException e) {
+            Assert.assertFalse(Files.exists(marker));
+        } finally {
+            Files.delete(dst.resolve("b.txt"));
+        }
+    }
+
+    private static LockLease waitForHeartbeat(Path path, long count) throws InterruptedException {
+        for (long t0 = System.currentTimeMillis(); System.currentTimeMillis() - t0 < 5000; Thread.sleep(10)) {
+            List<LockLease> leases = LockLease.readAll(lockFilePath(path), 1);
+            if (1 == leases.size() && leases.get(0).heartbeatCount >= count)
+                return leases.get(0);
+        }
+
+        return null;
+    }
+
+    /**
+     * Test that the heartbeat updates the lease record in the background until the lock file is closed
+     * @throws Exception
+     */
+    @Test
+    public void testLockFileHeartbeat() throws Exception {
+
+        Path path = testDir("testLockFileHeartbeat");
+
+        LockFile lf = tryCreateLockFile(path);
+        Assert.assertNotNull(lf);
+        try {
+            lf.setProgress(100, 1000);
+            lf.startHeartbeat(TimeUnit.MILLISECONDS.toNanos(20));
+            LockLease lease = waitForHeartbeat(path, 3);
+            Assert.assertNotNull(lease);
+            Assert.assertEquals(20, lease.periodMs);
+            Assert.assertEquals(100, lease.progressBytes);
+            Assert.assertEquals(1000, lease.totalBytes);
+
+            // Restarted with a new period, the progress is reported with the next update
+            lf.setProgress(500, 1000);
+            lf.startHeartbeat(TimeUnit.MILLISECONDS.toNanos(30));
+            lease = waitForHeartbeat(path, lease.heartbeatCount + 2);
+            Assert.assertNotNull(lease);
+            Assert.assertEquals(30, lease.periodMs);
+            Assert.assertEquals(500, lease.progressBytes);
+        } finally {
+            lf.close();
+        }
+
+        Assert.assertFalse(lockFileExists(path));
+        try {
+            lf.startHeartbeat(TimeUnit.MILLISECONDS.toNanos(20));
+            Assert.fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {}
+
+        // Stopped by close(), does not recreate the lock file
+        Thread.sleep(100);
+        Assert.assertFalse(lockFileExists(path));
+    }
+
+    /**
+     * Test that lock stripes only conflict with each other, if the filenames share the stripe
+     * @throws IOException
+     */
+    @Test
+    public void testLockFileStripes() throws IOException {
+
+        Path path = testDir("testLockFileStripes");
+        String a = "a.txt", b = "b.txt";
+        Assert.assertNotEquals(lockStripe(a), lockStripe(b));
+
+        try (LockFile lf = tryCreateLockFile(path, Arrays.asList(a))) {
+            Assert.assertNotNull(lf);
+            try (LockFile lf2 = tryCreateLockFile(path, Arrays.asList(b))) {
+                Assert.assertNotNull(lf2);
+            }
+
+            try (LockFile lf2 = tryCreateLockFile(path, Arrays.asList(b, a))) {
+                Assert.assertNull(lf2);
+            }
+
+            try (LockFile lf2 = tryCreateLockFile(path)) {
+                Assert.assertNull(lf2);
+            }
+
+            Assert.assertTrue(lockFileExists(path));
+        }
+
+        Assert.assertFalse(lockFileExists(path));
+        try (LockFile lf = tryCreateLockFile(path)) {
+            Assert.assertNotNull(lf);
+            Assert.assertNull(tryCreateLockFile(path, Arrays.asList(a)));
+        }
+    }
+
+    /**
+     * Test that the lock stripes held by the process survive failed lock attempts, lease reads and other owners
+     * closing their lock files: all of them share one channel of the lock file
+     * @throws Exception
+     */
+    @Test
+    public void testLockFileSharedChannel() throws Exception {
+
+        Path path = testDir("testLockFileSharedChannel");
+        String a = "a.txt", b = "b.txt";
+        long stripeA = STRIPES_OFFSET + lockStripe(a);
+
+        try (LockFile lf = tryCreateLockFile(path, Arrays.asList(a))) {
+            Assert.assertNotNull(lf);
+            try (LockFile lf2 = tryCreateLockFile(path, Arrays.asList(b))) {
+                Assert.assertNotNull(lf2);
+                Assert.assertNull(tryCreateLockFile(path, Arrays.asList(b, a)));
+                Assert.assertNull(tryCreateLockFile(path));
+                Assert.assertEquals(2, LockLease.readAll(lockFilePath(path), LOCK_STRIPES).size());
+                Assert.assertTrue(isLockedByOtherProcess(lockFilePath(path), stripeA));
+            }
+
+            Assert.assertTrue(lockFileExists(path));
+            Assert.assertTrue(isLockedByOtherProcess(lockFilePath(path), stripeA));
+        }
+
+        Assert.assertFalse(lockFileExists(path));
+    }
+
+    /**
+     * Child process for {@link #isLockedByOtherProcess}: prints "locked", if the byte of the file is locked
+     */
+    public static class LockProbe {
+        public static void main(String[] args) throws IOException {
+            try (FileChannel fc = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                System.out.println(null == fc.tryLock(Long.parseLong(args[1]), 1, false) ? "locked" : "free");
+            }
+        }
+    }
+
+    private static boolean isLockedByOtherProcess(Path file, long position) throws Exception {
+        Process process = startProcess(LockProbe.class, file.toString(), Long.toString(position));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line = reader.readLine();
+            process.waitFor();
+            return "locked".equals(line);
+        }
+    }
+
+    /**
+     * Test that the lock file is only broken if its owner is dead
+     * @throws IOException
+     */
+    @Test
+    public void testBreakStaleLock() throws IOException {
+
+        Assume.assumeTrue(ResourceLoaderUtils.OS.isLinux());
+        Path path = testDir("testBreakStaleLock");
+
+        try (LockFile lf = tryCreateLockFile(path)) {
+            Assert.assertFalse(tryBreakStaleLock(path));
+            Assert.assertTrue(getLockFileWriteTime(path) > System.currentTimeMillis() - 10000);
+            Assert.assertTrue(describeLockOwners(path).contains("heartbeat"));
+        }
+
+        // Leftover of a crashed process, that can't exist, while the lock is held by an older version
+        try (FileChannel fc = FileChannel.open(lockFilePath(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            LockLease.write(fc, 0, Integer.MAX_VALUE, 0, 100, 1, System.currentTimeMillis() - 1000, 0, 0);
+            try (FileLock lock = fc.lock()) {
+                Assert.assertFalse(tryBreakStaleLock(path));
+                Assert.assertTrue(lockFileExists(path));
+            }
+        }
+
+        Assert.assertTrue(tryBreakStaleLock(path));
+        Assert.assertFalse(lockFileExists(path));
+    }
+
+    private static void createCleanupDirs(Path root, long now) throws IOException {
+        for (String name : Arrays.asList("0001", "0002", "0003", "0004", "other")) {
+            Path dir = root.resolve(name);
+            Files.createDirectories(dir);
+            Files.write(dir.resolve("a.bin"), new byte[10]);
+            if (name.equals("0003"))
+                writeCompletionMarker(dir);
+
+            // Deployed by an older version otherwise, never marked as completed
+            if (!name.equals("0004"))
+                Files.write(dir.resolve(DeploymentLeases.FILENAME), new byte[0]);
+
+            long age = name.equals("0002") ? 0 : 2 * BACKGROUND_CLEANUP_MIN_AGE_MS;
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(now - age));
+        }
+    }
+
+    /**
+     * Test that the cleanup stops at its deadline, and that the background cleanup only deletes the abandoned
+     * incomplete deployments, not the ones of older versions without the completion marker
+     * @throws Exception
+     */
+    @Test
+    public void testCleanupBudget() throws Exception {
+
+        Path root = testDir("testCleanupBudget");
+        String regex = "^[0-9a-f]{4}$";
+        createCleanupDirs(root, System.currentTimeMillis());
+
+        // Out of time, nothing is deleted
+        CleanupPath path = new CleanupPath(root, false, regex);
+        Assert.assertFalse(path.tryCleanup(cleanupExecutor(), System.nanoTime() - 1, 0));
+        for (String name : Arrays.asList("0001", "0002", "0003", "0004", "other"))
+            Assert.assertTrue(name, Files.exists(root.resolve(name)));
+
+        Assert.assertTrue(path.tryCleanup(cleanupExecutor(), System.nanoTime() + 10000000000L, 0));
+        for (String name : Arrays.asList("0001", "0002", "0003", "0004"))
+            Assert.assertFalse(name, Files.exists(root.resolve(name)));
+
+        Assert.assertTrue(Files.exists(root.resolve("other")));
+
+        // Recent and completed deployments are kept, including the ones of older versions
+        createCleanupDirs(root, System.currentTimeMillis());
+        addCleanupPath(root, false, regex);
+        startBackgroundCleanup();
+        for (long t0 = System.currentTimeMillis(); Files.exists(root.resolve("0001"))
+            && System.currentTimeMillis() - t0 < 5000;)
+            Thread.sleep(10);
+
+        Assert.assertFalse(Files.exists(root.resolve("0001")));
+        for (String name : Arrays.asList("0002", "0003", "0004", "other"))
+            Assert.assertTrue(name, Files.exists(root.resolve(name).resolve("a.bin")));
+    }
+}
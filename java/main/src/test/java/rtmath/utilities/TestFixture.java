@@ -0,0 +1,65 @@
+package rtmath.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Shared setup of the unit tests: every test works in its own directory under the temporary directory
+ */
+final class TestFixture {
+    static final Path tmpTestPath = Paths.get(System.getProperty("java.io.tmpdir"), "_rl_tests");
+
+    private TestFixture() {
+    }
+
+    /**
+     * Directory of the test, created if missing
+     */
+    static Path testDir(String testName) throws IOException {
+        return Files.createDirectories(tmpTestPath.resolve(testName));
+    }
+
+    /**
+     * Write the files into the directory, created if missing
+     * @param namesAndContents filename and content pairs
+     */
+    static Path writeFiles(Path dir, String... namesAndContents) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < namesAndContents.length; i += 2)
+            Files.write(dir.resolve(namesAndContents[i]), namesAndContents[i + 1].getBytes());
+
+        return dir;
+    }
+
+    /**
+     * Class defined by its own class loader, whose resources are the files in the directory
+     */
+    static Class<?> anchorClass(Path dir) throws Exception {
+        Path classFile = dir.resolve("rtmath/utilities/TestProgram.class");
+        Files.createDirectories(classFile.getParent());
+        try (InputStream in = TestProgram.class.getResourceAsStream("TestProgram.class")) {
+            Files.copy(in, classFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return new URLClassLoader(new URL[] {dir.toUri().toURL()}, null).loadClass("rtmath.utilities.TestProgram");
+    }
+
+    /**
+     * Start the main class in a child JVM with the same class path, its error output is merged into the output
+     */
+    static Process startProcess(Class<?> mainClass, String... args) throws IOException {
+        ArrayList<String> command = new ArrayList<>(Arrays.asList(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"), mainClass.getName()));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+}
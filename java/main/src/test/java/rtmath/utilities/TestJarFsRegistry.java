@@ -0,0 +1,93 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static rtmath.utilities.TestFixture.testDir;
+
+public class TestJarFsRegistry {
+
+    // Closed and removed from the provider, which happens after isOpen() turns false
+    static boolean isClosed(URI uri, FileSystem fs) {
+        try {
+            return !fs.isOpen() && fs != FileSystems.getFileSystem(uri);
+        } catch (FileSystemNotFoundException e) {
+            return true;
+        }
+    }
+
+    static boolean waitUntilClosed(URI uri, FileSystem fs, long timeoutMs) throws InterruptedException {
+        for (long t0 = System.currentTimeMillis(); !isClosed(uri, fs) && System.currentTimeMillis() - t0 < timeoutMs;)
+            Thread.sleep(10);
+
+        return isClosed(uri, fs);
+    }
+
+    /**
+     * Test that the JAR filesystems are shared while leased, closed when idle, and never closed if opened by others
+     * @throws Exception
+     */
+    @Test
+    public void testJarFsRegistry() throws Exception {
+
+        Path jar = testDir("testJarFsRegistry").resolve("a.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("x/a.txt"));
+            out.closeEntry();
+        }
+
+        URI uri = URI.create("jar:" + jar.toUri());
+        long delayMs = JarFsRegistry._idleCloseDelayMs;
+        JarFsRegistry._idleCloseDelayMs = 100;
+        try {
+            JarFsRegistry.Lease lease1 = JarFsRegistry.acquire(URI.create(uri + "!/x"));
+            JarFsRegistry.Lease lease2 = JarFsRegistry.acquire(URI.create(uri + "!/y"));
+            FileSystem fs = lease1.fileSystem();
+            Assert.assertSame(fs, lease2.fileSystem());
+            Assert.assertTrue(Files.exists(fs.getPath("/x/a.txt")));
+
+            lease1.close();
+            lease1.close();
+            try {
+                lease1.fileSystem();
+                Assert.fail("IllegalStateException is expected");
+            } catch (IllegalStateException e) {}
+
+            Assert.assertFalse(waitUntilClosed(uri, fs, 300));
+
+            // Reacquired before the idle delay expired
+            lease2.close();
+            lease2 = JarFsRegistry.acquire(uri);
+            Assert.assertSame(fs, lease2.fileSystem());
+            Assert.assertFalse(waitUntilClosed(uri, fs, 300));
+
+            lease2.close();
+            Assert.assertTrue(waitUntilClosed(uri, fs, 5000));
+
+            // Opened by someone else, shared but not closed
+            try (FileSystem other = FileSystems.newFileSystem(uri, new HashMap<String, Object>())) {
+                JarFsRegistry.Lease lease = JarFsRegistry.acquire(uri);
+                Assert.assertSame(other, lease.fileSystem());
+                lease.close();
+                Assert.assertFalse(waitUntilClosed(uri, other, 300));
+            }
+
+            // Closed by its owner, reopened
+            JarFsRegistry.Lease lease = JarFsRegistry.acquire(uri);
+            Assert.assertNotSame(fs, lease.fileSystem());
+            Assert.assertTrue(lease.fileSystem().isOpen());
+            lease.close();
+        } finally {
+            JarFsRegistry._idleCloseDelayMs = delayMs;
+        }
+    }
+}
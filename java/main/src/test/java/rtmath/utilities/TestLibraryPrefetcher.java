@@ -0,0 +1,69 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestLibraryPrefetcher {
+
+    /**
+     * Test that the files are mapped and touched whole, and that the prefetched libraries are loaded as usual
+     * @throws Exception
+     */
+    @Test
+    public void testLibraryPrefetcher() throws Exception {
+
+        Path src = testDir("testLibraryPrefetcher");
+        Files.createDirectories(src.resolve("res"));
+        Path file = src.resolve("a.bin");
+        Files.write(file, new byte[100000]);
+        Files.write(src.resolve("empty.bin"), new byte[0]);
+
+        try (FileChannel fc = FileChannel.open(file)) {
+            List<MappedByteBuffer> mappings = LibraryPrefetcher.map(fc);
+            Assert.assertEquals(1, mappings.size());
+            Assert.assertEquals(100000, LibraryPrefetcher.touch(mappings));
+            LibraryPrefetcher.prefetch(fc, file);
+        }
+
+        try (FileChannel fc = FileChannel.open(src.resolve("empty.bin"))) {
+            Assert.assertEquals(0, LibraryPrefetcher.map(fc).size());
+        }
+
+        // Copy of the JDK's zip library, loaded by the JVM already
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        Path zip = ResourceLoaderUtils.OS.isWindows() ? javaHome.resolve("bin").resolve("zip.dll")
+            : javaHome.resolve("lib").resolve("libzip" + ResourceLoaderUtils.OS.dllExt());
+        Assume.assumeTrue(Files.exists(zip));
+
+        for (String name : Arrays.asList("rlzip", "rlzip2[prefetch@critical]"))
+            Files.copy(zip, src.resolve("res").resolve(name + ResourceLoaderUtils.OS.dllExt()),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        Class<?> anchor = anchorClass(src);
+        ResourceLoaderDone rl = ResourceLoader.from(anchor, "/res/*")
+            .toWithOptions(Files.createTempDirectory(src, "out").toString()).prefetchLibraries(true).load();
+        Assert.assertTrue(Files.exists(Paths.get(rl.getActualDeploymentPath(), "rlzip2" + ResourceLoaderUtils.OS.dllExt())));
+
+        Files.write(src.resolve("res").resolve("b[prefetch@soon].txt"), new byte[1]);
+        try {
+            ResourceLoader.from(anchor, "/res/*").to(Files.createTempDirectory(src, "out").toString()).load();
+            Assert.fail("RuntimeException is expected");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("[prefetch@soon]"));
+        } finally {
+            Files.delete(src.resolve("res").resolve("b[prefetch@soon].txt"));
+        }
+    }
+}
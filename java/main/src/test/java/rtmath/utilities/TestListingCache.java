@@ -0,0 +1,125 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static rtmath.utilities.ResourceLoaderUtils.fmt;
+import static rtmath.utilities.TestFixture.*;
+
+public class TestListingCache {
+
+    private static final long T0 = 1000000000000L;
+
+    // Entries have a fixed modification time, the same files make the same archive
+    private static void writeJar(Path jar, Map<String, String> files) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(jarEntry("rtmath/utilities/TestProgram.class"));
+            try (InputStream in = TestProgram.class.getResourceAsStream("TestProgram.class")) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0)
+                    out.write(buffer, 0, n);
+            }
+
+            out.closeEntry();
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                out.putNextEntry(jarEntry(e.getKey()));
+                out.write(e.getValue().getBytes());
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static JarEntry jarEntry(String name) {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(T0);
+        return entry;
+    }
+
+    /**
+     * Test that the listing cache is used while the source archive is unchanged, and is invalidated by its changes
+     * @throws Exception
+     */
+    @Test
+    public void testListingCache() throws Exception {
+
+        Path src = testDir("testListingCache");
+        Path jar = src.resolve("a.jar");
+        Path dst = Files.createTempDirectory(src, "out");
+        Map<String, String> files = new TreeMap<>();
+        files.put("res/", "");
+        files.put("res/a.txt", "hello");
+        files.put("res/b.txt", "world");
+        writeJar(jar, files);
+
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(T0));
+        URL jarUrl = new URL("jar:" + jar.toUri() + "!/res/");
+        String identity = ListingCache.archiveIdentity(jarUrl);
+        Assert.assertNotNull(identity);
+        Assert.assertNull(ListingCache.archiveIdentity(src.toUri().toURL()));
+
+        // Same modification time, different content: the central directory CRC differs
+        files.put("res/b.txt", "WORLD");
+        writeJar(jar, files);
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(T0));
+        Assert.assertNotEquals(identity, ListingCache.archiveIdentity(jarUrl));
+        files.put("res/b.txt", "world");
+
+        // The deployed files are leased by this process and are reused, a stale listing would miss c.txt
+        long delayMs = JarFsRegistry._idleCloseDelayMs;
+        JarFsRegistry._idleCloseDelayMs = 0;
+        try {
+            for (String added : Arrays.asList(null, null, "res/c.txt")) {
+                if (null != added)
+                    files.put(added, "added");
+
+                writeJar(jar, files);
+                Files.setLastModifiedTime(jar, FileTime.fromMillis(T0));
+                Assert.assertEquals(null == added, identity.equals(ListingCache.archiveIdentity(jarUrl)));
+
+                try (URLClassLoader loader = new URLClassLoader(new URL[] {jar.toUri().toURL()}, null)) {
+                    Class<?> anchor = loader.loadClass("rtmath.utilities.TestProgram");
+                    ResourceLoader.From from = ResourceLoader.from(anchor, "/res/*");
+                    Path cacheFile = ListingCache.cacheFilePath(dst, from.getActualResourcePath());
+                    String key = fmt("%s\t\t%s", from.getActualResourcePath(), ListingCache.archiveIdentity(jarUrl));
+                    Assert.assertEquals(null == added && Files.exists(cacheFile), null != ListingCache.read(cacheFile, key));
+                    from.to(dst.toString()).reusePartiallyDeployed(true).load();
+
+                    Assert.assertEquals(null != added, Files.exists(dst.resolve("c.txt")));
+                    List<ResourceIndex.Entry> entries = ListingCache.read(cacheFile, key);
+                    Assert.assertNotNull(entries);
+                    Assert.assertEquals(files.size() - 1, entries.size());
+                    Assert.assertNull(ListingCache.read(cacheFile, "other key"));
+                }
+
+                // The archive is reopened after the change
+                URI uri = URI.create("jar:" + jar.toUri());
+                for (long t0 = System.currentTimeMillis(); System.currentTimeMillis() - t0 < 5000; Thread.sleep(10)) {
+                    try {
+                        FileSystems.getFileSystem(uri);
+                    } catch (FileSystemNotFoundException e) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            JarFsRegistry._idleCloseDelayMs = delayMs;
+        }
+    }
+}
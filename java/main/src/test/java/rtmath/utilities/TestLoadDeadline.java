@@ -0,0 +1,82 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static rtmath.utilities.FileJanitor.*;
+import static rtmath.utilities.TestFixture.*;
+
+public class TestLoadDeadline {
+
+    /**
+     * Child process, that holds the whole lock file locked until its input is closed, like an older version would
+     */
+    public static class LockHolder {
+        public static void main(String[] args) throws IOException {
+            try (FileChannel fc = FileChannel.open(Paths.get(args[0]), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE); FileLock lock = fc.lock()) {
+                System.out.println("locked");
+                while (System.in.read() >= 0) {}
+            }
+        }
+    }
+
+    /**
+     * Test that load() gives up waiting for a lock held by another process at the deadline, and reports the phases
+     * @throws Exception
+     */
+    @Test
+    public void testDeadlineExceeded() throws Exception {
+
+        Path src = testDir("testDeadlineExceeded");
+        writeFiles(src.resolve("res"), "a.txt", "hello");
+        Path dst = Files.createTempDirectory(src, "out");
+        Class<?> anchor = anchorClass(src);
+
+        try {
+            ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString()).deadline(-1, TimeUnit.SECONDS);
+            Assert.fail("IllegalArgumentException is expected");
+        } catch (IllegalArgumentException e) {}
+
+        Process process = startProcess(LockHolder.class, lockFilePath(dst).toString());
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            Assert.assertEquals("locked", reader.readLine());
+
+            long t0 = System.currentTimeMillis();
+            try {
+                ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString())
+                    .deadline(500, TimeUnit.MILLISECONDS).load();
+                Assert.fail("DeadlineExceededException is expected");
+            } catch (DeadlineExceededException e) {
+                long elapsed = System.currentTimeMillis() - t0;
+                Assert.assertTrue(e.getMessage(), elapsed >= 500 && elapsed < 5000);
+                Assert.assertEquals(500, e.getDeadlineMillis());
+                Assert.assertTrue(e.getElapsedMillis() >= 500);
+                Assert.assertEquals(LoadDeadline.LOCK_WAIT, e.getPhase());
+                Assert.assertEquals(dst.toString(), e.getDeploymentPath());
+                Assert.assertTrue(e.getPhaseMillis().toString(), e.getPhaseMillis().get(LoadDeadline.LOCK_WAIT) > 0);
+            }
+
+            Assert.assertFalse(Files.exists(dst.resolve("a.txt")));
+        } finally {
+            process.getOutputStream().close();
+            process.waitFor();
+        }
+
+        // Nothing to wait for after the lock is released
+        ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString()).deadline(5, TimeUnit.SECONDS).load();
+        Assert.assertTrue(Files.exists(dst.resolve("a.txt")));
+    }
+}
@@ -0,0 +1,83 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestResourceIndex {
+
+    @Test
+    public void testResourceIndex() throws IOException {
+
+        Path path = writeFiles(testDir("testResourceIndex"), "b_txt", "world", "a[order@1].txt", "hello");
+        Assert.assertEquals(2, ResourceIndex.write(path));
+
+        ResourceIndex.Listing listing = ResourceIndex.read(path.resolve(ResourceIndex.FILENAME).toUri().toURL());
+        List<ResourceIndex.Entry> entries = listing.entries;
+        Assert.assertNotNull(listing.stamp);
+        Assert.assertTrue(listing.stamp, listing.stamp.startsWith("2\t"));
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("a[order@1].txt", entries.get(0).name);
+        Assert.assertEquals(0, entries.get(0).order);
+        Assert.assertEquals(5, entries.get(0).length);
+        Assert.assertEquals(5, entries.get(0).decompressedLength);
+        Assert.assertEquals(0x3610a686L, entries.get(0).checksum);
+        Assert.assertEquals("b_txt", entries.get(1).name);
+        Assert.assertEquals(1, entries.get(1).order);
+    }
+
+    /**
+     * Test that an index not matching its directory or archive is detected, and the resources are scanned instead
+     * @throws Exception
+     */
+    @Test
+    public void testStaleResourceIndex() throws Exception {
+
+        Path src = testDir("testStaleResourceIndex");
+        Files.deleteIfExists(src.resolve("res").resolve("c.txt"));
+        Path res = writeFiles(src.resolve("res"), "a.txt", "hello", "b.txt", "world");
+        Assert.assertEquals(2, ResourceIndex.write(res));
+
+        URL indexUrl = res.resolve(ResourceIndex.FILENAME).toUri().toURL();
+        Assert.assertTrue(ResourceIndex.isUpToDate(indexUrl, ResourceIndex.read(indexUrl)));
+        Files.write(res.resolve("b.txt"), "world!".getBytes());
+        Assert.assertFalse(ResourceIndex.isUpToDate(indexUrl, ResourceIndex.read(indexUrl)));
+
+        // Scanned, not listed from the index
+        ResourceLoaderDone rl = ResourceLoader.from(anchorClass(src), "/res/*").to(src.resolve("out").toString())
+            .alwaysOverwrite(true).load();
+        Assert.assertEquals("world!", new String(Files.readAllBytes(Paths.get(rl.getActualDeploymentPath(), "b.txt"))));
+        Files.write(res.resolve("b.txt"), "world".getBytes());
+
+        // In a JAR, a change of the same length is detected by the stamp. Other entries are never looked at
+        List<String> contents = Arrays.asList("world", "WORLD");
+        for (int i = 0; i < contents.size(); ++i) {
+            Path jar = src.resolve(i + ".jar");
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+                for (String name : Arrays.asList(ResourceIndex.FILENAME, "a.txt", "b.txt", "sub/c.txt")) {
+                    out.putNextEntry(new JarEntry("res/" + name));
+                    out.write(name.equals("b.txt") ? contents.get(i).getBytes()
+                        : name.equals("sub/c.txt") ? "added".getBytes() : Files.readAllBytes(res.resolve(name)));
+                    out.closeEntry();
+                }
+            }
+
+            indexUrl = new URL("jar:" + jar.toUri() + "!/res/" + ResourceIndex.FILENAME);
+            Assert.assertEquals(contents.get(i), 0 == i, ResourceIndex.isUpToDate(indexUrl, ResourceIndex.read(indexUrl)));
+        }
+
+        // Written by an older version, only the lengths are checked
+        ResourceIndex.Listing listing = new ResourceIndex.Listing(ResourceIndex.read(indexUrl).entries, null);
+        Assert.assertTrue(ResourceIndex.isUpToDate(indexUrl, listing));
+    }
+}
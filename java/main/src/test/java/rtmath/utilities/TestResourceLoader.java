@@ -3,11 +3,20 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.currentTimeMillis;
 import static java.lang.System.lineSeparator;
@@ -70,6 +79,58 @@ public class TestResourceLoader {
         tryClean(parent);
     }
 
+    @Test
+    public void testBatchDeployAndCleanupAbsPath() {
+        List<ResourceLoaderDone> rl = ResourceLoader.batch()
+            .add(ResourceLoader.from(srcBase + "dummy1.txt.zst").to(deploymentPath("batch_Test1")).shouldLoadDlls(false))
+            .add(ResourceLoader.from(srcBase + "dummy3.txt.zst").to(deploymentPath("batch_Test1")).shouldLoadDlls(false))
+            .add(ResourceLoader.from(src).to(deploymentPath("batch_Test2")).shouldLoadDlls(false))
+            .load();
+
+        Path path1 = Paths.get(rl.get(0).getActualDeploymentPath());
+        Path path2 = Paths.get(rl.get(2).getActualDeploymentPath());
+        Assert.assertEquals(path1, Paths.get(rl.get(1).getActualDeploymentPath()));
+        Assert.assertTrue(Files.exists(path1.resolve("dummy1.txt")));
+        Assert.assertTrue(Files.exists(path1.resolve("dummy3.txt")));
+        Assert.assertTrue(Files.exists(path2.resolve("dummy1.txt")));
+        tryClean(path1);
+        tryClean(path2);
+    }
+
+    @Test
+    public void testBatchConflictingOptions() {
+        ResourceLoader.Batch batch = ResourceLoader.batch()
+            .add(ResourceLoader.from(srcBase + "dummy1.txt.zst").to(deploymentPath("batch_Test3")).shouldLoadDlls(false))
+            .add(ResourceLoader.from(srcBase + "dummy3.txt.zst").to(deploymentPath("batch_Test4")).alwaysOverwrite(true));
+
+        try {
+            batch.add(ResourceLoader.from(srcBase + "dummy3.txt.zst").to(deploymentPath("batch_Test3")).alwaysOverwrite(true));
+            Assert.fail("IllegalArgumentException is expected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("batch_Test3"));
+        }
+    }
+
+    /**
+     * Test that the builder keeps the return types of the earlier versions, for the code compiled against them
+     */
+    @Test
+    public void testBinaryCompatibility() throws NoSuchMethodException {
+        Assert.assertEquals(ResourceLoaderInstance.class,
+            ResourceLoader.From.class.getMethod("to", String.class).getReturnType());
+        Assert.assertEquals(ResourceLoaderInstance.class,
+            ResourceLoader.To.class.getMethod("from", String.class).getReturnType());
+
+        // Bridge methods
+        Set<String> methods = new HashSet<>();
+        for (Method method : ResourceLoader.class.getDeclaredMethods())
+            methods.add(method.getName() + " " + method.getReturnType().getSimpleName());
+
+        for (String method : new String[] {"load ResourceLoaderDone", "unloadDlls ResourceLoaderDone",
+            "alwaysOverwrite ResourceLoaderInstance", "retryTimeout ResourceLoaderInstance"})
+            assertTrue(method, methods.contains(method));
+    }
+
     @Test
     public void testDeployAndCleanupAbsPathCopy() throws IOException {
         Path path = deployOnly(src, deploymentPath("deploy_Test2"));
@@ -99,6 +160,57 @@ public class TestResourceLoader {
         return dst;
     }
 
+    /**
+     * Test that loadAsync() loads in the executor's thread, and reports the failures through the future
+     * @throws Exception
+     */
+    @Test
+    public void testLoadAsync() throws Exception {
+
+        Path src = TestFixture.testDir("testLoadAsync");
+        TestFixture.writeFiles(src.resolve("res"), "a.txt", "hello");
+        Path dst = Files.createTempDirectory(src, "out");
+        Files.write(src.resolve("file"), new byte[0]);
+        Class<?> anchor = TestFixture.anchorClass(src);
+
+        try {
+            ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString()).loadAsync(null);
+            Assert.fail("NullPointerException is expected");
+        } catch (NullPointerException e) {}
+
+        final ArrayList<Thread> threads = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                threads.add(thread);
+                return thread;
+            }
+        });
+
+        try {
+            Future<ResourceLoaderDone> future = ResourceLoader.from(anchor, "/res/*").toWithOptions(dst.toString())
+                .loadAsync(executor);
+            ResourceLoaderDone rl = future.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(dst.toString(), rl.getActualDeploymentPath());
+            Assert.assertTrue(Files.exists(dst.resolve("a.txt")));
+            Assert.assertEquals(1, threads.size());
+
+            // Not a directory
+            future = ResourceLoader.from(anchor, "/res/*").toWithOptions(src.resolve("file").toString())
+                .loadAsync(executor);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail("ExecutionException is expected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RuntimeException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
     @Test
     public void testRunClasspathProcess() {
         String dst = prepareDstPath(deploymentPath("testRunClasspathProcess"));
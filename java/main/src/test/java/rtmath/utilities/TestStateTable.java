@@ -0,0 +1,84 @@
+package rtmath.utilities;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static rtmath.utilities.TestFixture.*;
+
+public class TestStateTable {
+
+    /**
+     * Test that the state table slots are shared between the mappings, and updated in place
+     * @throws Exception
+     */
+    @Test
+    public void testStateTable() throws Exception {
+
+        Path path = testDir("testStateTable");
+        Files.deleteIfExists(path.resolve(StateTable.FILENAME));
+
+        try (StateTable writer = StateTable.open(path); StateTable reader = StateTable.open(path)) {
+            Assert.assertNotNull(writer);
+            Assert.assertNotNull(reader);
+            Assert.assertEquals(StateTable.ABSENT, reader.state("a.txt"));
+
+            writer.set("a.txt", StateTable.WRITING, -1, -1);
+            Assert.assertEquals(StateTable.WRITING, reader.state("a.txt"));
+            Assert.assertEquals(-1, reader.length("a.txt"));
+            Assert.assertEquals(-1, reader.checksum("a.txt"));
+
+            writer.set("a.txt", StateTable.READY, 5, 0xFFFFFFFEL);
+            Assert.assertEquals(StateTable.READY, reader.state("a.txt"));
+            Assert.assertEquals(5, reader.length("a.txt"));
+            Assert.assertEquals(0xFFFFFFFEL, reader.checksum("a.txt"));
+            Assert.assertEquals(StateTable.ABSENT, reader.state("b.txt"));
+
+            // Slots of a stripe are updated in place, the files of a full stripe are not recorded
+            int stripe = FileJanitor.lockStripe("a.txt");
+            ArrayList<String> filenames = new ArrayList<>();
+            for (int i = 0; filenames.size() < 8; ++i) {
+                if (stripe == FileJanitor.lockStripe(i + ".txt"))
+                    filenames.add(i + ".txt");
+            }
+
+            for (int i = 0; i < 2; ++i) {
+                for (String filename : filenames)
+                    writer.set(filename, StateTable.READY, i, i);
+            }
+
+            Assert.assertEquals(StateTable.READY, reader.state("a.txt"));
+            Assert.assertEquals(1, reader.length(filenames.get(6)));
+            Assert.assertEquals(StateTable.ABSENT, reader.state(filenames.get(7)));
+        }
+
+        Files.write(path.resolve(StateTable.FILENAME), "garbage".getBytes());
+        Assert.assertNull(StateTable.open(path));
+    }
+
+    /**
+     * Test that the cooperative deployment reports the deployed files as ready
+     * @throws Exception
+     */
+    @Test
+    public void testCooperativeDeploymentState() throws Exception {
+
+        Path src = testDir("testCooperativeDeploymentState");
+        writeFiles(src.resolve("res"), "a.txt", "hello", "b.txt", "world!");
+        Path dst = Files.createTempDirectory(src, "out");
+
+        ResourceLoader.from(anchorClass(src), "/res/*").toWithOptions(dst.toString()).cooperativeDeployment(true)
+            .load();
+        try (StateTable table = StateTable.open(dst); FileChannel fc = FileChannel.open(dst.resolve("b.txt"))) {
+            Assert.assertNotNull(table);
+            Assert.assertEquals(StateTable.READY, table.state("a.txt"));
+            Assert.assertEquals(5, table.length("a.txt"));
+            Assert.assertEquals(StateTable.READY, table.state("b.txt"));
+            Assert.assertEquals(6, table.length("b.txt"));
+            Assert.assertEquals(ContentVerifier.checksum(fc), table.checksum("b.txt"));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package rtmath.utilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.foreign.SymbolLookup;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+
+import static rtmath.utilities.ResourceLoaderUtils.OS;
+
+/**
+ * Tests of the Java 22+ layer (src/main/java22), run with JDK 22: ./gradlew testJava22 -Pjdk22.home=/path/to/jdk-22
+ * <p>Uses the zip library of the running JDK, which exports {@code ZIP_Open}.
+ */
+public class TestNativeLibraryLoader {
+    final String tmp = System.getProperty("java.io.tmpdir");
+    final Path tmpTestPath = Paths.get(tmp, "_rl_tests");
+
+    static Path zipLibrary() {
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        return OS.isWindows() ? javaHome.resolve("bin").resolve("zip.dll")
+            : javaHome.resolve("lib").resolve("libzip" + OS.dllExt());
+    }
+
+    @Test
+    public void testLoadLookupUnload() {
+
+        Assert.assertTrue(NativeLibraryLoader.isSupported());
+        Object handle = NativeLibraryLoader.load(zipLibrary(), ResourceLoaderOptions.RTLD_NOW | ResourceLoaderOptions.RTLD_LOCAL);
+        Assert.assertNotNull(handle);
+
+        SymbolLookup lookup = (SymbolLookup)NativeLibraryLoader.symbolLookup(Collections.singletonList(handle));
+        Assert.assertTrue(lookup.find("ZIP_Open").isPresent());
+        Assert.assertFalse(lookup.find("rl_no_such_symbol").isPresent());
+
+        // The JDK keeps its own reference, the library stays loaded
+        NativeLibraryLoader.unload(handle);
+    }
+
+    @Test
+    public void testSystemLoad() {
+
+        Assert.assertNull(NativeLibraryLoader.load(zipLibrary(), -1));
+    }
+
+    @Test
+    public void testLoadFailure() {
+
+        try {
+            NativeLibraryLoader.load(tmpTestPath.resolve("rl_no_such_library" + OS.dllExt()), ResourceLoaderOptions.RTLD_LAZY);
+            Assert.fail("UnsatisfiedLinkError is expected");
+        } catch (UnsatisfiedLinkError e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("rl_no_such_library"));
+        }
+    }
+
+    /**
+     * Test that the libraries deployed and loaded with dlopen flags can be looked up and unloaded
+     * @throws Exception
+     */
+    @Test
+    public void testResourceLoaderDlopen() throws Exception {
+
+        Path src = tmpTestPath.resolve("testResourceLoaderDlopen");
+        Files.createDirectories(src.resolve("res"));
+        Files.copy(zipLibrary(), src.resolve("res").resolve("rlzip" + OS.dllExt()), StandardCopyOption.REPLACE_EXISTING);
+        Class<?> anchor = TestFixture.anchorClass(src);
+
+        ResourceLoaderOptions.Loaded rl = ResourceLoader.from(anchor, "/res/*")
+            .toWithOptions(src.resolve("out").toString()).dlopenFlags(ResourceLoaderOptions.RTLD_NOW | ResourceLoaderOptions.RTLD_LOCAL).load();
+
+        SymbolLookup lookup = (SymbolLookup)rl.symbolLookup();
+        Assert.assertNotNull(lookup);
+        Assert.assertTrue(lookup.find("ZIP_Open").isPresent());
+
+        rl.unloadDlls();
+        Assert.assertNull(rl.symbolLookup());
+    }
+
+    /**
+     * Test that a repeated load() joined to a completed deployment shares its library handles: they can be looked up
+     * and unloaded through either result, and the next load() loads them again
+     * @throws Exception
+     */
+    @Test
+    public void testJoinedLookupUnload() throws Exception {
+
+        Path src = tmpTestPath.resolve("testJoinedLookupUnload");
+        Files.createDirectories(src.resolve("res"));
+        Files.copy(zipLibrary(), src.resolve("res").resolve("rlzip" + OS.dllExt()), StandardCopyOption.REPLACE_EXISTING);
+        Class<?> anchor = TestFixture.anchorClass(src);
+        String dst = src.resolve("out").toString();
+        int flags = ResourceLoaderOptions.RTLD_NOW | ResourceLoaderOptions.RTLD_LOCAL;
+
+        ResourceLoaderOptions.Loaded owner = ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).dlopenFlags(flags).load();
+        ResourceLoaderOptions.Loaded joined = ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).dlopenFlags(flags).load();
+        Assert.assertNotSame(owner, joined);
+
+        SymbolLookup lookup = (SymbolLookup)joined.symbolLookup();
+        Assert.assertNotNull(lookup);
+        Assert.assertTrue(lookup.find("ZIP_Open").isPresent());
+
+        joined.unloadDlls();
+        Assert.assertNull(joined.symbolLookup());
+        Assert.assertNull(owner.symbolLookup());
+
+        // Not joined to the unloaded deployment
+        ResourceLoaderOptions.Loaded reloaded = ResourceLoader.from(anchor, "/res/*").toWithOptions(dst).dlopenFlags(flags).load();
+        Assert.assertNotNull(reloaded.symbolLookup());
+        reloaded.unloadDlls();
+        Assert.assertNull(reloaded.symbolLookup());
+    }
+}